@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Deterministic inputs for the benchmarks.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class Corpus {
+    public enum Size {
+        SMALL(1, 10, 1),
+        MEDIUM(50, 40, 1_000),
+        HUGE(1_000, 80, 50_000);
+
+        final int pages;
+        final int linesPerPage;
+        final int bibtexEntries;
+
+        Size(int pages, int linesPerPage, int bibtexEntries) {
+            this.pages = pages;
+            this.linesPerPage = linesPerPage;
+            this.bibtexEntries = bibtexEntries;
+        }
+    }
+
+    private Corpus() { }
+
+    /**
+     * Writes a document with the given size into a new temporary file.
+     */
+    public static File pdf(Size size) throws IOException {
+        File file = Files.createTempFile("pdfmeta-bench-" + size.name().toLowerCase(), ".pdf").toFile();
+        file.deleteOnExit();
+        Random random = new Random(size.ordinal());
+        try (PDDocument doc = new PDDocument()) {
+            for (int p = 0; p < size.pages; p++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.beginText();
+                    cs.setFont(PDType1Font.HELVETICA, 8);
+                    cs.setLeading(9);
+                    cs.newLineAtOffset(36, 756);
+                    for (int l = 0; l < size.linesPerPage; l++) {
+                        cs.showText(randomWords(random, 12));
+                        cs.newLine();
+                    }
+                    cs.endText();
+                }
+            }
+            doc.getDocumentInformation().setTitle("Benchmark document " + size);
+            doc.getDocumentInformation().setAuthor("Jane Doe, John Roe");
+            doc.getDocumentInformation().setCustomMetadataValue("bibtex", entry(0, random));
+            doc.save(file);
+        }
+        return file;
+    }
+
+    /**
+     * Returns a BibTeX database with the number of entries of the given size.
+     */
+    public static String bibtex(Size size) {
+        Random random = new Random(size.ordinal());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size.bibtexEntries; i++) {
+            sb.append(entry(i, random)).append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    private static String entry(int i, Random random) {
+        return "@article{key" + i + ",\n"
+                + "  author = {Doe, Jane and Roe, John and {Barnes and Noble} and Alexander Pope},\n"
+                + "  title = {On {PDF} metadata: " + randomWords(random, 6) + "},\n"
+                + "  journal = \"Journal of {Things}\",\n"
+                + "  doi = {10.1000/" + i + "},\n"
+                + "  abstract = {" + randomWords(random, 120) + "},\n"
+                + "  year = 2016\n"
+                + "}";
+    }
+
+    private static String randomWords(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int w = 0; w < count; w++) {
+            if (w > 0) {
+                sb.append(' ');
+            }
+            int length = 2 + random.nextInt(9);
+            for (int c = 0; c < length; c++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+}
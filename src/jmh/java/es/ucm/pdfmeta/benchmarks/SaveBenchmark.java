@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.benchmarks;
+
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.modifyDocFromModel;
+import es.ucm.pdfmeta.io.DocumentSaver;
+import es.ucm.pdfmeta.io.SaveMode;
+import es.ucm.pdfmeta.model.MetadataModel;
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing modified metadata back to a document with each {@link SaveMode}.
+ * Every invocation starts from a fresh copy of the original file.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveBenchmark {
+    @Param({ "SMALL", "MEDIUM", "HUGE" })
+    public Corpus.Size size;
+
+    @Param({ "FULL", "INCREMENTAL", "APPEND" })
+    public SaveMode mode;
+
+    private File original;
+    private File work;
+    private PDDocument doc;
+    private MetadataModel<String> model;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void createDocument() throws IOException {
+        original = Corpus.pdf(size);
+        work = Files.createTempFile("pdfmeta-bench-work", ".pdf").toFile();
+        work.deleteOnExit();
+    }
+
+    @Setup(Level.Invocation)
+    public void loadDocument() throws IOException {
+        Files.copy(original.toPath(), work.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        doc = PDDocument.load(work);
+        model = buildModelFromDocument(doc);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeDocument() throws IOException {
+        doc.close();
+    }
+
+    @Benchmark
+    public void modifyAndSave() throws IOException {
+        model.getProperty(TITLE_PROPERTY_NAME).setValue("Modified title " + counter++);
+        modifyDocFromModel(doc, model);
+        DocumentSaver.save(doc, original.length(), work, mode);
+    }
+}
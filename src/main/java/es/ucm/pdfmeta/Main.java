@@ -24,79 +24,253 @@
 
 package es.ucm.pdfmeta;
 
-import es.ucm.pdfmeta.controller.Controller;
-import es.ucm.pdfmeta.gui.MainDialog;
-import es.ucm.pdfmeta.model.MetadataModel;
-import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
-import static es.ucm.pdfmeta.model.MetadataModel.BIBTEX_PROPERTY_NAME;
-import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
-import es.ucm.pdfmeta.model.MetadataProperty;
+import es.ucm.pdfmeta.batch.BatchOptions;
+import es.ucm.pdfmeta.batch.BatchRunner;
+import es.ucm.pdfmeta.batch.DuplicateFinder;
+import es.ucm.pdfmeta.batch.FolderWatcher;
+import es.ucm.pdfmeta.batch.IndexSearcher;
+import es.ucm.pdfmeta.batch.IndexUpdater;
+import es.ucm.pdfmeta.batch.ManifestImporter;
+import es.ucm.pdfmeta.batch.MetadataExporter;
+import es.ucm.pdfmeta.batch.UndoRunner;
+import es.ucm.pdfmeta.gui.EditingSession;
+import es.ucm.pdfmeta.gui.LibraryFrame;
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.server.MetadataServer;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.JOptionPane;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
-import org.apache.pdfbox.pdmodel.PDDocument;
 
 /**
  *
  * @author Manuel Montenegro (mmontene@ucm.es)
  */
 public class Main {
+    /**
+     * Number of files loaded ahead of the one being edited.
+     */
+    private static final int PREFETCH_COUNT = 2;
+
+    /**
+     * Bounds of the documents kept open by the library window, and of the
+     * buffers of each one; the rest spill to scratch files.
+     */
+    private static final int LIBRARY_MAX_DOCUMENTS = 16;
+    private static final long LIBRARY_MAX_BYTES = 256L << 20;
+    private static final long LIBRARY_MAX_MEMORY = 16L << 20;
+
+    private static final String RESIDENT_CLIENT = "es.ucm.pdfmeta.daemon.ResidentClient";
+    private static final String RESIDENT_SERVER = "es.ucm.pdfmeta.daemon.ResidentServer";
+
+    private static boolean lookAndFeelSet;
+
     public static void main(String[] args) {
-        PDDocument doc = null;
-        try {
-            if (args.length > 0) {
-                UIManager.setLookAndFeel("com.sun.java.swing.plaf.nimbus.NimbusLookAndFeel");
-                for (String arg : args) {
-                    File f = new File(arg);
-                    doc = PDDocument.load(f);
-                    MetadataModel<String> m = buildModelFromDocument(doc);
-                    Controller c = new Controller(m);
+        if (args.length > 0 && args[0].equals("--resident")) {
+            System.exit(runResident(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        if (args.length > 0 && args[0].equals("--resident-server")) {
+            System.exit(runResidentServer(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        int status = run(args, null, System.out, System.err, false);
+        if (status != 0 || BatchOptions.isBatchInvocation(args)) {
+            System.exit(status);
+        }
+    }
 
-                    MainDialog md = new MainDialog(arg, m, c);
-                    if (md.runDialog()) {
-                        modifyDocFromModel(doc, m);
-                        doc.save(arg);
-                    } 
-                }
+    /**
+     * Runs a command line.
+     *
+     * @param dir directory against which relative paths are resolved, or
+     *        null for the working directory
+     * @param resident true if the command runs in the resident daemon, which
+     *        does not run the long-lived {@code --serve} and {@code --watch}
+     *        modes
+     * @return the exit status
+     */
+    public static int run(String[] args, File dir, PrintStream out, PrintStream err, boolean resident) {
+        boolean library = args.length > 0 && args[0].equals("--library");
+        if (!library && BatchOptions.isBatchInvocation(args)) {
+            return runBatch(args, dir, out, err, resident);
+        }
+        List<File> files = new ArrayList<>();
+        for (String arg : library ? Arrays.copyOfRange(args, 1, args.length) : args) {
+            File file = new File(arg);
+            files.add(dir == null || file.isAbsolute() ? file : new File(dir, arg));
+        }
+        if (files.isEmpty()) {
+            err.println("error: no input file(s) specified");
+            return 2;
+        }
+        try {
+            setLookAndFeel();
+            if (library) {
+                DocumentLoader loader = new DocumentLoader(LIBRARY_MAX_MEMORY, false, null, null);
+                new LibraryFrame(loader, LIBRARY_MAX_DOCUMENTS, LIBRARY_MAX_BYTES).run(files);
             } else {
-                System.err.println("error: no input file(s) specified");
+                new EditingSession(DocumentLoader.DEFAULT, PREFETCH_COUNT).run(files);
             }
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(null, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | UnsupportedLookAndFeelException ex) {
             Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            if (doc != null) try { doc.close(); } catch (IOException ex) {}
         }
-    
+        return 0;
+    }
+
+    /**
+     * Sets the Nimbus look and feel, once per JVM.
+     */
+    private static synchronized void setLookAndFeel() throws ClassNotFoundException, InstantiationException,
+            IllegalAccessException, UnsupportedLookAndFeelException {
+        if (!lookAndFeelSet) {
+            UIManager.setLookAndFeel("com.sun.java.swing.plaf.nimbus.NimbusLookAndFeel");
+            lookAndFeelSet = true;
+        }
+    }
+
+    private static int runBatch(String[] args, File dir, PrintStream out, PrintStream err, boolean resident) {
+        try {
+            BatchOptions options = BatchOptions.parse(args, dir);
+            Metrics.Scope metrics = options.openMetrics();
+            try {
+                if (resident && (options.getServePort() >= 0 || options.isWatch())) {
+                    throw new IllegalArgumentException("--serve and --watch cannot be run in the resident daemon");
+                }
+                if (options.getServePort() >= 0) {
+                    MetadataServer server = new MetadataServer(options, err);
+                    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+                    server.start();
+                    server.awaitStop();
+                    return 0;
+                }
+                if (options.isWatch()) {
+                    FolderWatcher watcher = new FolderWatcher(options, out, err);
+                    Runtime.getRuntime().addShutdownHook(new Thread(watcher::close));
+                    watcher.run();
+                    return 0;
+                }
+                if (options.getExportFormat() != null) {
+                    MetadataExporter exporter = new MetadataExporter(options, out, err);
+                    return exporter.run() == 0 ? 0 : 1;
+                }
+                if (options.getImportFile() != null) {
+                    ManifestImporter importer = new ManifestImporter(options, out, err);
+                    return importer.run() == 0 ? 0 : 1;
+                }
+                if (options.getSearchQuery() != null) {
+                    IndexSearcher searcher = new IndexSearcher(options, out, err);
+                    return searcher.run() > 0 ? 0 : 1;
+                }
+                if (options.getIndexFile() != null) {
+                    IndexUpdater updater = new IndexUpdater(options, out, err);
+                    return updater.run() == 0 ? 0 : 1;
+                }
+                if (options.getUndoFile() != null) {
+                    UndoRunner undo = new UndoRunner(options, out, err);
+                    return undo.run() == 0 ? 0 : 1;
+                }
+                if (options.isDuplicates()) {
+                    DuplicateFinder finder = new DuplicateFinder(options, out, err);
+                    return finder.run() == 0 ? 0 : 1;
+                }
+                BatchRunner runner = new BatchRunner(options, out, err);
+                return runner.run() == 0 ? 0 : 1;
+            } finally {
+                metrics.close();
+            }
+        } catch (IllegalArgumentException ex) {
+            err.println("error: " + ex.getMessage());
+            return 2;
+        } catch (IOException ex) {
+            err.println("error: " + ex.getMessage());
+            return 1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
 
+    /**
+     * Returns true if this JVM supports Unix domain sockets (Java 16 or
+     * later) and the daemon classes, which are only built by Java 16 or
+     * later, are present.
+     */
+    private static boolean isResidentSupported() {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            Class.forName(RESIDENT_CLIENT);
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return false;
+        }
     }
 
-    private static void modifyDocFromModel(PDDocument doc, MetadataModel<String> m) {
-        doc.getDocumentInformation().setAuthor(m.getProperty(AUTHOR_PROPERTY_NAME).getValue());
-        doc.getDocumentInformation().setTitle(m.getProperty(TITLE_PROPERTY_NAME).getValue());
-        doc.getDocumentInformation().setCustomMetadataValue(BIBTEX_PROPERTY_NAME, m.getProperty(BIBTEX_PROPERTY_NAME).getValue());
+    /**
+     * Calls a static method of a daemon class taking the command line. The
+     * daemon is compiled for Java 16 apart from the rest of the program, so
+     * it is only looked up at run time.
+     */
+    private static int callResident(String className, String method, String[] args)
+            throws IOException, InterruptedException {
+        try {
+            return (Integer) Class.forName(className).getMethod(method, String[].class).invoke(null, (Object) args);
+        } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException(className + " cannot be called", ex);
+        }
     }
 
-    private static MetadataModel<String> buildModelFromDocument(PDDocument doc) {
-        MetadataModel<String> m = new MetadataModel<>();
-        m.setProperty(AUTHOR_PROPERTY_NAME, new MetadataProperty<>(
-                AUTHOR_PROPERTY_NAME,
-                doc.getDocumentInformation().getAuthor()
-        ));
-        m.setProperty(TITLE_PROPERTY_NAME, new MetadataProperty<>(
-                TITLE_PROPERTY_NAME,
-                doc.getDocumentInformation().getTitle()
-        ));
-        m.setProperty(BIBTEX_PROPERTY_NAME, new MetadataProperty<>(
-                BIBTEX_PROPERTY_NAME,
-                doc.getDocumentInformation().getCustomMetadataValue(BIBTEX_PROPERTY_NAME)
-        ));
-        return m;
+    /**
+     * Runs a command line in the resident daemon, or in this JVM if the
+     * daemon cannot be used.
+     */
+    private static int runResident(String[] args) {
+        if (isResidentSupported()) {
+            try {
+                return callResident(RESIDENT_CLIENT, "run", args);
+            } catch (IOException ex) {
+                System.err.println("warning: " + ex.getMessage() + "; running without the daemon");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return 1;
+            }
+        } else {
+            System.err.println("warning: --resident requires Java 16 or later; running without the daemon");
+        }
+        return run(args, null, System.out, System.err, false);
     }
 
+    private static int runResidentServer(String[] args) {
+        if (!isResidentSupported()) {
+            System.err.println("error: --resident-server requires Java 16 or later");
+            return 1;
+        }
+        try {
+            return callResident(RESIDENT_SERVER, "serve", args);
+        } catch (IOException ex) {
+            System.err.println("error: " + ex.getMessage());
+            return 1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
 }
@@ -0,0 +1,615 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.io.ByteBudget;
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.SaveMode;
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.model.MetadataField;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options of the headless batch mode.
+ *
+ * <pre>
+ * pdfmeta [--set name=value]... [--from-bibtex file | --apply-bib file] [--threads n]
+ *         [--save full|incremental|append] [--xmp] [--guess] [--journal file] [memory options]
+ *         [cache options] file|dir...
+ * pdfmeta --list [--threads n] [memory options] [cache options] file|dir...
+ * pdfmeta --export csv|jsonl [--output file] [--ordered] [--threads n] [memory options] file|dir...
+ * pdfmeta --import manifest.csv|manifest.jsonl [--dry-run] [--threads n]
+ *         [--save full|incremental|append] [--xmp] [--guess] [--journal file] [memory options]
+ *         [cache options]
+ * pdfmeta --duplicates [--propagate] [--threads n] [--save mode] [--xmp] [--journal file]
+ *         [memory options] [cache options] file|dir...
+ * pdfmeta --undo journal [--threads n] [--save mode] [memory options]
+ * pdfmeta --index file [--threads n] [memory options] [cache options] file|dir...
+ * pdfmeta --search query --index file
+ * pdfmeta --watch [--settle ms] [--queue n] [--status-interval s] [other options] dir...
+ * pdfmeta --serve port [--threads n] [--queue n] [--save mode] [--xmp] [memory options] dir...
+ *
+ * memory options: [--max-memory size] [--temp-file-only] [--scratch-dir dir]
+ *                 [--max-open-bytes size]
+ * cache options:  [--cache file] [--cache-hash]
+ * all modes accept [--metrics file]
+ * </pre>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class BatchOptions {
+    static final List<String> PROPERTY_NAMES = MetadataField.propertyNames();
+
+    private final Map<String, String> assignments = new LinkedHashMap<>();
+    private final List<File> inputs = new ArrayList<>();
+    private File bibtexFile;
+    private File bibLibrary;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private SaveMode saveMode = SaveMode.INCREMENTAL;
+    private boolean listOnly;
+    private long maxMemory = -1;
+    private boolean tempFileOnly;
+    private File scratchDir;
+    private long maxOpenBytes = -1;
+    private File cacheFile;
+    private boolean cacheHash;
+    private boolean xmp;
+    private boolean watch;
+    private long settleMillis = 1000;
+    private int queueCapacity = 1024;
+    private int statusInterval = 60;
+    private int servePort = -1;
+    private File metricsFile;
+    private ExportFormat exportFormat;
+    private File outputFile;
+    private boolean ordered;
+    private File importFile;
+    private boolean dryRun;
+    private boolean duplicates;
+    private boolean propagate;
+    private File indexFile;
+    private String searchQuery;
+    private File journalFile;
+    private File undoFile;
+    private boolean guess;
+    private Metrics.Scope metrics;
+    private File dir;
+
+    /**
+     * Returns true when the arguments request the headless mode rather than
+     * the interactive editor, that is, when at least one option is given.
+     */
+    public static boolean isBatchInvocation(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static BatchOptions parse(String[] args) {
+        return parse(args, null);
+    }
+
+    /**
+     * Parses the arguments, resolving relative paths against {@code dir}, or
+     * against the working directory if it is null.
+     */
+    public static BatchOptions parse(String[] args, File dir) {
+        BatchOptions result = new BatchOptions();
+        result.dir = dir;
+        boolean endOfOptions = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (endOfOptions || !arg.startsWith("--")) {
+                result.inputs.add(resolve(dir, arg));
+                continue;
+            }
+            switch (arg) {
+                case "--":
+                    endOfOptions = true;
+                    break;
+                case "--batch":
+                    break;
+                case "--set":
+                    String assignment = requireValue(args, ++i, arg);
+                    int eqPos = assignment.indexOf('=');
+                    if (eqPos <= 0) {
+                        throw new IllegalArgumentException("expected name=value after --set, found: " + assignment);
+                    }
+                    String name = assignment.substring(0, eqPos).trim();
+                    if (!PROPERTY_NAMES.contains(name)) {
+                        throw new IllegalArgumentException("unknown property: " + name);
+                    }
+                    result.assignments.put(name, assignment.substring(eqPos + 1));
+                    break;
+                case "--from-bibtex":
+                    result.bibtexFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--apply-bib":
+                    result.bibLibrary = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--threads":
+                    result.threads = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--list":
+                    result.listOnly = true;
+                    break;
+                case "--save":
+                    result.saveMode = SaveMode.parse(requireValue(args, ++i, arg));
+                    break;
+                case "--max-memory":
+                    result.maxMemory = parseSize(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--temp-file-only":
+                    result.tempFileOnly = true;
+                    break;
+                case "--scratch-dir":
+                    result.scratchDir = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--max-open-bytes":
+                    result.maxOpenBytes = parseSize(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--cache":
+                    result.cacheFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--cache-hash":
+                    result.cacheHash = true;
+                    break;
+                case "--xmp":
+                    result.xmp = true;
+                    break;
+                case "--watch":
+                    result.watch = true;
+                    break;
+                case "--settle":
+                    result.settleMillis = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--queue":
+                    result.queueCapacity = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--metrics":
+                    result.metricsFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--serve":
+                    result.servePort = parsePort(requireValue(args, ++i, arg), arg);
+                    break;
+                case "--export":
+                    result.exportFormat = ExportFormat.parse(requireValue(args, ++i, arg));
+                    break;
+                case "--output":
+                    result.outputFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--ordered":
+                    result.ordered = true;
+                    break;
+                case "--import":
+                    result.importFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--dry-run":
+                    result.dryRun = true;
+                    break;
+                case "--duplicates":
+                    result.duplicates = true;
+                    break;
+                case "--propagate":
+                    result.propagate = true;
+                    break;
+                case "--index":
+                    result.indexFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--search":
+                    result.searchQuery = requireValue(args, ++i, arg);
+                    break;
+                case "--journal":
+                    result.journalFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--guess":
+                    result.guess = true;
+                    break;
+                case "--undo":
+                    result.undoFile = resolve(dir, requireValue(args, ++i, arg));
+                    break;
+                case "--status-interval":
+                    result.statusInterval = parsePositiveInt(requireValue(args, ++i, arg), arg);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        if (result.listOnly && (!result.assignments.isEmpty() || result.bibtexFile != null
+                || result.bibLibrary != null)) {
+            throw new IllegalArgumentException("--list cannot be combined with --set, --from-bibtex or --apply-bib");
+        }
+        if (result.listOnly && result.watch) {
+            throw new IllegalArgumentException("--list cannot be combined with --watch");
+        }
+        if (result.servePort >= 0 && (result.listOnly || result.watch || !result.assignments.isEmpty()
+                || result.bibtexFile != null || result.bibLibrary != null)) {
+            throw new IllegalArgumentException(
+                    "--serve cannot be combined with --list, --watch, --set, --from-bibtex or --apply-bib");
+        }
+        if (result.exportFormat != null && (result.listOnly || result.watch || result.servePort >= 0
+                || !result.assignments.isEmpty() || result.bibtexFile != null || result.bibLibrary != null)) {
+            throw new IllegalArgumentException(
+                    "--export cannot be combined with --list, --watch, --serve, --set, --from-bibtex or --apply-bib");
+        }
+        if (result.exportFormat == null && (result.outputFile != null || result.ordered)) {
+            throw new IllegalArgumentException("--output and --ordered require --export");
+        }
+        if (result.importFile != null && (result.listOnly || result.watch || result.servePort >= 0
+                || result.exportFormat != null || !result.assignments.isEmpty() || result.bibtexFile != null
+                || result.bibLibrary != null || !result.inputs.isEmpty())) {
+            throw new IllegalArgumentException("--import cannot be combined with --list, --watch, --serve, --export, "
+                    + "--set, --from-bibtex, --apply-bib or input files");
+        }
+        if (result.importFile == null && result.dryRun) {
+            throw new IllegalArgumentException("--dry-run requires --import");
+        }
+        if (result.duplicates && (result.listOnly || result.watch || result.servePort >= 0
+                || result.exportFormat != null || result.importFile != null || !result.assignments.isEmpty()
+                || result.bibtexFile != null || result.bibLibrary != null)) {
+            throw new IllegalArgumentException("--duplicates cannot be combined with --list, --watch, --serve, "
+                    + "--export, --import, --set, --from-bibtex or --apply-bib");
+        }
+        if (!result.duplicates && result.propagate) {
+            throw new IllegalArgumentException("--propagate requires --duplicates");
+        }
+        if (result.indexFile != null && (result.listOnly || result.watch || result.servePort >= 0
+                || result.exportFormat != null || result.importFile != null || result.duplicates
+                || !result.assignments.isEmpty() || result.bibtexFile != null || result.bibLibrary != null)) {
+            throw new IllegalArgumentException("--index cannot be combined with --list, --watch, --serve, --export, "
+                    + "--import, --duplicates, --set, --from-bibtex or --apply-bib");
+        }
+        if (result.searchQuery != null && (result.indexFile == null || !result.inputs.isEmpty())) {
+            throw new IllegalArgumentException("--search requires --index and no input files");
+        }
+        if (result.journalFile != null && (result.listOnly || result.watch || result.servePort >= 0
+                || result.exportFormat != null || result.indexFile != null || result.dryRun)) {
+            throw new IllegalArgumentException("--journal cannot be combined with --list, --watch, --serve, --export, "
+                    + "--index, --search or --dry-run");
+        }
+        if (result.undoFile != null && (result.listOnly || result.watch || result.servePort >= 0
+                || result.exportFormat != null || result.importFile != null || result.duplicates
+                || result.indexFile != null || result.journalFile != null || !result.assignments.isEmpty()
+                || result.bibtexFile != null || result.bibLibrary != null || !result.inputs.isEmpty())) {
+            throw new IllegalArgumentException("--undo cannot be combined with other modes, --journal, --set, "
+                    + "--from-bibtex, --apply-bib or input files");
+        }
+        if (result.guess && (result.listOnly || result.servePort >= 0 || result.exportFormat != null
+                || result.duplicates || result.indexFile != null || result.undoFile != null || result.dryRun)) {
+            throw new IllegalArgumentException("--guess cannot be combined with --list, --serve, --export, "
+                    + "--duplicates, --index, --search, --undo or --dry-run");
+        }
+        if (result.bibtexFile != null && result.bibLibrary != null) {
+            throw new IllegalArgumentException("--from-bibtex cannot be combined with --apply-bib");
+        }
+        if (result.inputs.isEmpty() && result.importFile == null && result.searchQuery == null
+                && result.undoFile == null) {
+            throw new IllegalArgumentException("no input file(s) specified");
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a path found in an input, such as a manifest, against the
+     * directory the command line was given in.
+     */
+    File resolve(String path) {
+        return resolve(dir, path);
+    }
+
+    private static File resolve(File dir, String path) {
+        File file = new File(path);
+        return dir == null || file.isAbsolute() ? file : new File(dir, path);
+    }
+
+    static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("missing value for " + option);
+        }
+        return args[index];
+    }
+
+    static int parsePositiveInt(String value, String option) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException ex) { }
+        throw new IllegalArgumentException("expected a positive number after " + option + ", found: " + value);
+    }
+
+    static int parsePort(String value, String option) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 0 && n <= 0xffff) {
+                return n;
+            }
+        } catch (NumberFormatException ex) { }
+        throw new IllegalArgumentException("expected a port number after " + option + ", found: " + value);
+    }
+
+    /**
+     * Parses a byte count with an optional K, M or G suffix (powers of 1024).
+     */
+    static long parseSize(String value, String option) {
+        String digits = value.trim().toUpperCase();
+        long unit = 1;
+        if (digits.endsWith("K")) {
+            unit = 1L << 10;
+        } else if (digits.endsWith("M")) {
+            unit = 1L << 20;
+        } else if (digits.endsWith("G")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long n = Long.parseLong(digits);
+            if (n > 0) {
+                return n * unit;
+            }
+        } catch (NumberFormatException ex) { }
+        throw new IllegalArgumentException("expected a size such as 64M after " + option + ", found: " + value);
+    }
+
+    /**
+     * Property values given with {@code --set}, in command line order.
+     */
+    public Map<String, String> getAssignments() {
+        return Collections.unmodifiableMap(assignments);
+    }
+
+    public List<File> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    public File getBibtexFile() {
+        return bibtexFile;
+    }
+
+    /**
+     * BibTeX database whose entries are matched against each file, or null.
+     */
+    public File getBibLibrary() {
+        return bibLibrary;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns true if the metadata of each file is to be printed instead of
+     * modified.
+     */
+    public boolean isListOnly() {
+        return listOnly;
+    }
+
+    public SaveMode getSaveMode() {
+        return saveMode;
+    }
+
+    /**
+     * File of the persistent scan cache, or null if no cache is used.
+     */
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Returns true if cache entries are also validated with a quick hash of
+     * the file contents.
+     */
+    public boolean isCacheHash() {
+        return cacheHash;
+    }
+
+    /**
+     * Returns true if the XMP packet of each file is to be brought in line
+     * with its metadata, creating the packet where there is none.
+     */
+    public boolean isXmp() {
+        return xmp;
+    }
+
+    /**
+     * Returns true if the inputs are spool directories to be watched for new
+     * files rather than processed once.
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * Time a watched file must go without changes before it is processed.
+     */
+    public long getSettleMillis() {
+        return settleMillis;
+    }
+
+    /**
+     * Maximum number of settled files waiting for a worker in watch mode.
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Seconds between status lines in watch mode.
+     */
+    public int getStatusInterval() {
+        return statusInterval;
+    }
+
+    /**
+     * Port of the local HTTP service, 0 for any free port, or -1 if the
+     * service is not requested.
+     */
+    public int getServePort() {
+        return servePort;
+    }
+
+    /**
+     * File where timing and resource metrics are written at the end of the
+     * run, or null.
+     */
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * Starts counting the metrics of this run, so that the summary written
+     * by {@link #writeMetrics()} leaves out whatever the process did before.
+     * The scope has to be closed when the run ends.
+     */
+    public Metrics.Scope openMetrics() {
+        metrics = Metrics.openScope();
+        return metrics;
+    }
+
+    /**
+     * Writes the metrics summary to the {@code --metrics} file, if given:
+     * that of the run if {@link #openMetrics()} has been called, and that of
+     * the process otherwise.
+     */
+    public void writeMetrics() throws IOException {
+        if (metricsFile != null) {
+            if (metrics != null) {
+                metrics.write(metricsFile);
+            } else {
+                Metrics.write(metricsFile);
+            }
+        }
+    }
+
+    /**
+     * Format of the metadata export, or null if no export is requested.
+     */
+    public ExportFormat getExportFormat() {
+        return exportFormat;
+    }
+
+    /**
+     * File the export is written to, or null for the standard output.
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Returns true if exported records are to be written in the order the
+     * files are found rather than as soon as they are ready.
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Manifest whose rows are to be applied, or null.
+     */
+    public File getImportFile() {
+        return importFile;
+    }
+
+    /**
+     * Returns true if the changes of the manifest are to be reported rather
+     * than written.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Returns true if copies of the same document are to be found among the
+     * inputs.
+     */
+    public boolean isDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Returns true if the metadata of the best tagged copy of a document is
+     * to be copied to the others.
+     */
+    public boolean isPropagate() {
+        return propagate;
+    }
+
+    /**
+     * Inverted index to update with the inputs or to search, or null.
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Query to run against the index, or null to update the index instead.
+     */
+    public String getSearchQuery() {
+        return searchQuery;
+    }
+
+    /**
+     * Write-ahead journal that makes the run resumable and undoable, or null.
+     */
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Returns true if missing titles and authors are to be guessed from the
+     * first page of each file.
+     */
+    public boolean isGuess() {
+        return guess;
+    }
+
+    /**
+     * Journal of a previous run whose changes are to be undone, or null.
+     */
+    public File getUndoFile() {
+        return undoFile;
+    }
+
+    /**
+     * Creates a loader that applies the memory options.
+     */
+    public DocumentLoader createLoader() {
+        return new DocumentLoader(maxMemory, tempFileOnly, scratchDir,
+                maxOpenBytes > 0 ? new ByteBudget(maxOpenBytes) : null);
+    }
+}
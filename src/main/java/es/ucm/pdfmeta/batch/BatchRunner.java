@@ -0,0 +1,467 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.bibtex.BibtexEntry;
+import es.ucm.pdfmeta.bibtex.BibtexIndex;
+import es.ucm.pdfmeta.bibtex.BibtexParser;
+import es.ucm.pdfmeta.cache.ScanCache;
+import es.ucm.pdfmeta.controller.Controller;
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.DocumentSaver;
+import es.ucm.pdfmeta.io.FirstPageGuesser;
+import es.ucm.pdfmeta.io.InfoReader;
+import es.ucm.pdfmeta.io.OpenDocument;
+import es.ucm.pdfmeta.metrics.Metrics;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromValues;
+import static es.ucm.pdfmeta.model.DocumentMetadata.modifyDocFromModel;
+import static es.ucm.pdfmeta.model.DocumentMetadata.syncXmpFromModel;
+import static es.ucm.pdfmeta.model.DocumentMetadata.valuesOf;
+import es.ucm.pdfmeta.model.MetadataModel;
+import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.BIBTEX_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Applies a fixed set of metadata changes to many PDF files without user
+ * interaction. Files are processed on a work-stealing pool; the number of
+ * files waiting to be processed is bounded, so that directories of any size
+ * can be walked with constant memory.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class BatchRunner {
+    private final BatchOptions options;
+    private final Map<String, String> changes;
+    private final DocumentLoader loader;
+    private final BibtexIndex index;
+    private ScanCache cache;
+    private Journal journal;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger unmatched = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger alreadyDone = new AtomicInteger();
+
+    public BatchRunner(BatchOptions options, PrintStream out, PrintStream err) throws IOException {
+        this.options = options;
+        this.out = out;
+        this.err = err;
+        this.changes = collectChanges(options);
+        this.loader = options.createLoader();
+        this.index = options.getBibLibrary() != null ? loadIndex() : null;
+    }
+
+    private static Map<String, String> collectChanges(BatchOptions options) throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (options.getBibtexFile() != null) {
+            BibtexEntry entry;
+            try (BibtexParser parser = new BibtexParser(
+                    Files.newBufferedReader(options.getBibtexFile().toPath(), StandardCharsets.UTF_8))) {
+                entry = parser.next();
+            }
+            if (entry == null) {
+                throw new IOException("no BibTeX entry found in " + options.getBibtexFile());
+            }
+            result.putAll(changesFromEntry(entry));
+        }
+        result.putAll(options.getAssignments());
+        return result;
+    }
+
+    static Map<String, String> changesFromEntry(BibtexEntry entry) {
+        Map<String, String> result = new LinkedHashMap<>();
+        String authors = entry.getAuthorsString();
+        String title = entry.getTitle();
+        if (authors != null) result.put(AUTHOR_PROPERTY_NAME, authors);
+        if (title != null) result.put(TITLE_PROPERTY_NAME, title);
+        result.put(BIBTEX_PROPERTY_NAME, entry.getText());
+        return result;
+    }
+
+    private BibtexIndex loadIndex() throws IOException {
+        File library = options.getBibLibrary();
+        BibtexIndex result = BibtexIndex.load(Files.newBufferedReader(library.toPath(), StandardCharsets.UTF_8));
+        for (String error : result.getErrors()) {
+            err.println(library + ": skipped entry at " + error);
+        }
+        err.println(result.size() + " BibTeX entries read from " + library);
+        return result;
+    }
+
+    /**
+     * Processes every input and waits until all of them have finished.
+     *
+     * @return the number of files that could not be processed
+     */
+    public int run() throws IOException, InterruptedException {
+        int threads = options.getThreads();
+        openCache();
+        openJournal();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore pending = new Semaphore(threads * 4);
+        // a walk does not follow links, so a file can only be reached twice
+        // through different inputs
+        Set<Path> seen = options.getInputs().size() > 1 ? new HashSet<>() : null;
+        try {
+            for (File input : options.getInputs()) {
+                if (input.isDirectory()) {
+                    Files.walkFileTree(input.toPath(), new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                            if (attrs.isRegularFile() && isPdf(file)) {
+                                submit(pool, pending, seen, file.toFile());
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                            reportFailure(file.toFile(), exc);
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+                } else {
+                    submit(pool, pending, seen, input);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            closeJournal();
+            closeCache();
+        }
+        err.println(summary());
+        options.writeMetrics();
+        return failed.get();
+    }
+
+    void openCache() throws IOException {
+        if (options.getCacheFile() != null) {
+            cache = ScanCache.open(options.getCacheFile().toPath(), options.isCacheHash());
+        }
+    }
+
+    /**
+     * Scan cache opened by {@link #openCache()}, or null.
+     */
+    ScanCache getCache() {
+        return cache;
+    }
+
+    void closeCache() throws IOException {
+        if (cache != null) {
+            cache.close();
+            cache = null;
+        }
+    }
+
+    /**
+     * Opens the {@code --journal} file, if any, and recovers the files whose
+     * update was interrupted by a previous run.
+     */
+    void openJournal() throws IOException {
+        if (options.getJournalFile() != null) {
+            journal = Journal.open(options.getJournalFile().toPath(), Journal.commandOf(options));
+            try {
+                journal.recover(loader, err);
+            } catch (IOException ex) {
+                closeJournal();
+                throw ex;
+            }
+        }
+    }
+
+    void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    int getFailed() {
+        return failed.get();
+    }
+
+    String summary() {
+        return processed.get() + " file(s) processed, " + failed.get() + " failed, "
+                + unchanged.get() + " unchanged" + (index != null ? ", " + unmatched.get() + " unmatched" : "")
+                + (options.getJournalFile() != null ? ", " + alreadyDone.get() + " already done" : "");
+    }
+
+    private static boolean isPdf(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".pdf");
+    }
+
+    /**
+     * Returns the path of a file with every link resolved, which is the same
+     * for every way of reaching it, or its normalized absolute path if it
+     * does not exist.
+     */
+    static Path realPath(File file) {
+        try {
+            return file.toPath().toRealPath();
+        } catch (IOException ex) {
+            return file.toPath().toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Processes a file on the pool, unless its real path is already in
+     * {@code seen}.
+     */
+    private void submit(ForkJoinPool pool, Semaphore pending, Set<Path> seen, File file) throws IOException {
+        if (seen != null && !seen.add(realPath(file))) {
+            return;
+        }
+        try {
+            pending.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while walking the input files", ex);
+        }
+        pool.execute(() -> {
+            try {
+                if (options.isListOnly()) {
+                    list(file);
+                } else {
+                    report(file, process(file));
+                }
+            } catch (IOException | RuntimeException | StackOverflowError ex) {
+                reportFailure(file, ex);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    enum Outcome { UPDATED, UNCHANGED, UNMATCHED, WOULD_UPDATE, ALREADY_DONE }
+
+    /**
+     * Changes given on the command line with {@code --set} and
+     * {@code --from-bibtex}.
+     */
+    Map<String, String> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Applies the command line changes to a file, together with those of the
+     * matching entry of the {@code --apply-bib} database, if any.
+     */
+    Outcome process(File file) throws IOException {
+        if (journal != null && journal.isDone(file)) {
+            return Outcome.ALREADY_DONE;
+        }
+        MetadataModel<String> current = readModel(file);
+        if (index == null) {
+            return update(file, current, changes);
+        }
+        BibtexEntry entry = index.match(file.getName(),
+                current.getProperty(TITLE_PROPERTY_NAME).getValue(),
+                current.getProperty(BIBTEX_PROPERTY_NAME).getValue());
+        if (entry == null) {
+            return Outcome.UNMATCHED;
+        }
+        Map<String, String> fileChanges = changesFromEntry(entry);
+        fileChanges.putAll(changes);
+        return update(file, current, fileChanges);
+    }
+
+    /**
+     * Applies the given changes to a file.
+     */
+    Outcome update(File file, Map<String, String> fileChanges) throws IOException {
+        if (journal != null && journal.isDone(file)) {
+            return Outcome.ALREADY_DONE;
+        }
+        return update(file, readModel(file), fileChanges);
+    }
+
+    /**
+     * Applies changes to a file whose current metadata is {@code current}.
+     * The file is only loaded if the changes modify its current metadata,
+     * and only rewritten if they still do once it is loaded. With
+     * {@code --xmp} every file is loaded, since its XMP packet may be out of
+     * date even if the Info dictionary is not. With {@code --guess}, files
+     * without a title or an author are loaded too, and the missing values are
+     * guessed from the first page once the changes have been applied.
+     * <p>
+     * With {@code --journal}, the changes are recorded in the journal before
+     * the file is saved, and the file is marked as done afterwards. Files
+     * that need no change are marked as done too.
+     */
+    private Outcome update(File file, MetadataModel<String> current, Map<String, String> fileChanges)
+            throws IOException {
+        new Controller(current).changeProperties(fileChanges);
+        boolean guess = options.isGuess() && FirstPageGuesser.isMissing(current);
+        if (!current.isDirty() && !options.isXmp() && !guess) {
+            return unchanged(file);
+        }
+        try (OpenDocument od = loader.load(file)) {
+            PDDocument doc = od.getDocument();
+            MetadataModel<String> m = buildModelFromDocument(doc);
+            new Controller(m).changeProperties(fileChanges);
+            if (guess) {
+                FirstPageGuesser.fillMissing(doc, m);
+            }
+            boolean modified = m.isDirty();
+            modifyDocFromModel(doc, m);
+            if (options.isXmp()) {
+                modified |= syncXmpFromModel(doc, m);
+            }
+            if (!modified) {
+                return unchanged(file);
+            }
+            if (journal != null) {
+                journal.planned(file, options.getSaveMode(), m);
+            }
+            DocumentSaver.save(od, file, options.getSaveMode());
+            if (journal != null) {
+                journal.done(file);
+            }
+            m.markClean();
+            if (cache != null) {
+                cache.put(file, valuesOf(m));
+            }
+        }
+        return Outcome.UPDATED;
+    }
+
+    /**
+     * Marks a file that needs no change as done in the journal, if any, so
+     * that a resumed run does not read it again.
+     */
+    private Outcome unchanged(File file) throws IOException {
+        if (journal != null) {
+            journal.done(file);
+        }
+        return Outcome.UNCHANGED;
+    }
+
+    /**
+     * Reads the current metadata of a file without modifying it, from the
+     * scan cache if it is up to date.
+     */
+    MetadataModel<String> readModel(File file) throws IOException {
+        if (cache != null) {
+            Map<String, String> values = cache.get(file);
+            if (values != null) {
+                return buildModelFromValues(values);
+            }
+        }
+        MetadataModel<String> m = InfoReader.readModel(file, loader);
+        if (cache != null) {
+            cache.put(file, valuesOf(m));
+        }
+        return m;
+    }
+
+    private void list(File file) throws IOException {
+        MetadataModel<String> m = readModel(file);
+        StringBuilder sb = new StringBuilder();
+        sb.append(file).append(System.lineSeparator());
+        for (String name : new String[] { TITLE_PROPERTY_NAME, AUTHOR_PROPERTY_NAME, BIBTEX_PROPERTY_NAME }) {
+            String value = m.getProperty(name).getValue();
+            if (value != null) {
+                sb.append("    ").append(name).append(": ")
+                        .append(value.replace("\n", System.lineSeparator() + "        "))
+                        .append(System.lineSeparator());
+            }
+        }
+        processed.incrementAndGet();
+        Metrics.fileProcessed(false);
+        synchronized (out) {
+            out.print(sb);
+        }
+    }
+
+    void report(File file, Outcome outcome) {
+        report(file, outcome, null);
+    }
+
+    /**
+     * Reports the outcome of a file, followed by {@code details} if not null.
+     */
+    void report(File file, Outcome outcome, String details) {
+        processed.incrementAndGet();
+        Metrics.fileProcessed(false);
+        if (outcome == Outcome.UNCHANGED) {
+            unchanged.incrementAndGet();
+        } else if (outcome == Outcome.UNMATCHED) {
+            unmatched.incrementAndGet();
+        } else if (outcome == Outcome.ALREADY_DONE) {
+            alreadyDone.incrementAndGet();
+        }
+        synchronized (out) {
+            out.println(outcome.name().toLowerCase().replace('_', ' ') + ": " + file);
+            if (details != null) {
+                out.print(details);
+            }
+        }
+    }
+
+    void reportFailure(File file, Throwable ex) {
+        processed.incrementAndGet();
+        Metrics.fileProcessed(true);
+        failed.incrementAndGet();
+        synchronized (err) {
+            err.println("failed: " + file + ": " + describe(ex));
+        }
+    }
+
+    /**
+     * Returns the message reported for a file that could not be processed.
+     * A stack overflow, from objects nested too deeply in a damaged file,
+     * fails only that file and has no message of its own.
+     */
+    static String describe(Throwable ex) {
+        if (ex instanceof StackOverflowError) {
+            return "objects nested too deeply";
+        }
+        return ex.getMessage();
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.cache.ScanCache;
+import es.ucm.pdfmeta.index.Tokenizer;
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.InfoReader;
+import es.ucm.pdfmeta.io.OpenDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromInfo;
+import static es.ucm.pdfmeta.model.DocumentMetadata.valuesOf;
+import es.ucm.pdfmeta.model.MetadataModel;
+import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.BIBTEX_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSString;
+
+/**
+ * Finds copies of the same document under different file names. Each file
+ * is fingerprinted in parallel with the first element of its trailer
+ * {@code /ID}, a SHA-256 hash of its contents read through memory-mapped
+ * windows, and its title and author normalized for case, accents,
+ * punctuation and word order. Files that share any of these, directly or
+ * through other files, form a group. With {@code --propagate} the metadata
+ * of the best tagged file is copied to the files linked to it by contents or
+ * by title and author; files linked only through an {@code /ID} are left
+ * alone.
+ *
+ * <p>Fingerprints are kept in the scan cache, if one is given, so that a
+ * file is only hashed again when its size or modification time change.</p>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class DuplicateFinder {
+    /**
+     * Section of the scan cache holding fingerprints.
+     */
+    private static final String CACHE_SECTION = "fingerprint";
+
+    /**
+     * Bytes of a file mapped at a time while hashing it.
+     */
+    private static final long HASH_WINDOW = 64L << 20;
+
+    private static final String ID = "id";
+    private static final String SHA256 = "sha256";
+
+    private final BatchOptions options;
+    private final BatchRunner runner;
+    private final DocumentLoader loader;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final ConcurrentLinkedQueue<Fingerprint> fingerprints = new ConcurrentLinkedQueue<>();
+
+    /**
+     * What a file is recognized by.
+     */
+    private static class Fingerprint {
+        final File file;
+        final Map<String, String> values;
+
+        Fingerprint(File file, Map<String, String> values) {
+            this.file = file;
+            this.values = values;
+        }
+
+        /**
+         * Keys under which the file is grouped, each prefixed with the kind
+         * of evidence it stands for. The {@code /ID} is left out unless
+         * {@code withId} is set.
+         */
+        List<String> keys(boolean withId) {
+            List<String> result = new ArrayList<>();
+            result.add("same content:" + values.get(SHA256));
+            if (withId && values.get(ID) != null) {
+                result.add("same /ID:" + values.get(ID));
+            }
+            String title = Tokenizer.normalize(values.get(TITLE_PROPERTY_NAME));
+            String author = Tokenizer.normalize(values.get(AUTHOR_PROPERTY_NAME));
+            if (!title.isEmpty() && !author.isEmpty()) {
+                result.add("same title and author:" + title + "\n" + sortWords(author));
+            }
+            return result;
+        }
+
+        /**
+         * How well the file is tagged: a BibTeX entry counts for more than a
+         * title or an author.
+         */
+        int score() {
+            int result = 0;
+            if (!isBlank(values.get(BIBTEX_PROPERTY_NAME))) result += 2;
+            if (!isBlank(values.get(TITLE_PROPERTY_NAME))) result++;
+            if (!isBlank(values.get(AUTHOR_PROPERTY_NAME))) result++;
+            return result;
+        }
+    }
+
+    public DuplicateFinder(BatchOptions options, PrintStream out, PrintStream err) throws IOException {
+        this.options = options;
+        this.runner = new BatchRunner(options, out, err);
+        this.loader = options.createLoader();
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Fingerprints every input, prints the groups of duplicates and, if
+     * requested, propagates metadata within each group.
+     *
+     * @return the number of files that could not be processed
+     */
+    public int run() throws IOException, InterruptedException {
+        int threads = options.getThreads();
+        runner.openCache();
+        try {
+            runner.openJournal();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            Semaphore pending = new Semaphore(threads * 4);
+            try {
+                for (File input : options.getInputs()) {
+                    if (input.isDirectory()) {
+                        Files.walkFileTree(input.toPath(), new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                                    throws IOException {
+                                if (attrs.isRegularFile()
+                                        && file.getFileName().toString().toLowerCase().endsWith(".pdf")) {
+                                    submit(pool, pending, file.toFile());
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                                runner.reportFailure(file.toFile(), exc);
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+                    } else {
+                        submit(pool, pending, input);
+                    }
+                }
+            } finally {
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            }
+            List<List<Fingerprint>> groups = group(fingerprints, true);
+            int duplicates = 0;
+            for (List<Fingerprint> group : groups) {
+                duplicates += group.size() - 1;
+                print(group);
+                if (options.isPropagate()) {
+                    for (List<Fingerprint> linked : group(group, false)) {
+                        propagate(linked);
+                    }
+                }
+            }
+            err.println(fingerprints.size() + " file(s) fingerprinted, " + groups.size() + " group(s) of duplicates, "
+                    + duplicates + " duplicate file(s), " + runner.getFailed() + " failed");
+        } finally {
+            runner.closeJournal();
+            runner.closeCache();
+        }
+        options.writeMetrics();
+        return runner.getFailed();
+    }
+
+    private void submit(ForkJoinPool pool, Semaphore pending, File file) throws IOException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while walking the input files", ex);
+        }
+        pool.execute(() -> {
+            try {
+                fingerprints.add(new Fingerprint(file, fingerprint(file)));
+            } catch (IOException | RuntimeException | StackOverflowError ex) {
+                runner.reportFailure(file, ex);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Returns the fingerprint of a file from the scan cache, or computes and
+     * caches it.
+     */
+    private Map<String, String> fingerprint(File file) throws IOException {
+        ScanCache cache = runner.getCache();
+        if (cache != null) {
+            Map<String, String> values = cache.get(file, CACHE_SECTION);
+            if (values != null) {
+                return values;
+            }
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        MetadataModel<String> m;
+        String id;
+        try (InfoReader reader = new InfoReader(file)) {
+            m = buildModelFromInfo(reader.readInfo());
+            id = reader.getDocumentId();
+        } catch (IOException | RuntimeException ex) {
+            try (OpenDocument od = loader.load(file)) {
+                m = buildModelFromDocument(od.getDocument());
+                COSArray ids = od.getDocument().getDocument().getDocumentID();
+                id = ids != null && ids.size() > 0 && ids.getObject(0) instanceof COSString
+                        ? InfoReader.toHex(((COSString) ids.getObject(0)).getBytes()) : null;
+            }
+        }
+        values.putAll(valuesOf(m));
+        values.put(ID, id);
+        values.put(SHA256, sha256(file));
+        if (cache != null) {
+            cache.put(file, CACHE_SECTION, values);
+        }
+        return values;
+    }
+
+    /**
+     * Hashes a file through memory-mapped windows, which the operating
+     * system reads ahead sequentially.
+     */
+    static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_WINDOW, size - position));
+                digest.update(window);
+            }
+        }
+        return InfoReader.toHex(digest.digest());
+    }
+
+    /**
+     * Groups the files that share a key, and returns the groups of more than
+     * one file sorted by path. Without {@code withId}, files are only linked
+     * by their contents or their title and author: a shared {@code /ID[0]}
+     * only says that the files started from the same document, such as the
+     * chapters of a book or the versions of a paper, so it is enough to list
+     * files together but not to copy metadata between them.
+     */
+    private static List<List<Fingerprint>> group(Collection<Fingerprint> files, boolean withId) {
+        List<Fingerprint> all = new ArrayList<>(files);
+        all.sort(Comparator.comparing(f -> f.file.getPath()));
+        int[] parent = new int[all.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        Map<String, Integer> firstWithKey = new HashMap<>();
+        for (int i = 0; i < all.size(); i++) {
+            for (String key : all.get(i).keys(withId)) {
+                Integer other = firstWithKey.putIfAbsent(key, i);
+                if (other != null) {
+                    parent[find(parent, i)] = find(parent, other);
+                }
+            }
+        }
+        Map<Integer, List<Fingerprint>> byRoot = new LinkedHashMap<>();
+        for (int i = 0; i < all.size(); i++) {
+            byRoot.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(all.get(i));
+        }
+        List<List<Fingerprint>> result = new ArrayList<>();
+        for (List<Fingerprint> group : byRoot.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Returns the best tagged file of a group; ties go to the first path.
+     */
+    private static Fingerprint best(List<Fingerprint> group) {
+        Fingerprint result = group.get(0);
+        for (Fingerprint f : group) {
+            if (f.score() > result.score()) {
+                result = f;
+            }
+        }
+        return result;
+    }
+
+    private void print(List<Fingerprint> group) {
+        Fingerprint best = best(group);
+        Map<String, Integer> keyCounts = new HashMap<>();
+        for (Fingerprint f : group) {
+            for (String key : f.keys(true)) {
+                keyCounts.merge(key, 1, Integer::sum);
+            }
+        }
+        Set<String> reasons = new TreeSet<>();
+        keyCounts.forEach((key, count) -> {
+            if (count > 1) {
+                reasons.add(key.substring(0, key.indexOf(':')));
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append("duplicates: ").append(group.size()).append(" file(s), ")
+                .append(String.join(", ", reasons)).append(System.lineSeparator());
+        for (Fingerprint f : group) {
+            sb.append("    ").append(f.file).append(f == best ? " (best tagged)" : "")
+                    .append(System.lineSeparator());
+        }
+        synchronized (out) {
+            out.print(sb);
+        }
+    }
+
+    /**
+     * Copies the properties set in the best tagged file of a group to the
+     * other files.
+     */
+    private void propagate(List<Fingerprint> group) {
+        Fingerprint best = best(group);
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (String name : Arrays.asList(TITLE_PROPERTY_NAME, AUTHOR_PROPERTY_NAME, BIBTEX_PROPERTY_NAME)) {
+            String value = best.values.get(name);
+            if (!isBlank(value)) {
+                changes.put(name, value);
+            }
+        }
+        for (Fingerprint f : group) {
+            if (f != best) {
+                try {
+                    runner.report(f.file, runner.update(f.file, changes));
+                } catch (IOException | RuntimeException | StackOverflowError ex) {
+                    runner.reportFailure(f.file, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts the words of a normalized value, so that "Doe, Jane" and
+     * "Jane Doe" compare equal.
+     */
+    private static String sortWords(String value) {
+        String[] words = value.split(" ");
+        Arrays.sort(words);
+        return String.join(" ", words);
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.batch.BatchRunner.Outcome;
+import es.ucm.pdfmeta.bibtex.BibtexEntry;
+import es.ucm.pdfmeta.bibtex.BibtexParser;
+import es.ucm.pdfmeta.json.JsonParser;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches spool directories and applies metadata to the PDF files that land
+ * in them. A file is processed once its size and modification time have
+ * not changed for the settle time, so that partially written files are left
+ * alone. Settled files wait on a bounded queue; when it is full the watcher
+ * stops taking events until a worker frees a slot, and if the operating
+ * system drops events meanwhile the directories are scanned again. A file
+ * that settles again while it is queued or being processed is not queued
+ * twice: it is processed once more after the current pass.
+ *
+ * <p>The metadata of {@code name.pdf} is taken from the sidecar files
+ * {@code name.bib} (its first entry) and {@code name.json} (an object with
+ * {@code author}, {@code title} or {@code bibtex} members), which take
+ * precedence over the command line changes. Files without sidecars are
+ * processed as in batch mode.</p>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class FolderWatcher implements Closeable {
+    private static final long OWN_WRITE_EXPIRY_MILLIS = 60_000;
+
+    private final BatchOptions options;
+    private final BatchRunner runner;
+    private final PrintStream err;
+    private final WatchService watchService;
+    private final BlockingQueue<Queued> queue;
+    private final long tickMillis;
+
+    // accessed only by the thread that calls run()
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Pending> settling = new HashMap<>();
+
+    private final Map<Path, OwnWrite> ownWrites = new ConcurrentHashMap<>();
+    /**
+     * Files queued or being processed, mapped to whether they have settled
+     * again since they were queued.
+     */
+    private final Map<Path, Boolean> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean started;
+    private volatile boolean running = true;
+    private volatile int settlingCount;
+
+    /**
+     * A file seen by the watcher that has not settled yet.
+     */
+    private static class Pending {
+        final long detected;
+        long lastChange;
+        long size;
+        long modified;
+        boolean sidecarChanged;
+
+        Pending(long detected) {
+            this.detected = detected;
+        }
+    }
+
+    /**
+     * A settled file waiting for a worker.
+     */
+    private static class Queued {
+        final Path file;
+        final long detected;
+
+        Queued(Path file, long detected) {
+            this.file = file;
+            this.detected = detected;
+        }
+    }
+
+    /**
+     * The modification time of a file just after it was written by a worker,
+     * used to ignore the events caused by that write.
+     */
+    private static class OwnWrite {
+        final long modified;
+        final long recorded;
+
+        OwnWrite(long modified, long recorded) {
+            this.modified = modified;
+            this.recorded = recorded;
+        }
+    }
+
+    public FolderWatcher(BatchOptions options, PrintStream out, PrintStream err) throws IOException {
+        this.options = options;
+        this.runner = new BatchRunner(options, out, err);
+        this.err = err;
+        this.queue = new ArrayBlockingQueue<>(options.getQueueCapacity());
+        this.tickMillis = Math.max(50, Math.min(options.getSettleMillis() / 2, 500));
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Number of settled files waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Time since the oldest file waiting for a worker was first seen, or 0
+     * if no file is waiting.
+     */
+    public long getLagMillis() {
+        Queued head = queue.peek();
+        return head != null ? System.currentTimeMillis() - head.detected : 0;
+    }
+
+    /**
+     * Number of files seen that have not settled yet.
+     */
+    public int getSettlingCount() {
+        return settlingCount;
+    }
+
+    /**
+     * Watches the input directories until {@link #close()} is called.
+     */
+    public void run() throws IOException, InterruptedException {
+        started = true;
+        List<Thread> workers = new ArrayList<>();
+        try {
+            for (File input : options.getInputs()) {
+                if (!input.isDirectory()) {
+                    throw new IOException(input + " is not a directory");
+                }
+                registerTree(input.toPath());
+            }
+            runner.openCache();
+            for (int i = 0; i < options.getThreads(); i++) {
+                Thread worker = new Thread(this::work, "pdfmeta-worker-" + i);
+                worker.start();
+                workers.add(worker);
+            }
+            err.println("watching " + directories.size() + " director" + (directories.size() == 1 ? "y" : "ies"));
+            long statusPeriod = TimeUnit.SECONDS.toMillis(options.getStatusInterval());
+            long nextStatus = System.currentTimeMillis() + statusPeriod;
+            while (running) {
+                WatchKey key = watchService.poll(tickMillis, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handle(key);
+                    key = watchService.poll();
+                }
+                enqueueSettled();
+                long now = System.currentTimeMillis();
+                if (now >= nextStatus) {
+                    printStatus();
+                    options.writeMetrics();
+                    nextStatus = now + statusPeriod;
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            // closed by close()
+        } finally {
+            running = false;
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            try {
+                runner.closeCache();
+                err.println(runner.summary());
+                options.writeMetrics();
+            } finally {
+                stopped.countDown();
+            }
+        }
+    }
+
+    /**
+     * Stops watching and waits until the files being processed are done.
+     * Files still waiting in the queue are left for the next run.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            watchService.close();
+            if (started) {
+                stopped.await();
+            }
+        } catch (IOException ex) {
+            err.println("error: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    seen(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                runner.reportFailure(file.toFile(), exc);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                err.println("watch: events lost, scanning the directories again");
+                for (Path watched : new ArrayList<>(directories.values())) {
+                    rescan(watched);
+                }
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                registerTree(file);
+            } else {
+                seen(file);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void rescan(Path dir) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                seen(file);
+            }
+        } catch (IOException ex) {
+            runner.reportFailure(dir.toFile(), ex);
+        }
+    }
+
+    /**
+     * Records an event on a file. Events on a sidecar are recorded on the
+     * PDF file it belongs to, which is then processed again.
+     */
+    private void seen(Path file) {
+        String name = file.getFileName().toString();
+        String lower = name.toLowerCase();
+        boolean sidecar = lower.endsWith(".bib") || lower.endsWith(".json");
+        if (sidecar) {
+            file = findPdf(file);
+            if (file == null) {
+                return;
+            }
+        } else if (!lower.endsWith(".pdf")) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Pending pending = settling.get(file);
+        if (pending == null) {
+            pending = new Pending(now);
+            settling.put(file, pending);
+            readAttributes(file, pending);
+        }
+        pending.lastChange = now;
+        pending.sidecarChanged |= sidecar;
+        settlingCount = settling.size();
+    }
+
+    private static Path findPdf(Path sidecar) {
+        String name = sidecar.getFileName().toString();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        for (String extension : new String[] { ".pdf", ".PDF" }) {
+            Path pdf = sidecar.resolveSibling(base + extension);
+            if (Files.isRegularFile(pdf)) {
+                return pdf;
+            }
+        }
+        return null;
+    }
+
+    private static boolean readAttributes(Path file, Pending pending) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            boolean changed = attrs.size() != pending.size || attrs.lastModifiedTime().toMillis() != pending.modified;
+            pending.size = attrs.size();
+            pending.modified = attrs.lastModifiedTime().toMillis();
+            return changed;
+        } catch (IOException ex) {
+            pending.size = -1;
+            return true;
+        }
+    }
+
+    /**
+     * Moves the files that have settled to the queue, waiting for room if
+     * it is full.
+     */
+    private void enqueueSettled() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        ownWrites.values().removeIf(w -> now - w.recorded > OWN_WRITE_EXPIRY_MILLIS);
+        Iterator<Map.Entry<Path, Pending>> it = settling.entrySet().iterator();
+        while (it.hasNext() && running) {
+            Map.Entry<Path, Pending> entry = it.next();
+            Path file = entry.getKey();
+            Pending pending = entry.getValue();
+            if (now - pending.lastChange < options.getSettleMillis()) {
+                continue;
+            }
+            if (readAttributes(file, pending)) {
+                if (pending.size < 0) {
+                    it.remove();
+                } else {
+                    pending.lastChange = now;
+                }
+                continue;
+            }
+            it.remove();
+            OwnWrite own = ownWrites.get(file);
+            if (!pending.sidecarChanged && own != null && own.modified == pending.modified) {
+                continue;
+            }
+            if (inFlight.computeIfPresent(file, (f, again) -> true) != null) {
+                continue;
+            }
+            inFlight.put(file, false);
+            Queued queued = new Queued(file, pending.detected);
+            while (running && !queue.offer(queued, tickMillis, TimeUnit.MILLISECONDS)) {
+                // backpressure: wait for the workers
+            }
+        }
+        settlingCount = settling.size();
+    }
+
+    private void work() {
+        while (running) {
+            Queued queued;
+            try {
+                queued = queue.poll(tickMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (queued != null) {
+                inProgress.incrementAndGet();
+                try {
+                    process(queued.file);
+                    while (!inFlight.remove(queued.file, false) && running) {
+                        // it settled again while it was being processed
+                        inFlight.put(queued.file, false);
+                        process(queued.file);
+                    }
+                } finally {
+                    inProgress.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void process(Path path) {
+        File file = path.toFile();
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            Map<String, String> sidecar = readSidecars(path);
+            Outcome outcome;
+            if (sidecar == null) {
+                outcome = runner.process(file);
+            } else {
+                Map<String, String> fileChanges = new LinkedHashMap<>(runner.getChanges());
+                fileChanges.putAll(sidecar);
+                outcome = runner.update(file, fileChanges);
+            }
+            if (outcome == Outcome.UPDATED) {
+                ownWrites.put(path, new OwnWrite(Files.getLastModifiedTime(path).toMillis(),
+                        System.currentTimeMillis()));
+            }
+            runner.report(file, outcome);
+        } catch (IOException | RuntimeException | StackOverflowError ex) {
+            runner.reportFailure(file, ex);
+        }
+    }
+
+    /**
+     * Reads the changes given by the sidecar files of a PDF file, or returns
+     * null if it has none.
+     */
+    private static Map<String, String> readSidecars(Path pdf) throws IOException {
+        String name = pdf.getFileName().toString();
+        String base = name.substring(0, name.length() - ".pdf".length());
+        Path bib = pdf.resolveSibling(base + ".bib");
+        Path json = pdf.resolveSibling(base + ".json");
+        Map<String, String> result = null;
+        if (Files.isRegularFile(bib)) {
+            BibtexEntry entry;
+            try (BibtexParser parser = new BibtexParser(Files.newBufferedReader(bib, StandardCharsets.UTF_8))) {
+                entry = parser.next();
+            }
+            if (entry == null) {
+                throw new IOException("no BibTeX entry found in " + bib);
+            }
+            result = BatchRunner.changesFromEntry(entry);
+        }
+        if (Files.isRegularFile(json)) {
+            Object value = JsonParser.parse(new String(Files.readAllBytes(json), StandardCharsets.UTF_8));
+            if (!(value instanceof Map)) {
+                throw new IOException(json + ": expected a JSON object");
+            }
+            if (result == null) {
+                result = new LinkedHashMap<>();
+            }
+            for (Map.Entry<?, ?> member : ((Map<?, ?>) value).entrySet()) {
+                String property = (String) member.getKey();
+                if (!BatchOptions.PROPERTY_NAMES.contains(property)) {
+                    throw new IOException(json + ": unknown property: " + property);
+                }
+                if (member.getValue() != null && !(member.getValue() instanceof String)) {
+                    throw new IOException(json + ": expected a string value for " + property);
+                }
+                result.put(property, (String) member.getValue());
+            }
+        }
+        return result;
+    }
+
+    private void printStatus() {
+        synchronized (err) {
+            err.println("watch: " + getQueueDepth() + " queued, lag " + getLagMillis() + " ms, "
+                    + getSettlingCount() + " settling, " + inProgress.get() + " in progress; "
+                    + runner.summary());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.index.MetadataIndex;
+import es.ucm.pdfmeta.index.Query;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Answers a {@code --search} query from the inverted index alone, without
+ * opening any PDF file. The paths of the matching files are printed one
+ * per line, sorted, and a summary goes to the error stream so that the
+ * output can be piped.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class IndexSearcher {
+    private final BatchOptions options;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public IndexSearcher(BatchOptions options, PrintStream out, PrintStream err) {
+        this.options = options;
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Runs the query.
+     *
+     * @return the number of matching files
+     */
+    public int run() throws IOException {
+        Query query = Query.parse(options.getSearchQuery());
+        File indexFile = options.getIndexFile();
+        if (!indexFile.isFile()) {
+            throw new IOException("no index at " + indexFile + "; create it with --index " + indexFile + " dir...");
+        }
+        long start = System.nanoTime();
+        MetadataIndex index = MetadataIndex.open(indexFile.toPath());
+        int[] docs = query.evaluate(index);
+        String[] paths = new String[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            paths[i] = index.getPath(docs[i]);
+        }
+        Arrays.sort(paths);
+        long elapsed = System.nanoTime() - start;
+        for (String path : paths) {
+            out.println(path);
+        }
+        err.println(String.format(Locale.ROOT, "%d of %d document(s) match, %.1f ms", docs.length,
+                index.getDocumentCount(), elapsed / 1e6));
+        options.writeMetrics();
+        return docs.length;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.index.IndexWriter;
+import es.ucm.pdfmeta.index.MetadataIndex;
+import es.ucm.pdfmeta.index.Tokenizer;
+import es.ucm.pdfmeta.model.MetadataField;
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Brings the inverted index named by {@code --index} up to date with the
+ * inputs. Files whose size and modification time match the index are kept
+ * as they are; new and changed files are read in parallel, through the
+ * scan cache if there is one, and tokenized. Indexed files that no longer
+ * exist are dropped, and indexed files outside the inputs are kept.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class IndexUpdater {
+    private final BatchOptions options;
+    private final BatchRunner runner;
+    private final PrintStream out;
+    private final AtomicInteger indexed = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final BitSet visited = new BitSet();
+    private MetadataIndex previous;
+    private Map<String, Integer> previousDocs;
+    private IndexWriter writer;
+
+    public IndexUpdater(BatchOptions options, PrintStream out, PrintStream err) throws IOException {
+        this.options = options;
+        this.runner = new BatchRunner(options, out, err);
+        this.out = out;
+    }
+
+    /**
+     * Updates the index and writes its new version.
+     *
+     * @return the number of files that could not be indexed
+     */
+    public int run() throws IOException, InterruptedException {
+        Path indexPath = options.getIndexFile().toPath();
+        previous = Files.exists(indexPath) ? MetadataIndex.open(indexPath) : MetadataIndex.empty();
+        previousDocs = new HashMap<>(previous.getDocumentCount() * 2);
+        for (int doc = 0; doc < previous.getDocumentCount(); doc++) {
+            previousDocs.put(previous.getPath(doc), doc);
+        }
+        writer = new IndexWriter(previous);
+
+        int threads = options.getThreads();
+        runner.openCache();
+        try {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            Semaphore pending = new Semaphore(threads * 4);
+            try {
+                for (File input : options.getInputs()) {
+                    if (input.isDirectory()) {
+                        Files.walkFileTree(input.toPath(), new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                                    throws IOException {
+                                if (attrs.isRegularFile()
+                                        && file.getFileName().toString().toLowerCase().endsWith(".pdf")) {
+                                    submit(pool, pending, file.toFile());
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                                runner.reportFailure(file.toFile(), exc);
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+                    } else {
+                        submit(pool, pending, input);
+                    }
+                }
+            } finally {
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            }
+        } finally {
+            runner.closeCache();
+        }
+
+        int removed = 0;
+        int documentCount = previous.getDocumentCount();
+        for (int doc = visited.nextClearBit(0); doc < documentCount; doc = visited.nextClearBit(doc + 1)) {
+            if (Files.isRegularFile(Paths.get(previous.getPath(doc)))) {
+                writer.keep(doc);
+            } else {
+                removed++;
+            }
+        }
+        writer.write(indexPath);
+        out.println(indexed + " file(s) indexed, " + unchanged + " unchanged, " + removed + " removed, "
+                + runner.getFailed() + " failed; the index holds " + writer.getDocumentCount() + " document(s)");
+        options.writeMetrics();
+        return runner.getFailed();
+    }
+
+    private void submit(ForkJoinPool pool, Semaphore pending, File file) throws IOException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while walking the input files", ex);
+        }
+        pool.execute(() -> {
+            try {
+                index(file);
+            } catch (IOException | RuntimeException | StackOverflowError ex) {
+                runner.reportFailure(file, ex);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Keeps the indexed version of a file if it is up to date, and otherwise
+     * reads and adds the file. A file that cannot be read is left out of the
+     * new index.
+     */
+    private void index(File file) throws IOException {
+        String path = file.toPath().toAbsolutePath().normalize().toString();
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        Integer doc = previousDocs.get(path);
+        if (doc != null) {
+            synchronized (visited) {
+                if (visited.get(doc)) {
+                    // named twice in the inputs
+                    return;
+                }
+                visited.set(doc);
+            }
+            if (previous.getSize(doc) == attrs.size() && previous.getModified(doc) == modified) {
+                writer.keep(doc);
+                unchanged.incrementAndGet();
+                return;
+            }
+        }
+        MetadataModel<String> m = runner.readModel(file);
+        Map<MetadataField, Collection<String>> tokens = new EnumMap<>(MetadataField.class);
+        tokens.put(MetadataField.TITLE, Tokenizer.tokens(m.getProperty(MetadataField.TITLE).getValue()));
+        tokens.put(MetadataField.AUTHOR, Tokenizer.tokens(m.getProperty(MetadataField.AUTHOR).getValue()));
+        tokens.put(MetadataField.BIBTEX, Tokenizer.bibtexTokens(m.getProperty(MetadataField.BIBTEX).getValue()));
+        writer.add(path, attrs.size(), modified, tokens);
+        indexed.incrementAndGet();
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.DocumentSaver;
+import es.ucm.pdfmeta.io.InfoReader;
+import es.ucm.pdfmeta.io.SaveMode;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromInfo;
+import es.ucm.pdfmeta.model.MetadataModel;
+import es.ucm.pdfmeta.model.MetadataProperty;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of a batch run, so that a run that dies halfway can
+ * be resumed and its changes undone.
+ * <p>
+ * Before a file is saved, the journal records the values it is about to
+ * replace and the new ones, and that record is on disk before the save
+ * begins; after the save it records the size and modification time of the
+ * result. Records are checksummed and appended as in {@link
+ * es.ucm.pdfmeta.cache.ScanCache}, and a torn record at the end is dropped.
+ * The threads of a run share the syncs of the journal: a thread that needs
+ * its record on disk either syncs everything appended so far or waits for
+ * the sync in progress, so concurrent saves cost one sync between them.
+ * Completion records are not synced on their own; if they are lost, the
+ * file is recognized as done by its contents.
+ * <p>
+ * The journal belongs to one command: reopening it for a different one is
+ * an error.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+class Journal implements Closeable {
+    private static final int MAGIC = 0x50444d4a;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+
+    private static final byte COMMAND = 1;
+    private static final byte PLANNED = 2;
+    private static final byte DONE = 3;
+
+    /**
+     * What the journal records about a file.
+     */
+    static final class Entry {
+        final String path;
+        SaveMode mode;
+        long sizeBefore;
+        /**
+         * Values before the first update of the file recorded in the journal.
+         */
+        Map<String, String> oldValues;
+        /**
+         * Values written by the last update.
+         */
+        Map<String, String> newValues;
+        boolean done;
+        long sizeAfter;
+        long modifiedAfter;
+
+        Entry(String path) {
+            this.path = path;
+        }
+    }
+
+    private final Path path;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private String command;
+    private FileChannel channel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition forceDone = lock.newCondition();
+    // guarded by lock
+    private long appended;
+    private long forced;
+    private boolean forcing;
+
+    private Journal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens the journal of a command, creating it if needed.
+     *
+     * @throws IOException if the journal belongs to another command
+     */
+    static Journal open(Path path, String command) throws IOException {
+        Journal journal = new Journal(path);
+        long validLength = Files.exists(path) ? journal.load() : 0;
+        journal.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (validLength == 0) {
+                journal.channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                journal.write(header);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(COMMAND);
+                writeString(out, command);
+                journal.force(journal.append(bytes.toByteArray()));
+                journal.command = command;
+            } else {
+                journal.channel.truncate(validLength);
+                journal.channel.position(validLength);
+                if (!command.equals(journal.command)) {
+                    throw new IOException(path + " is the journal of another command:\n" + journal.command.trim());
+                }
+            }
+        } catch (IOException ex) {
+            journal.channel.close();
+            throw ex;
+        }
+        return journal;
+    }
+
+    /**
+     * Reads the entries of a journal without opening it for writing.
+     */
+    static Collection<Entry> read(Path path) throws IOException {
+        Journal journal = new Journal(path);
+        if (journal.load() == 0) {
+            throw new IOException(path + " is empty");
+        }
+        return journal.entries.values();
+    }
+
+    /**
+     * Describes what a command changes, so that a journal is only reopened
+     * for the same command. Options that only affect how the work is done,
+     * such as the number of threads or the memory limits, are left out, so
+     * that a failed run can be resumed with different ones.
+     */
+    static String commandOf(BatchOptions options) {
+        StringBuilder sb = new StringBuilder();
+        options.getAssignments().forEach((name, value) -> sb.append("--set ").append(name).append('=')
+                .append(value).append('\n'));
+        appendFile(sb, "--from-bibtex", options.getBibtexFile());
+        appendFile(sb, "--apply-bib", options.getBibLibrary());
+        appendFile(sb, "--import", options.getImportFile());
+        if (options.isPropagate()) {
+            sb.append("--duplicates --propagate\n");
+        }
+        if (options.isXmp()) {
+            sb.append("--xmp\n");
+        }
+        if (options.isGuess()) {
+            sb.append("--guess\n");
+        }
+        for (File input : options.getInputs()) {
+            sb.append(input.toPath().toAbsolutePath().normalize()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendFile(StringBuilder sb, String option, File file) {
+        if (file != null) {
+            sb.append(option).append(' ').append(file.toPath().toAbsolutePath().normalize()).append('\n');
+        }
+    }
+
+    /**
+     * Reads the records into memory. Reading stops at the first record that
+     * is incomplete, fails its checksum or cannot be decoded, such as the
+     * zeros a crash may leave at the end of the file.
+     *
+     * @return the length of the valid prefix of the journal, or 0 if it is
+     *         too short to hold a header
+     * @throws IOException if the file is not a journal
+     */
+    private long load() throws IOException {
+        long fileLength = Files.size(path);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException(path + " is not a pdfmeta journal");
+                }
+            } catch (EOFException ex) {
+                return 0;
+            }
+            long validLength = HEADER_LENGTH;
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    // every record has at least a type; longer than the rest
+                    // of the file means a corrupted length
+                    if (length <= 0 || length > fileLength - validLength - 8) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException ex) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                try {
+                    readRecord(payload);
+                } catch (IOException | RuntimeException ex) {
+                    break;
+                }
+                validLength += 8 + payload.length;
+            }
+            if (command == null) {
+                return 0;
+            }
+            return validLength;
+        }
+    }
+
+    /**
+     * Applies a record to the entries. The record is decoded completely
+     * before any entry is modified.
+     */
+    private void readRecord(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        if (type == COMMAND) {
+            command = readString(in);
+            return;
+        }
+        String key = readString(in);
+        if (type == PLANNED) {
+            SaveMode mode = SaveMode.values()[in.readUnsignedByte()];
+            long size = in.readLong();
+            Map<String, String> oldValues = readValues(in);
+            Map<String, String> newValues = readValues(in);
+            planned(entries.computeIfAbsent(key, Entry::new), mode, size, oldValues, newValues);
+        } else if (type == DONE) {
+            long size = in.readLong();
+            long modified = in.readLong();
+            Entry entry = entries.computeIfAbsent(key, Entry::new);
+            entry.done = true;
+            entry.sizeAfter = size;
+            entry.modifiedAfter = modified;
+        } else {
+            throw new IOException(path + ": unknown record type " + type);
+        }
+    }
+
+    private static void planned(Entry entry, SaveMode mode, long size, Map<String, String> oldValues,
+            Map<String, String> newValues) {
+        if (entry.oldValues == null) {
+            entry.oldValues = oldValues;
+        } else {
+            // keep the oldest value of every property
+            Map<String, String> merged = new LinkedHashMap<>(oldValues);
+            merged.putAll(entry.oldValues);
+            entry.oldValues = merged;
+        }
+        entry.newValues = newValues;
+        entry.mode = mode;
+        entry.sizeBefore = size;
+        entry.done = false;
+    }
+
+    /**
+     * Brings the files whose last update was interrupted to a consistent
+     * state: temporary files left by the save are deleted, a partial
+     * appended update is cut off, and files that were saved but not marked
+     * as done are marked. The files are then processed again by the run.
+     */
+    void recover(DocumentLoader loader, PrintStream err) throws IOException {
+        int interrupted = 0;
+        int completed = 0;
+        int truncated = 0;
+        int temps = 0;
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            File file = new File(entry.path);
+            if (entry.done || !file.isFile()) {
+                continue;
+            }
+            interrupted++;
+            temps += DocumentSaver.deleteTempFiles(file);
+            if (hasNewValues(file, entry, loader)) {
+                done(file);
+                completed++;
+            } else if (entry.mode == SaveMode.APPEND && file.length() > entry.sizeBefore) {
+                try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    out.truncate(entry.sizeBefore);
+                    out.force(true);
+                }
+                truncated++;
+            }
+        }
+        if (interrupted > 0) {
+            err.println(path + ": " + interrupted + " interrupted update(s): " + completed + " had been saved, "
+                    + truncated + " partial update(s) removed, " + temps + " temporary file(s) deleted");
+        }
+    }
+
+    /**
+     * Returns true if a file holds the values of its last planned update.
+     * An appended update only counts if the file can be read from its end,
+     * that is, if the update was written completely.
+     */
+    private static boolean hasNewValues(File file, Entry entry, DocumentLoader loader) {
+        try {
+            MetadataModel<String> m;
+            if (entry.mode == SaveMode.APPEND) {
+                try (InfoReader reader = new InfoReader(file)) {
+                    m = buildModelFromInfo(reader.readInfo());
+                }
+            } else {
+                m = InfoReader.readModel(file, loader);
+            }
+            return matches(m, entry.newValues);
+        } catch (IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the model has the given values.
+     */
+    static boolean matches(MetadataModel<String> m, Map<String, String> values) {
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            MetadataProperty<String> property = m.getProperty(value.getKey());
+            if (property == null ? value.getValue() != null : !Objects.equals(property.getValue(), value.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String keyOf(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Returns true if the file has been updated by this command and has not
+     * changed since, so it does not need to be read again.
+     */
+    boolean isDone(File file) throws IOException {
+        Entry entry = entries.get(keyOf(file));
+        if (entry == null || !entry.done) {
+            return false;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attrs.size() == entry.sizeAfter && attrs.lastModifiedTime().toMillis() == entry.modifiedAfter;
+    }
+
+    /**
+     * Records the changes about to be saved into a file, and returns once
+     * the record is on disk.
+     */
+    void planned(File file, SaveMode mode, MetadataModel<String> m) throws IOException {
+        Map<String, String> oldValues = new LinkedHashMap<>();
+        Map<String, String> newValues = new LinkedHashMap<>();
+        for (MetadataProperty<String> property : m.getChanges()) {
+            oldValues.put(property.getName(), property.getOriginalValue());
+            newValues.put(property.getName(), property.getValue());
+        }
+        String key = keyOf(file);
+        long size = Files.size(file.toPath());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PLANNED);
+        writeString(out, key);
+        out.writeByte(mode.ordinal());
+        out.writeLong(size);
+        writeValues(out, oldValues);
+        writeValues(out, newValues);
+        force(append(bytes.toByteArray()));
+        Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized (entry) {
+            planned(entry, mode, size, oldValues, newValues);
+        }
+    }
+
+    /**
+     * Records that a file has been saved, or that it needed no change. The
+     * record reaches the disk with the next sync.
+     */
+    void done(File file) throws IOException {
+        String key = keyOf(file);
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DONE);
+        writeString(out, key);
+        out.writeLong(attrs.size());
+        out.writeLong(attrs.lastModifiedTime().toMillis());
+        append(bytes.toByteArray());
+        Entry entry = entries.computeIfAbsent(key, Entry::new);
+        synchronized (entry) {
+            entry.done = true;
+            entry.sizeAfter = attrs.size();
+            entry.modifiedAfter = attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return the number of records appended so far, to wait for with
+     *         {@link #force(long)}
+     */
+    private long append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        record.flip();
+        lock.lock();
+        try {
+            write(record);
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Waits until the first {@code record} records are on disk, syncing the
+     * journal if no other thread is doing so.
+     */
+    private void force(long record) throws IOException {
+        lock.lock();
+        try {
+            while (forced < record) {
+                if (forcing) {
+                    forceDone.awaitUninterruptibly();
+                    continue;
+                }
+                forcing = true;
+                long target = appended;
+                boolean synced = false;
+                lock.unlock();
+                try {
+                    channel.force(false);
+                    synced = true;
+                } finally {
+                    lock.lock();
+                    forcing = false;
+                    if (synced) {
+                        forced = Math.max(forced, target);
+                    }
+                    forceDone.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeValues(DataOutputStream out, Map<String, String> values) throws IOException {
+        out.writeShort(values.size());
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            out.writeUTF(value.getKey());
+            out.writeBoolean(value.getValue() != null);
+            if (value.getValue() != null) {
+                writeString(out, value.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> readValues(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            values.put(name, in.readBoolean() ? readString(in) : null);
+        }
+        return Collections.unmodifiableMap(values);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.controller.Controller;
+import es.ucm.pdfmeta.json.JsonParser;
+import es.ucm.pdfmeta.json.JsonWriter;
+import es.ucm.pdfmeta.model.MetadataField;
+import es.ucm.pdfmeta.model.MetadataModel;
+import es.ucm.pdfmeta.model.MetadataProperty;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the rows of a CSV or JSON Lines manifest to the files they name.
+ * The manifest is read one row at a time and each row is handed to a pool
+ * of workers, with a bounded number of rows waiting, so manifests of any
+ * size are imported with constant memory. Rows naming the same file, by
+ * whatever path, are applied one after another in manifest order by a
+ * single task, so the last one wins. Rows go through the same
+ * {@link BatchRunner#update(File, Map)} path as {@code --set}; in a dry run
+ * the differences with the current values are printed instead.
+ *
+ * <p>A CSV manifest has a header line naming its columns: {@code path} and
+ * any of {@code title}, {@code author} and {@code bibtex}, in any case, so
+ * that the output of {@code --export csv} can be imported back. Other
+ * columns are ignored. An empty cell leaves its property unchanged, as the
+ * export writes one for every entry a file does not have. A JSON Lines
+ * manifest has an object per line with a {@code path} and the properties,
+ * either at the top level or inside an {@code info} object as written by
+ * {@code --export jsonl}; missing and null properties are left as they
+ * are, and an empty string sets a property to the empty string.</p>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class ManifestImporter {
+    private final BatchOptions options;
+    private final BatchRunner runner;
+    private final PrintStream err;
+    /**
+     * Rows not yet applied, by the real path of the file they name. A file
+     * has an entry while a task is applying its rows; rows arriving in the
+     * meantime are added to it rather than given a task of their own.
+     */
+    private final Map<Path, Queue<Row>> queued = new HashMap<>();
+
+    private static class Row {
+        final File file;
+        final Map<String, String> changes;
+
+        Row(File file, Map<String, String> changes) {
+            this.file = file;
+            this.changes = changes;
+        }
+    }
+
+    public ManifestImporter(BatchOptions options, PrintStream out, PrintStream err) throws IOException {
+        this.options = options;
+        this.runner = new BatchRunner(options, out, err);
+        this.err = err;
+    }
+
+    /**
+     * Imports every row of the manifest and waits until all of them have
+     * been applied.
+     *
+     * @return the number of rows that could not be applied
+     */
+    public int run() throws IOException, InterruptedException {
+        File manifest = options.getImportFile();
+        int threads = options.getThreads();
+        runner.openCache();
+        runner.openJournal();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore pending = new Semaphore(threads * 4);
+        int failed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            if (formatOf(manifest) == ExportFormat.CSV) {
+                failed = readCsv(new CsvReader(reader), pool, pending);
+            } else {
+                failed = readJsonLines(reader, pool, pending);
+            }
+        } catch (IOException ex) {
+            throw new IOException(manifest + ": " + ex.getMessage(), ex);
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            runner.closeJournal();
+            runner.closeCache();
+        }
+        String summary = runner.summary();
+        err.println(failed > 0 ? summary + ", " + failed + " invalid row(s)" : summary);
+        options.writeMetrics();
+        return runner.getFailed() + failed;
+    }
+
+    private static ExportFormat formatOf(File manifest) {
+        String name = manifest.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return ExportFormat.CSV;
+        } else if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+            return ExportFormat.JSONL;
+        }
+        throw new IllegalArgumentException("cannot tell the format of " + manifest
+                + "; expected a .csv or .jsonl file");
+    }
+
+    /**
+     * @return the number of invalid rows
+     */
+    private int readCsv(CsvReader csv, ForkJoinPool pool, Semaphore pending) throws IOException {
+        List<String> header = csv.next();
+        if (header == null) {
+            return 0;
+        }
+        int pathColumn = -1;
+        String[] properties = new String[header.size()];
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i).trim();
+            MetadataField field = MetadataField.forAnyName(name);
+            if (name.equalsIgnoreCase("path")) {
+                pathColumn = i;
+            } else if (field != null) {
+                properties[i] = field.getPropertyName();
+            }
+        }
+        if (pathColumn < 0) {
+            throw new IOException("the header has no path column");
+        }
+        int invalid = 0;
+        List<String> row;
+        while ((row = csv.next()) != null) {
+            if (row.size() == 1 && row.get(0).isEmpty()) {
+                continue;
+            }
+            if (row.size() != header.size()) {
+                invalidRow(csv.getLineNumber(), "expected " + header.size() + " fields, found " + row.size());
+                invalid++;
+                continue;
+            }
+            Map<String, String> changes = new LinkedHashMap<>();
+            for (int i = 0; i < row.size(); i++) {
+                if (properties[i] != null && !row.get(i).isEmpty()) {
+                    changes.put(properties[i], row.get(i));
+                }
+            }
+            submit(pool, pending, options.resolve(row.get(pathColumn)), changes);
+        }
+        return invalid;
+    }
+
+    /**
+     * @return the number of invalid rows
+     */
+    private int readJsonLines(BufferedReader reader, ForkJoinPool pool, Semaphore pending) throws IOException {
+        int invalid = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Object row;
+            try {
+                row = JsonParser.parse(line);
+            } catch (IOException ex) {
+                invalidRow(lineNumber, ex.getMessage());
+                invalid++;
+                continue;
+            }
+            if (!(row instanceof Map) || !(((Map<?, ?>) row).get("path") instanceof String)) {
+                invalidRow(lineNumber, "expected an object with a path");
+                invalid++;
+                continue;
+            }
+            Map<?, ?> object = (Map<?, ?>) row;
+            Map<String, String> changes = new LinkedHashMap<>();
+            if (object.get("info") instanceof Map) {
+                addChanges((Map<?, ?>) object.get("info"), changes);
+            }
+            addChanges(object, changes);
+            submit(pool, pending, options.resolve((String) object.get("path")), changes);
+        }
+        return invalid;
+    }
+
+    private static void addChanges(Map<?, ?> values, Map<String, String> changes) {
+        values.forEach((key, value) -> {
+            MetadataField field = MetadataField.forAnyName(String.valueOf(key));
+            if (field != null && value instanceof String) {
+                changes.put(field.getPropertyName(), (String) value);
+            }
+        });
+    }
+
+    private void invalidRow(int lineNumber, String message) {
+        synchronized (err) {
+            err.println("invalid: " + options.getImportFile() + ": line " + lineNumber + ": " + message);
+        }
+    }
+
+    private void submit(ForkJoinPool pool, Semaphore pending, File file, Map<String, String> changes)
+            throws IOException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading the manifest", ex);
+        }
+        Path key = BatchRunner.realPath(file);
+        synchronized (queued) {
+            Queue<Row> rows = queued.get(key);
+            if (rows != null) {
+                rows.add(new Row(file, changes));
+                return;
+            }
+            rows = new ArrayDeque<>();
+            rows.add(new Row(file, changes));
+            queued.put(key, rows);
+        }
+        pool.execute(() -> applyQueued(key, pending));
+    }
+
+    /**
+     * Applies the rows queued for a file, including those added while doing
+     * so, in the order they were read.
+     */
+    private void applyQueued(Path key, Semaphore pending) {
+        while (true) {
+            Row row;
+            synchronized (queued) {
+                row = queued.get(key).poll();
+                if (row == null) {
+                    queued.remove(key);
+                    return;
+                }
+            }
+            try {
+                if (options.isDryRun()) {
+                    dryRun(row.file, row.changes);
+                } else {
+                    runner.report(row.file, runner.update(row.file, row.changes));
+                }
+            } catch (IOException | RuntimeException | StackOverflowError ex) {
+                runner.reportFailure(row.file, ex);
+            } finally {
+                pending.release();
+            }
+        }
+    }
+
+    /**
+     * Reports the values a row would change, without loading the document.
+     */
+    private void dryRun(File file, Map<String, String> changes) throws IOException {
+        MetadataModel<String> m = runner.readModel(file);
+        new Controller(m).changeProperties(changes);
+        if (!m.isDirty()) {
+            runner.report(file, BatchRunner.Outcome.UNCHANGED);
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (MetadataProperty<String> property : m.getChanges()) {
+            sb.append("    ").append(property.getName()).append(": ")
+                    .append(JsonWriter.write(property.getOriginalValue())).append(" -> ")
+                    .append(JsonWriter.write(property.getValue())).append(System.lineSeparator());
+        }
+        runner.report(file, BatchRunner.Outcome.WOULD_UPDATE, sb.toString());
+    }
+}
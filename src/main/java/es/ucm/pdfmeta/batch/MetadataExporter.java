@@ -0,0 +1,323 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.InfoReader;
+import es.ucm.pdfmeta.io.OpenDocument;
+import es.ucm.pdfmeta.json.JsonWriter;
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.model.MetadataField;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+
+/**
+ * Writes one record with the Info dictionary of each PDF file to CSV or JSON
+ * Lines. Files are read in parallel and each record is written as soon as it
+ * is ready; in ordered mode records wait in a reorder buffer until those of
+ * the files found before them have been written. Either way the number of
+ * files read or waiting is bounded, so memory does not grow with the size
+ * of the library. A file that cannot be read produces an error record.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class MetadataExporter {
+    /**
+     * Info entries written as CSV columns, in order: the key of every field
+     * of the model, so that every one of them can be imported back.
+     */
+    static final List<String> CSV_COLUMNS = csvColumns();
+
+    private final BatchOptions options;
+    private final DocumentLoader loader;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final AtomicInteger exported = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private Semaphore pending;
+    private Writer writer;
+    private IOException writeError;
+
+    // reorder buffer of the ordered mode, guarded by this
+    private final Map<Long, String> reorder = new HashMap<>();
+    private long nextToWrite;
+    private long nextToSubmit;
+
+    public MetadataExporter(BatchOptions options, PrintStream out, PrintStream err) {
+        this.options = options;
+        this.loader = options.createLoader();
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Exports every input and waits until all records have been written.
+     *
+     * @return the number of files that could not be read
+     */
+    public int run() throws IOException, InterruptedException {
+        int threads = options.getThreads();
+        File outputFile = options.getOutputFile();
+        OutputStream stream = outputFile != null ? new FileOutputStream(outputFile) : out;
+        writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        pending = new Semaphore(threads * 4);
+        try {
+            if (options.getExportFormat() == ExportFormat.CSV) {
+                writer.write(csvHeader());
+            }
+            for (File input : options.getInputs()) {
+                if (input.isDirectory()) {
+                    walk(pool, input.toPath());
+                } else {
+                    submit(pool, input);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            try {
+                synchronized (this) {
+                    if (outputFile != null) {
+                        writer.close();
+                    } else {
+                        writer.flush();
+                    }
+                }
+            } catch (IOException ex) {
+                if (writeError == null) {
+                    writeError = ex;
+                }
+            }
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        err.println(exported.get() + " file(s) exported, " + failed.get() + " failed");
+        options.writeMetrics();
+        return failed.get();
+    }
+
+    /**
+     * Submits the PDF files under a directory. In ordered mode the entries
+     * of each directory are sorted, so that the output does not depend on
+     * the order in which the file system lists them.
+     */
+    private void walk(ForkJoinPool pool, Path dir) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        } catch (IOException ex) {
+            submitError(dir.toFile(), ex);
+            return;
+        }
+        if (options.isOrdered()) {
+            children.sort(null);
+        }
+        for (Path child : children) {
+            if (Files.isDirectory(child)) {
+                walk(pool, child);
+            } else if (Files.isRegularFile(child) && child.getFileName().toString().toLowerCase().endsWith(".pdf")) {
+                submit(pool, child.toFile());
+            }
+        }
+    }
+
+    private void submit(ForkJoinPool pool, File file) throws IOException {
+        long sequence = acquire();
+        pool.execute(() -> {
+            String record;
+            try {
+                record = record(file, readInfo(file), null);
+                exported.incrementAndGet();
+                Metrics.fileProcessed(false);
+            } catch (IOException | RuntimeException | StackOverflowError ex) {
+                record = record(file, null, ex);
+                failed.incrementAndGet();
+                Metrics.fileProcessed(true);
+            }
+            emit(sequence, record);
+        });
+    }
+
+    private void submitError(File file, IOException ex) throws IOException {
+        long sequence = acquire();
+        failed.incrementAndGet();
+        Metrics.fileProcessed(true);
+        emit(sequence, record(file, null, ex));
+    }
+
+    /**
+     * Waits until another record fits in memory and returns its sequence
+     * number. Permits are only returned once a record has been written, so
+     * they bound the reorder buffer as well as the files being read.
+     */
+    private long acquire() throws IOException {
+        synchronized (this) {
+            if (writeError != null) {
+                throw writeError;
+            }
+        }
+        try {
+            pending.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while walking the input files", ex);
+        }
+        return nextToSubmit++;
+    }
+
+    private synchronized void emit(long sequence, String record) {
+        if (!options.isOrdered()) {
+            write(record);
+            return;
+        }
+        reorder.put(sequence, record);
+        String next;
+        while ((next = reorder.remove(nextToWrite)) != null) {
+            write(next);
+            nextToWrite++;
+        }
+    }
+
+    private void write(String record) {
+        try {
+            if (writeError == null) {
+                writer.write(record);
+            }
+        } catch (IOException ex) {
+            writeError = ex;
+        } finally {
+            pending.release();
+        }
+    }
+
+    /**
+     * Reads the Info dictionary through the fast path, or by loading the
+     * whole document if the fast path cannot handle the file.
+     */
+    private Map<String, String> readInfo(File file) throws IOException {
+        try (InfoReader reader = new InfoReader(file)) {
+            return reader.readInfo();
+        } catch (IOException | RuntimeException ex) {
+            try (OpenDocument od = loader.load(file)) {
+                return infoOf(od.getDocument().getDocumentInformation().getCOSObject());
+            }
+        }
+    }
+
+    /**
+     * Returns the text and name entries of an Info dictionary, as
+     * {@link InfoReader#readInfo()} does.
+     */
+    private static Map<String, String> infoOf(COSDictionary info) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<COSName, COSBase> entry : info.entrySet()) {
+            COSBase value = entry.getValue().getCOSObject();
+            if (value instanceof COSString) {
+                result.put(entry.getKey().getName(), ((COSString) value).getString());
+            } else if (value instanceof COSName) {
+                result.put(entry.getKey().getName(), ((COSName) value).getName());
+            }
+        }
+        return result;
+    }
+
+    private String record(File file, Map<String, String> info, Throwable error) {
+        if (options.getExportFormat() == ExportFormat.CSV) {
+            StringBuilder sb = new StringBuilder();
+            appendCsv(sb, file.getPath());
+            for (String column : CSV_COLUMNS) {
+                sb.append(',');
+                appendCsv(sb, info != null ? info.get(column) : null);
+            }
+            sb.append(',');
+            appendCsv(sb, error != null ? String.valueOf(BatchRunner.describe(error)) : null);
+            return sb.append("\r\n").toString();
+        }
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("path", file.getPath());
+        if (info != null) {
+            object.put("info", info);
+        } else {
+            object.put("error", String.valueOf(BatchRunner.describe(error)));
+        }
+        return JsonWriter.write(object) + "\n";
+    }
+
+    private static List<String> csvColumns() {
+        List<String> columns = new ArrayList<>();
+        for (MetadataField field : MetadataField.values()) {
+            columns.add(field.getInfoKey());
+        }
+        return Collections.unmodifiableList(columns);
+    }
+
+    private static String csvHeader() {
+        StringBuilder sb = new StringBuilder("path");
+        for (String column : CSV_COLUMNS) {
+            sb.append(',').append(column);
+        }
+        return sb.append(",error\r\n").toString();
+    }
+
+    private static void appendCsv(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores the values that a run with {@code --journal} replaced. A file is
+ * only restored if it still holds the values the run wrote; files that
+ * already hold the old values are left unchanged, and files that have been
+ * modified since are reported as failures rather than overwritten.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class UndoRunner {
+    private final BatchOptions options;
+    private final BatchRunner runner;
+    private final PrintStream err;
+
+    public UndoRunner(BatchOptions options, PrintStream out, PrintStream err) throws IOException {
+        this.options = options;
+        this.runner = new BatchRunner(options, out, err);
+        this.err = err;
+    }
+
+    /**
+     * Undoes every update recorded in the journal and waits until all of
+     * them have finished.
+     *
+     * @return the number of files that could not be restored
+     */
+    public int run() throws IOException, InterruptedException {
+        Collection<Journal.Entry> entries = Journal.read(options.getUndoFile().toPath());
+        int threads = options.getThreads();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore pending = new Semaphore(threads * 4);
+        try {
+            for (Journal.Entry entry : entries) {
+                if (entry.newValues != null) {
+                    submit(pool, pending, entry);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        err.println(runner.summary());
+        options.writeMetrics();
+        return runner.getFailed();
+    }
+
+    private void submit(ForkJoinPool pool, Semaphore pending, Journal.Entry entry) throws IOException {
+        try {
+            pending.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading the journal", ex);
+        }
+        File file = new File(entry.path);
+        pool.execute(() -> {
+            try {
+                MetadataModel<String> current = runner.readModel(file);
+                if (Journal.matches(current, entry.newValues)) {
+                    runner.report(file, runner.update(file, entry.oldValues));
+                } else if (Journal.matches(current, entry.oldValues)) {
+                    runner.report(file, BatchRunner.Outcome.UNCHANGED);
+                } else {
+                    runner.reportFailure(file, new IOException("changed since the journal was written"));
+                }
+            } catch (IOException | RuntimeException | StackOverflowError ex) {
+                runner.reportFailure(file, ex);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+}
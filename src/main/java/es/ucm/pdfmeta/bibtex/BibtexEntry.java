@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.bibtex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An entry of a BibTeX database, such as {@code @article{key, ...}}. Field
+ * names are stored in lower case; values have their outer delimiters
+ * removed, string concatenations and macros resolved, and inner braces kept.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class BibtexEntry {
+    private final String type;
+    private final String key;
+    private final Map<String, String> fields;
+    private final String text;
+
+    BibtexEntry(String type, String key, Map<String, String> fields, String text) {
+        this.type = type;
+        this.key = key;
+        this.fields = Collections.unmodifiableMap(fields);
+        this.text = text;
+    }
+
+    /**
+     * Entry type in lower case, such as {@code article}.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Citation key.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    public String getField(String name) {
+        return fields.get(name.toLowerCase());
+    }
+
+    /**
+     * Source text of the entry, from the {@code @} to the closing delimiter.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Title with grouping braces removed and whitespace collapsed, or null.
+     */
+    public String getTitle() {
+        String title = getField("title");
+        return title == null ? null : plainText(title);
+    }
+
+    /**
+     * Author names in "First Last" order, or an empty list.
+     */
+    public List<String> getAuthors() {
+        String authors = getField("author");
+        List<String> result = new ArrayList<>();
+        if (authors != null) {
+            for (String name : splitTopLevel(authors)) {
+                result.add(formatName(name));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Author names joined by commas, or null if the entry has no authors.
+     */
+    public String getAuthorsString() {
+        List<String> authors = getAuthors();
+        return authors.isEmpty() ? null : String.join(", ", authors);
+    }
+
+    /**
+     * Splits a name list at the {@code and} separators that are not enclosed
+     * in braces.
+     */
+    static List<String> splitTopLevel(String names) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        int length = names.length();
+        for (int i = 0; i < length; i++) {
+            char c = names.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (depth == 0 && Character.isWhitespace(c) && i + 4 < length
+                    && names.regionMatches(true, i + 1, "and", 0, 3)
+                    && Character.isWhitespace(names.charAt(i + 4))) {
+                addName(result, names, start, i);
+                start = i + 5;
+                i += 4;
+            }
+        }
+        addName(result, names, start, length);
+        return result;
+    }
+
+    private static void addName(List<String> result, String names, int start, int end) {
+        String name = names.substring(start, end).trim();
+        if (!name.isEmpty()) {
+            result.add(name);
+        }
+    }
+
+    /**
+     * Converts "Last, First" and "Last, Jr, First" to "First Last" and
+     * "First Last Jr"; names without commas are kept as they are.
+     */
+    static String formatName(String name) {
+        List<String> parts = new ArrayList<>(3);
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                parts.add(plainText(name.substring(start, i)));
+                start = i + 1;
+            }
+        }
+        parts.add(plainText(name.substring(start)));
+        switch (parts.size()) {
+            case 1:
+                return parts.get(0);
+            case 2:
+                return join(parts.get(1), parts.get(0));
+            default:
+                return join(join(parts.get(2), parts.get(0)), parts.get(1));
+        }
+    }
+
+    private static String join(String first, String second) {
+        if (first.isEmpty()) return second;
+        if (second.isEmpty()) return first;
+        return first + " " + second;
+    }
+
+    /**
+     * Removes grouping braces and collapses runs of whitespace.
+     */
+    static String plainText(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '{' || c == '}') {
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "@" + type + "{" + key + "}";
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.bibtex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of a BibTeX database by citation key, DOI and normalized
+ * title, used to find the entry that describes a given PDF file. Lookups are
+ * hash based, so matching many files against a large database takes time
+ * proportional to the number of files plus the number of entries.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class BibtexIndex {
+    private final Map<String, BibtexEntry> byKey = new HashMap<>();
+    private final Map<String, BibtexEntry> byDoi = new HashMap<>();
+    private final Map<String, BibtexEntry> byTitle = new HashMap<>();
+    private final List<String> errors = new ArrayList<>();
+    private int size;
+
+    /**
+     * Reads every entry of {@code reader} into a new index. When several
+     * entries share a key, DOI or title, the first one wins.
+     */
+    public static BibtexIndex load(Reader reader) throws IOException {
+        BibtexIndex index = new BibtexIndex();
+        try (BibtexParser parser = new BibtexParser(reader)) {
+            BibtexEntry entry;
+            while ((entry = parser.next()) != null) {
+                index.add(entry);
+            }
+            index.errors.addAll(parser.getErrors());
+        }
+        return index;
+    }
+
+    public void add(BibtexEntry entry) {
+        size++;
+        if (!entry.getKey().isEmpty()) {
+            byKey.putIfAbsent(entry.getKey(), entry);
+        }
+        String doi = normalizeDoi(entry.getField("doi"));
+        if (doi != null) {
+            byDoi.putIfAbsent(doi, entry);
+        }
+        String title = normalizeTitle(entry.getTitle());
+        if (title != null) {
+            byTitle.putIfAbsent(title, entry);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Problems found while reading the database.
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    public BibtexEntry findByKey(String key) {
+        return key == null ? null : byKey.get(key);
+    }
+
+    public BibtexEntry findByDoi(String doi) {
+        String normalized = normalizeDoi(doi);
+        return normalized == null ? null : byDoi.get(normalized);
+    }
+
+    public BibtexEntry findByTitle(String title) {
+        String normalized = normalizeTitle(title);
+        return normalized == null ? null : byTitle.get(normalized);
+    }
+
+    /**
+     * Finds the entry for a PDF file, trying in order: the key and DOI of
+     * the BibTeX entry already stored in the file, the file name as a
+     * citation key or as a title, and the current title of the document.
+     *
+     * @param fileName name of the file, without directories
+     * @param title current title in the Info dictionary, or null
+     * @param storedBibtex BibTeX entry stored in the file, or null
+     * @return the matching entry, or null
+     */
+    public BibtexEntry match(String fileName, String title, String storedBibtex) {
+        BibtexEntry result = null;
+        if (storedBibtex != null) {
+            BibtexEntry stored = BibtexParser.parseFirst(storedBibtex);
+            if (stored != null) {
+                result = findByKey(stored.getKey());
+                if (result == null) {
+                    result = findByDoi(stored.getField("doi"));
+                }
+            }
+        }
+        if (result == null && fileName != null) {
+            int dot = fileName.lastIndexOf('.');
+            String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+            result = findByKey(baseName);
+            if (result == null) {
+                result = findByTitle(baseName);
+            }
+        }
+        if (result == null) {
+            result = findByTitle(title);
+        }
+        return result;
+    }
+
+    static String normalizeDoi(String doi) {
+        if (doi == null) {
+            return null;
+        }
+        String result = doi.trim().toLowerCase();
+        for (String prefix : new String[] { "https://doi.org/", "http://doi.org/", "http://dx.doi.org/", "doi:" }) {
+            if (result.startsWith(prefix)) {
+                result = result.substring(prefix.length());
+            }
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Reduces a title to its lower-case letters and digits, with single
+     * spaces between words, so that differences in case, punctuation,
+     * braces and separators such as underscores do not prevent a match.
+     */
+    public static String normalizeTitle(String title) {
+        if (title == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(title.length());
+        boolean space = false;
+        for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(Character.toLowerCase(c));
+            } else if (c != '{' && c != '}' && c != '\\') {
+                space = sb.length() > 0;
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+}
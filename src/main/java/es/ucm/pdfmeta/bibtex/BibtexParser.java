@@ -0,0 +1,372 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.bibtex;
+
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.metrics.Phase;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass parser for BibTeX databases. Entries are read one at a time
+ * from a {@link Reader} through a fixed buffer, so that arbitrarily large
+ * {@code .bib} files can be processed in constant memory. Braces are matched
+ * to any depth, {@code #} concatenations and {@code @string} macros are
+ * resolved, and {@code @comment} and {@code @preamble} are skipped.
+ * <p>
+ * Malformed entries do not stop the parser: they are skipped, and a
+ * description of the problem is added to {@link #getErrors()}. The
+ * character at which a problem is found is left unread, so that an entry
+ * cut short by the {@code @} of the next one does not hide it.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class BibtexParser implements Closeable {
+    private static final String[] MONTHS = {
+        "January", "February", "March", "April", "May", "June",
+        "July", "August", "September", "October", "November", "December"
+    };
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int bufferPos;
+    private int bufferLength;
+    private int line = 1;
+    private boolean recording;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder token = new StringBuilder();
+    private final StringBuilder value = new StringBuilder();
+    private final Map<String, String> macros = new HashMap<>();
+    private final List<String> errors = new ArrayList<>();
+
+    public BibtexParser(Reader reader) {
+        this.reader = reader;
+        for (String month : MONTHS) {
+            macros.put(month.substring(0, 3).toLowerCase(), month);
+        }
+    }
+
+    public static List<BibtexEntry> parseAll(String data) {
+        List<BibtexEntry> result = new ArrayList<>();
+        try (BibtexParser parser = new BibtexParser(new StringReader(data))) {
+            BibtexEntry entry;
+            while ((entry = parser.next()) != null) {
+                result.add(entry);
+            }
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first entry in {@code data}, or null if there is none.
+     */
+    public static BibtexEntry parseFirst(String data) {
+        try (BibtexParser parser = new BibtexParser(new StringReader(data))) {
+            return parser.next();
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * Problems found in the entries skipped so far.
+     */
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * Returns the next entry, or null at the end of the input.
+     */
+    public BibtexEntry next() throws IOException {
+        Metrics.Timer timer = Metrics.time(Phase.BIBTEX, null);
+        try {
+            return readEntry();
+        } finally {
+            timer.close();
+        }
+    }
+
+    private BibtexEntry readEntry() throws IOException {
+        while (skipTo('@')) {
+            int startLine = line;
+            text.setLength(0);
+            text.append('@');
+            recording = true;
+            try {
+                BibtexEntry entry = parseEntry();
+                if (entry != null) {
+                    return entry;
+                }
+            } catch (SyntaxError ex) {
+                errors.add("line " + startLine + ": " + ex.getMessage());
+            } finally {
+                recording = false;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the entry after its {@code @}. Returns null for the entry types
+     * that do not describe a reference.
+     */
+    private BibtexEntry parseEntry() throws IOException, SyntaxError {
+        String type = readIdentifier().toLowerCase();
+        if (type.isEmpty()) {
+            throw new SyntaxError("missing entry type");
+        }
+        skipWhitespace();
+        int open = peek();
+        char close;
+        if (open == '{') {
+            close = '}';
+        } else if (open == '(') {
+            close = ')';
+        } else {
+            throw new SyntaxError("expected '{' after @" + type);
+        }
+        read();
+        switch (type) {
+            case "comment":
+            case "preamble":
+                skipBalanced(close);
+                return null;
+            case "string":
+                for (Map.Entry<String, String> macro : parseFields(close).entrySet()) {
+                    macros.put(macro.getKey(), macro.getValue());
+                }
+                return null;
+            default:
+                break;
+        }
+        skipWhitespace();
+        token.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && c != ',' && c != close && !Character.isWhitespace(c)) {
+            token.append((char) read());
+        }
+        String key = token.toString();
+        skipWhitespace();
+        c = peek();
+        Map<String, String> fields;
+        if (c == close) {
+            read();
+            fields = new LinkedHashMap<>();
+        } else if (c == ',') {
+            read();
+            fields = parseFields(close);
+        } else {
+            throw new SyntaxError("expected ',' after key " + key);
+        }
+        return new BibtexEntry(type, key, fields, text.toString());
+    }
+
+    private Map<String, String> parseFields(char close) throws IOException, SyntaxError {
+        Map<String, String> fields = new LinkedHashMap<>();
+        while (true) {
+            skipWhitespace();
+            int c = peek();
+            if (c == close) {
+                read();
+                return fields;
+            } else if (c == ',') {
+                read();
+                continue;
+            } else if (c == -1) {
+                throw new SyntaxError("unexpected end of input");
+            }
+            String name = readIdentifier().toLowerCase();
+            if (name.isEmpty()) {
+                throw new SyntaxError("expected a field name, found '" + (char) c + "'");
+            }
+            skipWhitespace();
+            if (peek() != '=') {
+                throw new SyntaxError("expected '=' after " + name);
+            }
+            read();
+            fields.put(name, readValue());
+        }
+    }
+
+    private String readValue() throws IOException, SyntaxError {
+        value.setLength(0);
+        while (true) {
+            skipWhitespace();
+            int c = peek();
+            if (c == '{') {
+                read();
+                readDelimited('}');
+            } else if (c == '"') {
+                read();
+                readDelimited('"');
+            } else if (c >= '0' && c <= '9') {
+                while ((c = peek()) >= '0' && c <= '9') {
+                    value.append((char) read());
+                }
+            } else if (isIdentifierChar(c)) {
+                token.setLength(0);
+                String name = readIdentifier(token).toLowerCase();
+                String expansion = macros.get(name);
+                value.append(expansion != null ? expansion : name);
+            } else {
+                throw new SyntaxError(c == -1 ? "unexpected end of input" : "unexpected '" + (char) c + "' in value");
+            }
+            skipWhitespace();
+            if (peek() != '#') {
+                return value.toString();
+            }
+            read();
+        }
+    }
+
+    /**
+     * Reads up to the unbraced {@code end} character, keeping inner braces.
+     */
+    private void readDelimited(char end) throws IOException, SyntaxError {
+        int depth = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new SyntaxError("unterminated value");
+            } else if (c == end && depth == 0) {
+                return;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            }
+            value.append((char) c);
+        }
+    }
+
+    private void skipBalanced(char close) throws IOException, SyntaxError {
+        int depth = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new SyntaxError("unexpected end of input");
+            } else if (c == close && depth == 0) {
+                return;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            }
+        }
+    }
+
+    private String readIdentifier() throws IOException {
+        skipWhitespace();
+        token.setLength(0);
+        return readIdentifier(token);
+    }
+
+    private String readIdentifier(StringBuilder sb) throws IOException {
+        while (isIdentifierChar(peek())) {
+            sb.append((char) read());
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIdentifierChar(int c) {
+        return c > ' ' && c != '"' && c != '#' && c != '%' && c != '\'' && c != '(' && c != ')'
+                && c != ',' && c != '=' && c != '@' && c != '{' && c != '}';
+    }
+
+    private boolean skipTo(char target) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == target) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && Character.isWhitespace(c)) {
+            read();
+        }
+    }
+
+    private int peek() throws IOException {
+        if (bufferPos == bufferLength && !fill()) {
+            return -1;
+        }
+        return buffer[bufferPos];
+    }
+
+    private int read() throws IOException {
+        if (bufferPos == bufferLength && !fill()) {
+            return -1;
+        }
+        char c = buffer[bufferPos++];
+        if (c == '\n') {
+            line++;
+        }
+        if (recording) {
+            text.append(c);
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = reader.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        bufferPos = 0;
+        bufferLength = n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static class SyntaxError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxError(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of the metadata extracted from PDF files, so that
+ * repeated scans of a library only read the files that changed.
+ * <p>
+ * Entries are keyed by absolute path and validated against the size and
+ * modification time of the file and, optionally, a quick hash of its first
+ * and last 64 KB. The cache is stored as an append-only log of checksummed
+ * records; the whole log is read when the cache is opened, later records
+ * replace earlier ones, and a torn record at the end (from a crash) is
+ * dropped. The log is compacted on close when most of it is stale.
+ * <p>
+ * The cache is locked while open, through a {@code .lock} file next to it,
+ * so a second process using the same cache waits until the first one
+ * closes it.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class ScanCache implements Closeable {
+    private static final int MAGIC = 0x50444d43;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int QUICK_HASH_BYTES = 64 * 1024;
+
+    private final Path path;
+    private final boolean quickHash;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private FileChannel lock;
+    private DataOutputStream log;
+    private int staleRecords;
+
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final long hash;
+        final Map<String, String> values;
+
+        Entry(long size, long modified, long hash, Map<String, String> values) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.values = values;
+        }
+    }
+
+    private ScanCache(Path path, boolean quickHash) {
+        this.path = path;
+        this.quickHash = quickHash;
+    }
+
+    /**
+     * Opens the cache stored at {@code path}, creating it if needed.
+     *
+     * @param quickHash also validate entries with a hash of the beginning
+     *        and the end of each file, at the cost of reading those bytes
+     */
+    public static ScanCache open(Path path, boolean quickHash) throws IOException {
+        FileChannel lock = lock(path);
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                ScanCache cache = new ScanCache(path, quickHash);
+                cache.attach(channel);
+                cache.lock = lock;
+                return cache;
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        } catch (IOException | RuntimeException ex) {
+            lock.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Locks the cache at {@code path} against other processes, waiting for
+     * them to close it. The lock is taken on a separate file, since a
+     * compaction replaces the cache file itself.
+     *
+     * @return the channel that holds the lock until it is closed
+     */
+    private static FileChannel lock(Path path) throws IOException {
+        Path lockFile = path.resolveSibling(path.getFileName() + ".lock");
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+            return channel;
+        } catch (OverlappingFileLockException ex) {
+            channel.close();
+            throw new IOException(path + " is already open", ex);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void attach(FileChannel channel) throws IOException {
+        long validLength = load(channel);
+        if (validLength == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            validLength = HEADER_LENGTH;
+        }
+        channel.truncate(validLength);
+        channel.position(validLength);
+        this.log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Reads the log into memory. Reading stops at the first record that is
+     * incomplete, fails its checksum or cannot be decoded, such as the zeros
+     * a crash may leave at the end of the file.
+     *
+     * @return the length of its valid prefix, or 0 if it has to be recreated
+     */
+    private long load(FileChannel channel) throws IOException {
+        long fileLength = channel.size();
+        channel.position(0);
+        // not closed, as that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return 0;
+            }
+        } catch (EOFException ex) {
+            return 0;
+        }
+        long validLength = HEADER_LENGTH;
+        while (true) {
+            byte[] payload;
+            int checksum;
+            try {
+                int length = in.readInt();
+                checksum = in.readInt();
+                if (length <= 0 || length > fileLength - validLength - 8) {
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException ex) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                readRecord(payload);
+            } catch (IOException | RuntimeException ex) {
+                break;
+            }
+            validLength += 8 + payload.length;
+        }
+        return validLength;
+    }
+
+    private void readRecord(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String key = in.readUTF();
+        long size = in.readLong();
+        long modified = in.readLong();
+        long hash = in.readLong();
+        int count = in.readUnsignedShort();
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            String value = null;
+            if (in.readBoolean()) {
+                int length = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    throw new EOFException();
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            values.put(name, value);
+        }
+        if (entries.put(key, new Entry(size, modified, hash, Collections.unmodifiableMap(values))) != null) {
+            staleRecords++;
+        }
+    }
+
+    private static byte[] encodeRecord(String key, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(key);
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        out.writeLong(entry.hash);
+        out.writeShort(entry.values.size());
+        for (Map.Entry<String, String> value : entry.values.entrySet()) {
+            out.writeUTF(value.getKey());
+            out.writeBoolean(value.getValue() != null);
+            if (value.getValue() != null) {
+                byte[] encoded = value.getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private static String keyOf(File file, String section) {
+        String key = file.toPath().toAbsolutePath().normalize().toString();
+        return section != null ? section + ":" + key : key;
+    }
+
+    /**
+     * Returns the cached values for {@code file}, or null if there are none
+     * or the file has changed since they were stored.
+     */
+    public Map<String, String> get(File file) throws IOException {
+        return get(file, null);
+    }
+
+    /**
+     * Like {@link #get(File)}, for values stored in a section of the cache
+     * other than the default one. Each section keeps its own entry for a
+     * file, so that different kinds of values do not replace each other.
+     */
+    public Map<String, String> get(File file, String section) throws IOException {
+        Entry entry = entries.get(keyOf(file, section));
+        if (entry == null) {
+            return null;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        if (attrs.size() != entry.size || attrs.lastModifiedTime().toMillis() != entry.modified) {
+            return null;
+        }
+        if (quickHash && entry.hash != 0 && quickHash(file.toPath(), attrs.size()) != entry.hash) {
+            return null;
+        }
+        return entry.values;
+    }
+
+    /**
+     * Stores the values extracted from {@code file} in its current state.
+     */
+    public void put(File file, Map<String, String> values) throws IOException {
+        put(file, null, values);
+    }
+
+    /**
+     * Stores values extracted from {@code file} in a section of the cache.
+     */
+    public void put(File file, String section, Map<String, String> values) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long hash = quickHash ? quickHash(file.toPath(), attrs.size()) : 0;
+        Entry entry = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), hash,
+                Collections.unmodifiableMap(new LinkedHashMap<>(values)));
+        String key = keyOf(file, section);
+        byte[] payload = encodeRecord(key, entry);
+        synchronized (this) {
+            writeRecord(log, payload);
+            if (entries.put(key, entry) != null) {
+                staleRecords++;
+            }
+        }
+    }
+
+    /**
+     * CRC-32 of the size and of the first and last 64 KB of a file, never 0.
+     */
+    static long quickHash(Path file, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(size).array());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(QUICK_HASH_BYTES);
+            updateCrc(crc, channel, buffer, 0);
+            if (size > QUICK_HASH_BYTES) {
+                updateCrc(crc, channel, buffer, Math.max(QUICK_HASH_BYTES, size - QUICK_HASH_BYTES));
+            }
+        }
+        return crc.getValue() + 1;
+    }
+
+    private static void updateCrc(CRC32 crc, FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // keep reading until the buffer is full or the file ends
+        }
+        crc.update(buffer.array(), 0, buffer.position());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            log.flush();
+            if (staleRecords > entries.size()) {
+                compact();
+            }
+        } finally {
+            try {
+                log.close();
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    private void compact() throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream fileOut = Files.newOutputStream(temp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    writeRecord(out, encodeRecord(entry.getKey(), entry.getValue()));
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
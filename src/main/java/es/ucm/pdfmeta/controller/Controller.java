@@ -26,6 +26,7 @@ package es.ucm.pdfmeta.controller;
 
 import es.ucm.pdfmeta.model.MetadataModel;
 import static es.ucm.pdfmeta.model.MetadataModel.*;
+import java.util.Map;
 /**
  *
  * @author Manuel Montenegro (mmontene@ucm.es)
@@ -40,4 +41,12 @@ public class Controller {
     public void changeProperty(String property, String value) {
         model.getProperty(property).setValue(value);
     }
+
+    /**
+     * Changes several properties at once; listeners are notified once, after
+     * all of them have been set.
+     */
+    public void changeProperties(Map<String, String> values) {
+        model.batch(() -> values.forEach(this::changeProperty));
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.gui;
+
+import es.ucm.pdfmeta.controller.Controller;
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.DocumentSaver;
+import es.ucm.pdfmeta.io.OpenDocument;
+import es.ucm.pdfmeta.io.SaveMode;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.modifyDocFromModel;
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.JOptionPane;
+
+/**
+ * Edits a list of files one dialog at a time. While a dialog is open the
+ * next files are loaded on a background thread, and the changes of a file
+ * are saved on another one after its dialog closes, so that moving on to
+ * the next file does not wait for either. Each document is closed as soon
+ * as it has been saved, or when its dialog is cancelled. At most as many
+ * saves as files loaded ahead wait for the saver; when it falls further
+ * behind, the next dialog waits, so that unsaved documents do not pile up
+ * in memory.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class EditingSession {
+    /**
+     * Put on the queue of saves after the last one.
+     */
+    private static final Runnable NO_MORE_SAVES = () -> { };
+
+    private final DocumentLoader loader;
+    private final int prefetch;
+
+    /**
+     * A document loaded ahead of its dialog.
+     */
+    private static class Loaded {
+        final OpenDocument document;
+        final MetadataModel<String> model;
+
+        Loaded(OpenDocument document, MetadataModel<String> model) {
+            this.document = document;
+            this.model = model;
+        }
+    }
+
+    /**
+     * @param loader loader used for every document
+     * @param prefetch number of files loaded ahead of the current one, and
+     *        of saves that may wait for the saver
+     */
+    public EditingSession(DocumentLoader loader, int prefetch) {
+        this.loader = loader;
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Shows a dialog for each file in turn, and returns once every change
+     * has been saved.
+     */
+    public void run(List<File> files) throws InterruptedException {
+        ExecutorService loading = Executors.newSingleThreadExecutor(r -> new Thread(r, "pdfmeta-loader"));
+        BlockingQueue<Runnable> saves = new ArrayBlockingQueue<>(Math.max(prefetch, 1));
+        Thread saver = new Thread(() -> {
+            try {
+                Runnable save;
+                while ((save = saves.take()) != NO_MORE_SAVES) {
+                    save.run();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "pdfmeta-saver");
+        saver.start();
+        Deque<Future<Loaded>> ahead = new ArrayDeque<>();
+        int next = 0;
+        try {
+            for (File file : files) {
+                while (next < files.size() && ahead.size() <= prefetch) {
+                    File toLoad = files.get(next++);
+                    ahead.add(loading.submit(() -> load(toLoad)));
+                }
+                Loaded loaded;
+                try {
+                    loaded = ahead.remove().get();
+                } catch (ExecutionException ex) {
+                    showError(file, ex.getCause());
+                    continue;
+                }
+                MainDialog md = new MainDialog(file.getPath(), loaded.model, new Controller(loaded.model));
+                if (md.runDialog() && loaded.model.isDirty()) {
+                    saves.put(() -> save(file, loaded));
+                } else {
+                    close(file, loaded);
+                }
+            }
+        } finally {
+            loading.shutdown();
+            for (Future<Loaded> future : ahead) {
+                try {
+                    close(null, future.get());
+                } catch (ExecutionException ex) {
+                    // nothing was opened
+                }
+            }
+            saves.put(NO_MORE_SAVES);
+            saver.join();
+        }
+    }
+
+    private Loaded load(File file) throws IOException {
+        OpenDocument od = loader.load(file);
+        try {
+            return new Loaded(od, buildModelFromDocument(od.getDocument()));
+        } catch (RuntimeException ex) {
+            od.close();
+            throw ex;
+        }
+    }
+
+    private void save(File file, Loaded loaded) {
+        try {
+            modifyDocFromModel(loaded.document.getDocument(), loaded.model);
+            DocumentSaver.save(loaded.document, file, SaveMode.INCREMENTAL);
+            loaded.model.markClean();
+        } catch (IOException | RuntimeException ex) {
+            showError(file, ex);
+        } finally {
+            close(file, loaded);
+        }
+    }
+
+    private void close(File file, Loaded loaded) {
+        try {
+            loaded.document.close();
+        } catch (IOException ex) {
+            if (file != null) {
+                showError(file, ex);
+            }
+        }
+    }
+
+    /**
+     * Reports an error and waits until the user has acknowledged it.
+     */
+    private static void showError(File file, Throwable ex) {
+        Runnable show = () -> JOptionPane.showMessageDialog(null, file + ": " + ex.getMessage(), "Error",
+                JOptionPane.ERROR_MESSAGE);
+        try {
+            if (EventQueue.isDispatchThread()) {
+                show.run();
+            } else {
+                EventQueue.invokeAndWait(show);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            // the message could not be shown
+        }
+    }
+}
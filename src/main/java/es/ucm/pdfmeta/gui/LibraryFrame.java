@@ -0,0 +1,511 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.gui;
+
+import es.ucm.pdfmeta.controller.Controller;
+import es.ucm.pdfmeta.io.DocumentCache;
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.InfoReader;
+import es.ucm.pdfmeta.io.SaveMode;
+import es.ucm.pdfmeta.model.MetadataModel;
+import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.BIBTEX_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import java.awt.BorderLayout;
+import java.awt.EventQueue;
+import java.awt.FlowLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A single window that lists every file with its title and author, and
+ * edits whichever one is selected. The list is filled by reading the Info
+ * dictionary of each file, which is cheap; the document itself is only
+ * loaded when the file is selected, and is kept in a {@link DocumentCache}
+ * so that going back to a recent file is immediate while the number of
+ * open documents stays bounded. Edits are kept in the model of the document
+ * until they are saved, either explicitly or when the cache closes the
+ * document to make room.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class LibraryFrame extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of rows added to the list at a time while files are scanned.
+     */
+    private static final int SCAN_CHUNK = 64;
+
+    private final DocumentCache cache;
+    private final ExecutorService scanner = Executors.newSingleThreadExecutor(r -> new Thread(r, "pdfmeta-scanner"));
+    private final ExecutorService documents = Executors.newSingleThreadExecutor(r -> new Thread(r, "pdfmeta-documents"));
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final LibraryTableModel rows = new LibraryTableModel();
+    private final JTable table = new JTable(rows);
+    private final JTextField authorsField = new JTextField();
+    private final JTextField titleField = new JTextField();
+    private final JTextArea bibtexArea = new JTextArea(12, 40);
+    private final JButton fillinButton = new JButton("Fill in from clipboard");
+    private final JButton revertButton = new JButton("Revert");
+    private final JButton saveButton = new JButton("Save");
+    private final JButton saveAllButton = new JButton("Save all");
+    private final JLabel statusLabel = new JLabel(" ");
+
+    // file being edited, and its model once it has been loaded; EDT only
+    private File current;
+    private MetadataModel<String> currentModel;
+
+    /**
+     * A line of the list.
+     */
+    private static class Row {
+        final File file;
+        String title;
+        String author;
+        boolean dirty;
+
+        Row(File file, String title, String author) {
+            this.file = file;
+            this.title = title;
+            this.author = author;
+        }
+    }
+
+    private static class LibraryTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private static final String[] COLUMNS = {"", "File", "Title", "Author"};
+        private final List<Row> rows = new ArrayList<>();
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Row r = rows.get(row);
+            switch (column) {
+                case 0:
+                    return r.dirty ? "*" : "";
+                case 1:
+                    return r.file.getName();
+                case 2:
+                    return r.title;
+                default:
+                    return r.author;
+            }
+        }
+
+        Row get(int row) {
+            return rows.get(row);
+        }
+
+        void addAll(List<Row> added) {
+            int first = rows.size();
+            rows.addAll(added);
+            fireTableRowsInserted(first, rows.size() - 1);
+        }
+
+        int indexOf(File file) {
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i).file.equals(file)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void setDirty(Set<File> dirty) {
+            for (Row r : rows) {
+                r.dirty = dirty.contains(r.file);
+            }
+            if (!rows.isEmpty()) {
+                fireTableRowsUpdated(0, rows.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * @param loader loader used for every document
+     * @param maxDocuments maximum number of documents kept open
+     * @param maxBytes maximum total size of the files of the open documents
+     */
+    public LibraryFrame(DocumentLoader loader, int maxDocuments, long maxBytes) {
+        super("pdfmeta");
+        cache = new DocumentCache(loader, maxDocuments, maxBytes, SaveMode.INCREMENTAL,
+                (file, ex) -> showError(file, ex));
+        initComponents();
+    }
+
+    private void initComponents() {
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setMaxWidth(20);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                int row = table.getSelectedRow();
+                select(row < 0 ? null : rows.get(table.convertRowIndexToModel(row)).file);
+            }
+        });
+
+        JPanel dataPanel = new JPanel(new GridBagLayout());
+        addField(dataPanel, 0, "Authors:", authorsField, 0);
+        addField(dataPanel, 1, "Title:", titleField, 0);
+        addField(dataPanel, 2, "BibTeX:", new JScrollPane(bibtexArea), 1);
+
+        JPanel controllerPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        controllerPanel.add(fillinButton);
+        controllerPanel.add(revertButton);
+        controllerPanel.add(saveButton);
+        controllerPanel.add(saveAllButton);
+
+        JPanel editorPanel = new JPanel(new BorderLayout());
+        editorPanel.add(dataPanel, BorderLayout.CENTER);
+        editorPanel.add(controllerPanel, BorderLayout.SOUTH);
+
+        JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(table), editorPanel);
+        split.setResizeWeight(0.5);
+        getContentPane().add(split, BorderLayout.CENTER);
+        getContentPane().add(statusLabel, BorderLayout.SOUTH);
+        setEditorEnabled(false);
+
+        fillinButton.addActionListener(e -> {
+            Map<String, String> values = MainDialog.valuesFromClipboard();
+            if (values != null) {
+                authorsField.setText(values.getOrDefault(AUTHOR_PROPERTY_NAME, authorsField.getText()));
+                titleField.setText(values.getOrDefault(TITLE_PROPERTY_NAME, titleField.getText()));
+                bibtexArea.setText(values.get(BIBTEX_PROPERTY_NAME));
+            }
+        });
+        revertButton.addActionListener(e -> revert());
+        saveButton.addActionListener(e -> {
+            commitFields();
+            File file = current;
+            documents.submit(() -> {
+                try {
+                    cache.save(file);
+                } catch (IOException | RuntimeException ex) {
+                    showError(file, ex);
+                }
+                refreshDirty();
+            });
+        });
+        saveAllButton.addActionListener(e -> {
+            commitFields();
+            documents.submit(() -> {
+                for (File file : cache.getDirtyFiles()) {
+                    try {
+                        cache.save(file);
+                    } catch (IOException | RuntimeException ex) {
+                        showError(file, ex);
+                    }
+                }
+                refreshDirty();
+            });
+        });
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                commitFields();
+                documents.submit(LibraryFrame.this::shutdown);
+            }
+        });
+        pack();
+        setSize(1000, 600);
+        setLocationRelativeTo(null);
+    }
+
+    private static void addField(JPanel panel, int y, String label, JComponent field, double weighty) {
+        GridBagConstraints c = new GridBagConstraints();
+        c.gridx = 0;
+        c.gridy = y;
+        c.anchor = GridBagConstraints.NORTHWEST;
+        c.insets = new Insets(4, 4, 4, 4);
+        panel.add(new JLabel(label), c);
+        c.gridx = 1;
+        c.weightx = 1;
+        c.weighty = weighty;
+        c.fill = GridBagConstraints.BOTH;
+        panel.add(field, c);
+    }
+
+    /**
+     * Shows the window, lists the given files and the PDF files found under
+     * the given directories, and returns once the window has been closed and
+     * every document has been closed.
+     */
+    public void run(List<File> inputs) throws InterruptedException {
+        EventQueue.invokeLater(() -> setVisible(true));
+        scanner.submit(() -> scan(inputs));
+        closed.await();
+    }
+
+    private void scan(List<File> inputs) {
+        List<Row> chunk = new ArrayList<>();
+        int count = 0;
+        for (File input : inputs) {
+            Iterator<File> files;
+            Stream<Path> walk = null;
+            try {
+                if (input.isDirectory()) {
+                    walk = Files.walk(input.toPath());
+                    files = walk.filter(p -> Files.isRegularFile(p)
+                            && p.getFileName().toString().toLowerCase().endsWith(".pdf"))
+                            .map(Path::toFile).iterator();
+                } else {
+                    files = Collections.singletonList(input).iterator();
+                }
+                while (files.hasNext() && !scanner.isShutdown()) {
+                    chunk.add(readRow(files.next()));
+                    count++;
+                    if (chunk.size() == SCAN_CHUNK) {
+                        publish(chunk, count);
+                        chunk = new ArrayList<>();
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                showError(input, ex);
+            } finally {
+                if (walk != null) {
+                    walk.close();
+                }
+            }
+        }
+        publish(chunk, count);
+    }
+
+    private static Row readRow(File file) {
+        try {
+            MetadataModel<String> m = InfoReader.readModel(file);
+            return new Row(file, m.getProperty(TITLE_PROPERTY_NAME).getValue(),
+                    m.getProperty(AUTHOR_PROPERTY_NAME).getValue());
+        } catch (IOException ex) {
+            return new Row(file, null, null);
+        }
+    }
+
+    private void publish(List<Row> chunk, int count) {
+        EventQueue.invokeLater(() -> {
+            if (!chunk.isEmpty()) {
+                rows.addAll(chunk);
+            }
+            statusLabel.setText(count + " file(s)");
+        });
+    }
+
+    /**
+     * Makes a file the one being edited, after passing the fields of the
+     * previous one to its model.
+     */
+    private void select(File file) {
+        commitFields();
+        current = file;
+        currentModel = null;
+        setEditorEnabled(false);
+        if (file == null) {
+            return;
+        }
+        statusLabel.setText("Loading " + file + "...");
+        documents.submit(() -> {
+            try {
+                MetadataModel<String> model = cache.getModel(file);
+                EventQueue.invokeLater(() -> show(file, model));
+            } catch (IOException | RuntimeException ex) {
+                showError(file, ex);
+            }
+            refreshDirty();
+        });
+    }
+
+    private void show(File file, MetadataModel<String> model) {
+        if (!file.equals(current)) {
+            return;
+        }
+        currentModel = model;
+        authorsField.setText(model.getProperty(AUTHOR_PROPERTY_NAME).getValue());
+        titleField.setText(model.getProperty(TITLE_PROPERTY_NAME).getValue());
+        bibtexArea.setText(model.getProperty(BIBTEX_PROPERTY_NAME).getValue());
+        bibtexArea.setCaretPosition(0);
+        setEditorEnabled(true);
+        statusLabel.setText(file.getPath());
+    }
+
+    /**
+     * Passes the fields to the model of the file being edited, and shows the
+     * new values in the list.
+     */
+    private void commitFields() {
+        if (currentModel == null) {
+            return;
+        }
+        MetadataModel<String> model = currentModel;
+        Controller controller = new Controller(model);
+        model.batch(() -> {
+            MainDialog.commitField(model, controller, AUTHOR_PROPERTY_NAME, authorsField.getText());
+            MainDialog.commitField(model, controller, TITLE_PROPERTY_NAME, titleField.getText());
+            MainDialog.commitField(model, controller, BIBTEX_PROPERTY_NAME, bibtexArea.getText());
+        });
+        int index = rows.indexOf(current);
+        if (index >= 0) {
+            Row r = rows.get(index);
+            r.title = model.getProperty(TITLE_PROPERTY_NAME).getValue();
+            r.author = model.getProperty(AUTHOR_PROPERTY_NAME).getValue();
+            r.dirty = model.isDirty();
+            rows.fireTableRowsUpdated(index, index);
+        }
+    }
+
+    /**
+     * Discards the unsaved changes of the file being edited.
+     */
+    private void revert() {
+        if (currentModel == null) {
+            return;
+        }
+        Map<String, String> originals = new LinkedHashMap<>();
+        for (String name : currentModel.getPropertyNames()) {
+            originals.put(name, currentModel.getProperty(name).getOriginalValue());
+        }
+        new Controller(currentModel).changeProperties(originals);
+        show(current, currentModel);
+        commitFields();
+    }
+
+    private void setEditorEnabled(boolean enabled) {
+        for (JComponent c : new JComponent[] {authorsField, titleField, bibtexArea, fillinButton,
+                revertButton, saveButton}) {
+            c.setEnabled(enabled);
+        }
+        if (!enabled) {
+            authorsField.setText("");
+            titleField.setText("");
+            bibtexArea.setText("");
+        }
+    }
+
+    /**
+     * Updates the unsaved-changes marks of the list; documents may have been
+     * saved by the cache to make room. Runs on the documents thread.
+     */
+    private void refreshDirty() {
+        Set<File> dirty = new HashSet<>(cache.getDirtyFiles());
+        EventQueue.invokeLater(() -> rows.setDirty(dirty));
+    }
+
+    /**
+     * Asks whether unsaved changes are to be kept, closes every document and
+     * disposes the window. Runs on the documents thread.
+     */
+    private void shutdown() {
+        List<File> dirty = cache.getDirtyFiles();
+        int[] answer = {JOptionPane.NO_OPTION};
+        if (!dirty.isEmpty()) {
+            invokeAndWait(() -> answer[0] = JOptionPane.showConfirmDialog(this,
+                    "Save changes to " + dirty.size() + " file(s)?", "pdfmeta",
+                    JOptionPane.YES_NO_CANCEL_OPTION));
+            if (answer[0] != JOptionPane.YES_OPTION && answer[0] != JOptionPane.NO_OPTION) {
+                return;
+            }
+        }
+        try {
+            cache.close(answer[0] == JOptionPane.YES_OPTION);
+        } catch (IOException ex) {
+            showError(null, ex);
+        }
+        scanner.shutdownNow();
+        documents.shutdown();
+        EventQueue.invokeLater(() -> {
+            dispose();
+            closed.countDown();
+        });
+    }
+
+    /**
+     * Reports an error and waits until the user has acknowledged it.
+     */
+    private void showError(File file, Throwable ex) {
+        String message = (file != null ? file + ": " : "") + ex.getMessage();
+        invokeAndWait(() -> JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private static void invokeAndWait(Runnable task) {
+        try {
+            if (EventQueue.isDispatchThread()) {
+                task.run();
+            } else {
+                EventQueue.invokeAndWait(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            // the dialog could not be shown
+        }
+    }
+}
@@ -23,12 +23,15 @@
  */
 package es.ucm.pdfmeta.gui;
 
+import es.ucm.pdfmeta.bibtex.BibtexEntry;
+import es.ucm.pdfmeta.bibtex.BibtexParser;
 import es.ucm.pdfmeta.controller.Controller;
 import es.ucm.pdfmeta.model.MetadataModel;
 import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
 import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
 import static es.ucm.pdfmeta.model.MetadataModel.BIBTEX_PROPERTY_NAME;
 import es.ucm.pdfmeta.model.PropertyListener;
+import java.awt.EventQueue;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.DataFlavor;
@@ -37,8 +40,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.swing.JOptionPane;
 
 
@@ -47,6 +50,8 @@ import javax.swing.JOptionPane;
  * @author Manuel Montenegro (mmontene@ucm.es)
  */
 public class MainDialog extends javax.swing.JDialog {
+    private static final long serialVersionUID = 1L;
+
     private boolean saved = false;
     
     /**
@@ -67,6 +72,14 @@ public class MainDialog extends javax.swing.JDialog {
         
         final MainDialog that = this;
         
+        // listeners update Swing components, so they must run on the EDT
+        model.setListenerExecutor(task -> {
+            if (EventQueue.isDispatchThread()) {
+                task.run();
+            } else {
+                EventQueue.invokeLater(task);
+            }
+        });
         model.getProperty("author").addPropertyListener(new PropertyListener<String>() {
             @Override
             public void propertyChanged(String name, String oldValue, String newValue) {
@@ -92,9 +105,11 @@ public class MainDialog extends javax.swing.JDialog {
             @Override
             public void actionPerformed(ActionEvent e) {
                 saved = true;
-                controller.changeProperty(AUTHOR_PROPERTY_NAME, authorsField.getText());
-                controller.changeProperty(TITLE_PROPERTY_NAME, titleField.getText());
-                controller.changeProperty(BIBTEX_PROPERTY_NAME, bibtexArea.getText());
+                model.batch(() -> {
+                    commitField(model, controller, AUTHOR_PROPERTY_NAME, authorsField.getText());
+                    commitField(model, controller, TITLE_PROPERTY_NAME, titleField.getText());
+                    commitField(model, controller, BIBTEX_PROPERTY_NAME, bibtexArea.getText());
+                });
                 that.dispose();
             }
         });
@@ -111,64 +126,10 @@ public class MainDialog extends javax.swing.JDialog {
 
             @Override
             public void actionPerformed(ActionEvent e) {
-                Clipboard cl = Toolkit.getDefaultToolkit().getSystemClipboard();
-                Transferable tr = cl.getContents(null);
-                if (tr != null && tr.isDataFlavorSupported(DataFlavor.stringFlavor)) {
-                    try {
-                        String data = (String)
-                                tr.getTransferData(DataFlavor.stringFlavor);
-                        data = data.trim();
-                        if (data.startsWith("@")) {
-                            String authors = extractAuthors(data);
-                            String title = extractTitle(data);
-                            
-                            if (authors != null) controller.changeProperty(AUTHOR_PROPERTY_NAME, authors);
-                            if (title != null) controller.changeProperty(TITLE_PROPERTY_NAME, title);
-                            controller.changeProperty(BIBTEX_PROPERTY_NAME, data);
-                        } else {
-                            JOptionPane.showMessageDialog(null, "Clipboard does not contain a bibtex entry.");
-                        }
-                    } catch (Exception ex) { } 
-                } else {
-                    JOptionPane.showMessageDialog(null, "Clipboard contents cannot be converted into a string");
-                }
-            }
-
-            private String extractTitle(String data) {
-                String title = null;
-                Matcher m = TITLE_PATTERN_QUOTES.matcher(data);
-                if (m.matches()) {
-                    title = m.group(1).trim();
-                    title = title.replace("{", "");
-                    title = title.replace("}", "");
-                } else {
-                    m = TITLE_PATTERN_BRACES.matcher(data);
-                    if (m.matches()) {
-                        title = m.group(1).trim();
-                    }
-                }
-                return title;
-            }
-
-            private String extractAuthors(String data) {
-                Matcher m = AUTHOR_PATTERN.matcher(data);
-                if (m.matches()) {
-                    String authorsStr = m.group(1);
-                    String[] authors = authorsStr.split("and");
-                    for (int i = 0; i < authors.length; i++) {
-                        String current = authors[i];
-                        int commaPos = current.indexOf(',');
-                        if (commaPos != -1) {
-                            String surname = current.substring(0, commaPos).trim();
-                            String firstName = current.substring(commaPos + 1).trim();
-                            authors[i] = firstName + " " + surname;
-                        } else {
-                            authors[i] = current.trim();
-                        }
-                    }
-                    return String.join(", ", authors);
+                Map<String, String> values = valuesFromClipboard();
+                if (values != null) {
+                    controller.changeProperties(values);
                 }
-                return null;
             }
         });
         
@@ -180,12 +141,49 @@ public class MainDialog extends javax.swing.JDialog {
         });
         
     }
-    private static final Pattern AUTHOR_PATTERN = Pattern.compile(".*author\\s*=\\s*[\"\\{]([^\"\\{\\}]*)[\"\\}].*",
-                Pattern.DOTALL);
-    private static final Pattern TITLE_PATTERN_QUOTES = Pattern.compile(".*title\\s*=\\s*\"([^\"]*)\".*",
-                Pattern.DOTALL);
-    private static final Pattern TITLE_PATTERN_BRACES = Pattern.compile(".*title\\s*=\\s*\\{([^\\}]*)\\}.*",
-                Pattern.DOTALL);
+
+    /**
+     * Reads a BibTeX entry from the clipboard and returns the property values
+     * it provides, or null after telling the user why there are none.
+     */
+    static Map<String, String> valuesFromClipboard() {
+        Clipboard cl = Toolkit.getDefaultToolkit().getSystemClipboard();
+        Transferable tr = cl.getContents(null);
+        if (tr != null && tr.isDataFlavorSupported(DataFlavor.stringFlavor)) {
+            try {
+                String data = (String)
+                        tr.getTransferData(DataFlavor.stringFlavor);
+                data = data.trim();
+                BibtexEntry entry = data.startsWith("@") ? BibtexParser.parseFirst(data) : null;
+                if (entry != null) {
+                    String authors = entry.getAuthorsString();
+                    String title = entry.getTitle();
+
+                    Map<String, String> values = new LinkedHashMap<>();
+                    if (authors != null) values.put(AUTHOR_PROPERTY_NAME, authors);
+                    if (title != null) values.put(TITLE_PROPERTY_NAME, title);
+                    values.put(BIBTEX_PROPERTY_NAME, data);
+                    return values;
+                } else {
+                    JOptionPane.showMessageDialog(null, "Clipboard does not contain a bibtex entry.");
+                }
+            } catch (Exception ex) { }
+        } else {
+            JOptionPane.showMessageDialog(null, "Clipboard contents cannot be converted into a string");
+        }
+        return null;
+    }
+
+    /**
+     * Passes the text of a field to the controller, unless the field was left
+     * empty for a property that has no value.
+     */
+    static void commitField(MetadataModel<String> model, Controller controller, String name, String text) {
+        if (text.isEmpty() && model.getProperty(name).getValue() == null) {
+            return;
+        }
+        controller.changeProperty(name, text);
+    }
 
     public boolean runDialog() {
         saved = false;
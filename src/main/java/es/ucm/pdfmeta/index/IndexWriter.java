@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.index;
+
+import es.ucm.pdfmeta.model.MetadataField;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a new version of a {@link MetadataIndex}: the documents of the
+ * previous version that are kept, followed by the documents added since.
+ * Only the added documents need to be tokenized; the postings of the kept
+ * ones are copied from the previous version, so an update costs a pass
+ * over the index plus the work for the files that changed.
+ * <p>
+ * {@link #keep(int)} and {@link #add} may be called from several threads.
+ * The new index is written to a temporary file that then replaces the
+ * old one, so readers never see a partial index.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class IndexWriter {
+    /**
+     * Longer tokens are not indexed; they are encoded data rather than words.
+     */
+    private static final int MAX_TOKEN_BYTES = 255;
+
+    private final MetadataIndex previous;
+    private final BitSet kept = new BitSet();
+    private final List<String> paths = new ArrayList<>();
+    private final List<long[]> attributes = new ArrayList<>();
+    private final Map<String, IntList> postings = new HashMap<>();
+
+    /**
+     * Postings of a term of the added documents.
+     */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    public IndexWriter(MetadataIndex previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Keeps a document of the previous index, with the tokens it had.
+     */
+    public synchronized void keep(int doc) {
+        kept.set(doc);
+    }
+
+    /**
+     * Adds a document with the given tokens of each field.
+     */
+    public synchronized void add(String path, long size, long modified,
+            Map<MetadataField, ? extends Collection<String>> tokens) {
+        int doc = paths.size();
+        paths.add(path);
+        attributes.add(new long[] { size, modified });
+        for (Map.Entry<MetadataField, ? extends Collection<String>> field : tokens.entrySet()) {
+            char code = (char) field.getKey().ordinal();
+            for (String token : field.getValue()) {
+                IntList docs = postings.computeIfAbsent(code + token, key -> new IntList());
+                // a token repeated within a field is only posted once
+                if (docs.size == 0 || docs.values[docs.size - 1] != doc) {
+                    docs.add(doc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of documents the new index will hold.
+     */
+    public synchronized int getDocumentCount() {
+        return kept.cardinality() + paths.size();
+    }
+
+    /**
+     * Writes the new index to {@code path}, replacing any file there.
+     */
+    public synchronized void write(Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            writeContents(temp);
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeContents(Path file) throws IOException {
+        int[] renumbered = new int[previous.getDocumentCount()];
+        Arrays.fill(renumbered, -1);
+        int keptCount = 0;
+        for (int doc = kept.nextSetBit(0); doc >= 0; doc = kept.nextSetBit(doc + 1)) {
+            renumbered[doc] = keptCount++;
+        }
+        int documentCount = keptCount + paths.size();
+        List<Integer> documentOffsets = new ArrayList<>(documentCount);
+        List<Integer> termOffsets = new ArrayList<>();
+
+        try (OutputStream fileOut = Files.newOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.write(new byte[MetadataIndex.HEADER_LENGTH]);
+            for (int doc = kept.nextSetBit(0); doc >= 0; doc = kept.nextSetBit(doc + 1)) {
+                documentOffsets.add(out.size());
+                writeDocument(out, previous.getPath(doc), previous.getSize(doc), previous.getModified(doc));
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                documentOffsets.add(out.size());
+                writeDocument(out, paths.get(i), attributes.get(i)[0], attributes.get(i)[1]);
+            }
+
+            String[] added = postings.keySet().toArray(new String[0]);
+            byte[][] addedKeys = new byte[added.length][];
+            for (int i = 0; i < added.length; i++) {
+                addedKeys[i] = added[i].getBytes(StandardCharsets.UTF_8);
+            }
+            Integer[] order = new Integer[added.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> MetadataIndex.compareBytes(addedKeys[a], addedKeys[b]));
+
+            int oldTerm = 0;
+            int newTerm = 0;
+            int[] buffer = new int[16];
+            while (oldTerm < previous.getTermCount() || newTerm < order.length) {
+                byte[] oldKey = oldTerm < previous.getTermCount() ? termKey(oldTerm) : null;
+                byte[] newKey = newTerm < order.length ? addedKeys[order[newTerm]] : null;
+                int c = oldKey == null ? 1 : newKey == null ? -1 : MetadataIndex.compareBytes(oldKey, newKey);
+                int count = 0;
+                if (c <= 0) {
+                    int[] docs = previous.getPostings(oldTerm++);
+                    if (buffer.length < docs.length) {
+                        buffer = new int[docs.length * 2];
+                    }
+                    for (int doc : docs) {
+                        if (renumbered[doc] >= 0) {
+                            buffer[count++] = renumbered[doc];
+                        }
+                    }
+                }
+                if (c >= 0) {
+                    IntList docs = postings.get(added[order[newTerm++]]);
+                    if (buffer.length < count + docs.size) {
+                        buffer = Arrays.copyOf(buffer, (count + docs.size) * 2);
+                    }
+                    for (int i = 0; i < docs.size; i++) {
+                        buffer[count++] = keptCount + docs.values[i];
+                    }
+                }
+                byte[] key = c <= 0 ? oldKey : newKey;
+                if (count > 0 && key.length - 1 <= MAX_TOKEN_BYTES) {
+                    termOffsets.add(out.size());
+                    writeTerm(out, key, buffer, count);
+                }
+            }
+
+            int documentTable = out.size();
+            for (int offset : documentOffsets) {
+                out.writeInt(offset);
+            }
+            int termTable = out.size();
+            for (int offset : termOffsets) {
+                out.writeInt(offset);
+            }
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("index larger than 2 GB");
+            }
+            out.flush();
+            fileOut.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(MetadataIndex.HEADER_LENGTH)
+                    .putInt(MetadataIndex.MAGIC).putInt(MetadataIndex.VERSION)
+                    .putInt(documentCount).putInt(termOffsets.size())
+                    .putInt(documentTable).putInt(termTable);
+            header.flip();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(header, 0);
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Key of a term of the previous index, in the form used for the added
+     * terms: the ordinal of the field followed by the token.
+     */
+    private byte[] termKey(int term) {
+        byte[] token = previous.getTermToken(term);
+        byte[] key = new byte[token.length + 1];
+        key[0] = (byte) previous.getTermField(term).ordinal();
+        System.arraycopy(token, 0, key, 1, token.length);
+        return key;
+    }
+
+    private static void writeDocument(DataOutputStream out, String path, long size, long modified)
+            throws IOException {
+        byte[] encoded = path.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+        out.writeLong(size);
+        out.writeLong(modified);
+    }
+
+    private static void writeTerm(DataOutputStream out, byte[] key, int[] docs, int count) throws IOException {
+        out.writeByte(key[0]);
+        out.writeShort(key.length - 1);
+        out.write(key, 1, key.length - 1);
+        out.writeInt(count);
+        int previousDoc = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = docs[i] - previousDoc;
+            previousDoc = docs[i];
+            while ((delta & ~0x7f) != 0) {
+                out.writeByte((delta & 0x7f) | 0x80);
+                delta >>>= 7;
+            }
+            out.writeByte(delta);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.index;
+
+import es.ucm.pdfmeta.model.MetadataField;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only inverted index of the title, author and BibTeX entry of a
+ * set of PDF files, memory-mapped from the file written by
+ * {@link IndexWriter}, so that queries only touch the pages they need.
+ * <p>
+ * The file starts with a header (magic number, version, number of
+ * documents and of terms, and the offsets of the document and term
+ * tables), followed by one record per document (path, size and
+ * modification time, used to detect changed files), one record per term
+ * and the two tables of record offsets. Terms are sorted by field and then
+ * by the UTF-8 bytes of the token, so that exact and prefix lookups are
+ * binary searches. Each term record holds the ids of the documents that
+ * contain it, in increasing order, as variable-length deltas.
+ * <p>
+ * Instances are immutable and can be queried from several threads.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class MetadataIndex {
+    static final int MAGIC = 0x50444d49;
+    /**
+     * Fields are stored by ordinal, so the version changes whenever the
+     * order of {@link MetadataField} does.
+     */
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 24;
+
+    /**
+     * The fields whose tokens are indexed.
+     */
+    public static final List<MetadataField> FIELDS = Collections.unmodifiableList(Arrays.asList(
+            MetadataField.TITLE, MetadataField.AUTHOR, MetadataField.BIBTEX));
+
+    private static final MetadataIndex EMPTY = new MetadataIndex(null, 0, 0, 0, 0);
+
+    private final ByteBuffer buffer;
+    private final int documentCount;
+    private final int termCount;
+    private final int documentTable;
+    private final int termTable;
+
+    private MetadataIndex(ByteBuffer buffer, int documentCount, int termCount, int documentTable, int termTable) {
+        this.buffer = buffer;
+        this.documentCount = documentCount;
+        this.termCount = termCount;
+        this.documentTable = documentTable;
+        this.termTable = termTable;
+    }
+
+    /**
+     * Returns an index without documents.
+     */
+    public static MetadataIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Maps the index stored at {@code path}.
+     *
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static MetadataIndex open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + ": index larger than 2 GB");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + ": not a pdfmeta index");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException(path + ": index version " + buffer.getInt(4) + " is not supported,"
+                        + " delete it to rebuild it");
+            }
+            int documentCount = buffer.getInt(8);
+            int termCount = buffer.getInt(12);
+            int documentTable = buffer.getInt(16);
+            int termTable = buffer.getInt(20);
+            if (documentCount < 0 || termCount < 0 || documentTable < HEADER_LENGTH || termTable < HEADER_LENGTH
+                    || documentTable + 4L * documentCount > size || termTable + 4L * termCount > size) {
+                throw new IOException(path + ": index is damaged, delete it to rebuild it");
+            }
+            return new MetadataIndex(buffer, documentCount, termCount, documentTable, termTable);
+        }
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    private int documentRecord(int doc) {
+        return buffer.getInt(documentTable + 4 * doc);
+    }
+
+    /**
+     * Absolute path of a document.
+     */
+    public String getPath(int doc) {
+        int record = documentRecord(doc);
+        return string(record + 4, buffer.getInt(record));
+    }
+
+    /**
+     * Size of the file when it was indexed.
+     */
+    public long getSize(int doc) {
+        int record = documentRecord(doc);
+        return buffer.getLong(record + 4 + buffer.getInt(record));
+    }
+
+    /**
+     * Modification time of the file, in milliseconds, when it was indexed.
+     */
+    public long getModified(int doc) {
+        int record = documentRecord(doc);
+        return buffer.getLong(record + 12 + buffer.getInt(record));
+    }
+
+    int getTermCount() {
+        return termCount;
+    }
+
+    private int termRecord(int term) {
+        return buffer.getInt(termTable + 4 * term);
+    }
+
+    MetadataField getTermField(int term) {
+        return MetadataField.values()[buffer.get(termRecord(term))];
+    }
+
+    byte[] getTermToken(int term) {
+        int record = termRecord(term);
+        byte[] result = new byte[buffer.getShort(record + 1) & 0xffff];
+        ByteBuffer view = buffer.duplicate();
+        view.position(record + 3);
+        view.get(result);
+        return result;
+    }
+
+    /**
+     * Ids of the documents that contain a term, in increasing order.
+     */
+    int[] getPostings(int term) {
+        int record = termRecord(term);
+        int position = record + 3 + (buffer.getShort(record + 1) & 0xffff);
+        int[] result = new int[buffer.getInt(position)];
+        position += 4;
+        int doc = 0;
+        for (int i = 0; i < result.length; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            result[i] = doc;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the documents whose field contains the given normalized token.
+     */
+    public int[] lookup(MetadataField field, String token) {
+        byte[] key = token.getBytes(StandardCharsets.UTF_8);
+        int term = lowerBound(field, key);
+        if (term < termCount && compare(term, field, key) == 0) {
+            return getPostings(term);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Returns the documents whose field contains a token that starts with
+     * the given normalized prefix.
+     */
+    public int[] lookupPrefix(MetadataField field, String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int first = lowerBound(field, key);
+        int term = first;
+        while (term < termCount && startsWith(term, field, key)) {
+            term++;
+        }
+        if (term - first == 1) {
+            return getPostings(first);
+        }
+        BitSet docs = new BitSet(documentCount);
+        for (int t = first; t < term; t++) {
+            for (int doc : getPostings(t)) {
+                docs.set(doc);
+            }
+        }
+        return docs.stream().toArray();
+    }
+
+    /**
+     * Returns the first term not smaller than the given one.
+     */
+    private int lowerBound(MetadataField field, byte[] key) {
+        int low = 0;
+        int high = termCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, field, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int term, MetadataField field, byte[] key) {
+        int record = termRecord(term);
+        int c = Integer.compare(buffer.get(record), field.ordinal());
+        if (c != 0) {
+            return c;
+        }
+        int length = buffer.getShort(record + 1) & 0xffff;
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            c = Integer.compare(buffer.get(record + 3 + i) & 0xff, key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private boolean startsWith(int term, MetadataField field, byte[] prefix) {
+        int record = termRecord(term);
+        if (buffer.get(record) != field.ordinal() || (buffer.getShort(record + 1) & 0xffff) < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(record + 3 + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares byte arrays as unsigned bytes, which is the order of the
+     * code points of UTF-8 text.
+     */
+    static int compareBytes(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int c = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.index;
+
+import es.ucm.pdfmeta.model.MetadataField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A boolean query over a {@link MetadataIndex}.
+ *
+ * <pre>
+ * query := and ("OR" and)*
+ * and   := unary (["AND"] unary)*
+ * unary := ("NOT" | "-") unary | "(" query ")" | term
+ * term  := [field ":"] (word ["*"] | '"' words '"')
+ * </pre>
+ *
+ * Words are normalized like the indexed values, so matching ignores case,
+ * accents and punctuation. A word ending in {@code *} matches any token it
+ * is a prefix of, and a quoted phrase matches documents that contain all
+ * its words in the same field. Without a field, a term matches any of
+ * {@link MetadataIndex#FIELDS}; fields are named as on the command line
+ * or as in the Info dictionary.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class Query {
+    private final Node root;
+    private final String text;
+
+    private interface Node {
+        int[] evaluate(MetadataIndex index);
+    }
+
+    private Query(Node root, String text) {
+        this.root = root;
+        this.text = text;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public static Query parse(String text) {
+        Parser parser = new Parser(lex(text));
+        if (parser.atEnd()) {
+            throw new IllegalArgumentException("empty query");
+        }
+        Node root = parser.or();
+        if (!parser.atEnd()) {
+            throw new IllegalArgumentException("unexpected " + parser.peek() + " in query");
+        }
+        return new Query(root, text);
+    }
+
+    /**
+     * Returns the ids of the matching documents, in increasing order.
+     */
+    public int[] evaluate(MetadataIndex index) {
+        return root.evaluate(index);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Splits a query into parentheses and words; a quoted part, with any
+     * field name before it, is a single word.
+     */
+    private static List<String> lex(String text) {
+        List<String> result = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                result.add(String.valueOf(c));
+                i++;
+            } else {
+                int start = i;
+                boolean quoted = false;
+                while (i < text.length()) {
+                    c = text.charAt(i);
+                    if (c == '"') {
+                        quoted = !quoted;
+                    } else if (!quoted && (Character.isWhitespace(c) || c == '(' || c == ')')) {
+                        break;
+                    }
+                    i++;
+                }
+                if (quoted) {
+                    throw new IllegalArgumentException("unterminated quote in query");
+                }
+                result.add(text.substring(start, i));
+            }
+        }
+        return result;
+    }
+
+    private static final class Parser {
+        private final List<String> words;
+        private int position;
+
+        Parser(List<String> words) {
+            this.words = words;
+        }
+
+        boolean atEnd() {
+            return position == words.size();
+        }
+
+        String peek() {
+            return words.get(position);
+        }
+
+        Node or() {
+            Node result = and();
+            while (!atEnd() && peek().equals("OR")) {
+                position++;
+                Node left = result;
+                Node right = and();
+                result = index -> union(left.evaluate(index), right.evaluate(index));
+            }
+            return result;
+        }
+
+        Node and() {
+            Node result = unary();
+            while (!atEnd() && !peek().equals("OR") && !peek().equals(")")) {
+                if (peek().equals("AND")) {
+                    position++;
+                }
+                Node left = result;
+                Node right = unary();
+                result = index -> intersect(left.evaluate(index), right.evaluate(index));
+            }
+            return result;
+        }
+
+        Node unary() {
+            if (atEnd()) {
+                throw new IllegalArgumentException("query ends unexpectedly");
+            }
+            String word = words.get(position++);
+            if (word.equals("NOT")) {
+                Node operand = unary();
+                return index -> complement(operand.evaluate(index), index.getDocumentCount());
+            }
+            if (word.startsWith("-") && word.length() > 1) {
+                Node operand = term(word.substring(1));
+                return index -> complement(operand.evaluate(index), index.getDocumentCount());
+            }
+            if (word.equals("(")) {
+                Node result = or();
+                if (atEnd() || !peek().equals(")")) {
+                    throw new IllegalArgumentException("missing ) in query");
+                }
+                position++;
+                return result;
+            }
+            if (word.equals(")") || word.equals("AND") || word.equals("OR")) {
+                throw new IllegalArgumentException("unexpected " + word + " in query");
+            }
+            return term(word);
+        }
+
+        private static Node term(String word) {
+            MetadataField field = null;
+            int colon = word.indexOf(':');
+            int quote = word.indexOf('"');
+            if (colon > 0 && (quote < 0 || colon < quote)) {
+                String name = word.substring(0, colon);
+                field = MetadataField.forAnyName(name);
+                if (field == null || !MetadataIndex.FIELDS.contains(field)) {
+                    throw new IllegalArgumentException("unknown field in query: " + name);
+                }
+                word = word.substring(colon + 1);
+            }
+            boolean phrase = word.startsWith("\"");
+            boolean prefix = !phrase && word.endsWith("*");
+            List<String> tokens = Tokenizer.tokens(phrase ? word.replace("\"", "") : word);
+            if (tokens.isEmpty()) {
+                throw new IllegalArgumentException("nothing to search for in: " + word);
+            }
+            MetadataField only = field;
+            return index -> {
+                int[] result = null;
+                for (MetadataField f : only != null ? Collections.singletonList(only) : MetadataIndex.FIELDS) {
+                    int[] docs = null;
+                    for (int i = 0; i < tokens.size(); i++) {
+                        String token = tokens.get(i);
+                        int[] matches = prefix && i == tokens.size() - 1
+                                ? index.lookupPrefix(f, token) : index.lookup(f, token);
+                        docs = docs == null ? matches : intersect(docs, matches);
+                    }
+                    result = result == null ? docs : union(result, docs);
+                }
+                return result;
+            };
+        }
+    }
+
+    static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return trim(result, count);
+    }
+
+    static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return trim(result, count);
+    }
+
+    static int[] complement(int[] a, int documentCount) {
+        int[] result = new int[documentCount - a.length];
+        int count = 0;
+        int i = 0;
+        for (int doc = 0; doc < documentCount; doc++) {
+            if (i < a.length && a[i] == doc) {
+                i++;
+            } else {
+                result[count++] = doc;
+            }
+        }
+        return trim(result, count);
+    }
+
+    private static int[] trim(int[] values, int count) {
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+}
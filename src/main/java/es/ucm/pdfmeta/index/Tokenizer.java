@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.index;
+
+import es.ucm.pdfmeta.bibtex.BibtexEntry;
+import es.ucm.pdfmeta.bibtex.BibtexParser;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits metadata values into the tokens stored in a {@link MetadataIndex}
+ * and looked up by queries, so that both sides agree on what a word is.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class Tokenizer {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private Tokenizer() { }
+
+    /**
+     * Lower-cases a value and removes accents and punctuation, so that
+     * trivially different spellings compare equal. Words are separated by
+     * single spaces.
+     */
+    public static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFKD);
+        String lower = MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+        return SEPARATORS.matcher(lower).replaceAll(" ").trim();
+    }
+
+    /**
+     * Returns the words of a normalized value, in order and with repetitions.
+     */
+    public static List<String> tokens(String value) {
+        String normalized = normalize(value);
+        if (normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        Collections.addAll(result, normalized.split(" "));
+        return result;
+    }
+
+    /**
+     * Returns the distinct words of a BibTeX entry: its key and the values
+     * of its fields, leaving out the field names and the markup. Text that
+     * does not parse as an entry is tokenized as it is.
+     */
+    public static Set<String> bibtexTokens(String bibtex) {
+        Set<String> result = new LinkedHashSet<>();
+        if (bibtex == null) {
+            return result;
+        }
+        BibtexEntry entry = BibtexParser.parseFirst(bibtex);
+        if (entry == null) {
+            result.addAll(tokens(bibtex));
+            return result;
+        }
+        result.addAll(tokens(entry.getKey()));
+        for (String value : entry.getFields().values()) {
+            result.addAll(tokens(value));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A pool of bytes shared between threads. Callers block until the amount
+ * they request is available; requests larger than the whole pool are
+ * reduced to its capacity, so that they can still proceed on their own.
+ * Requests are served in arrival order: once one has to wait, later ones
+ * wait behind it even if they would fit, so that a large request is not
+ * starved by a stream of small ones.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class ByteBudget {
+    private final long capacity;
+    private long available;
+    private final Deque<Thread> waiting = new ArrayDeque<>();
+
+    public ByteBudget(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.available = capacity;
+    }
+
+    /**
+     * Waits until {@code bytes} are available and takes them.
+     *
+     * @return the amount actually taken, to be given back to {@link #release(long)}
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long amount = Math.min(Math.max(bytes, 0), capacity);
+        if (waiting.isEmpty() && available >= amount) {
+            available -= amount;
+            return amount;
+        }
+        Thread current = Thread.currentThread();
+        waiting.addLast(current);
+        try {
+            while (waiting.peekFirst() != current || available < amount) {
+                wait();
+            }
+            available -= amount;
+            return amount;
+        } finally {
+            waiting.remove(current);
+            // the next in line may fit in what is left
+            notifyAll();
+        }
+    }
+
+    public synchronized void release(long amount) {
+        available += amount;
+        notifyAll();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getInUse() {
+        return capacity - available;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A sequence of bytes addressed by absolute position.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+interface ByteInput {
+    long length();
+
+    /**
+     * Returns the byte at the given position, or -1 past the end of input.
+     */
+    int byteAt(long pos) throws IOException;
+
+    byte[] bytes(long pos, int count) throws IOException;
+
+    static ByteInput of(byte[] data) {
+        return new ByteInput() {
+            @Override
+            public long length() {
+                return data.length;
+            }
+
+            @Override
+            public int byteAt(long pos) {
+                return pos >= 0 && pos < data.length ? data[(int) pos] & 0xFF : -1;
+            }
+
+            @Override
+            public byte[] bytes(long pos, int count) throws IOException {
+                if (pos < 0 || count < 0 || pos + count > data.length) {
+                    throw new EOFException("unexpected end of data at offset " + pos);
+                }
+                byte[] result = new byte[count];
+                System.arraycopy(data, (int) pos, result, 0, count);
+                return result;
+            }
+        };
+    }
+}
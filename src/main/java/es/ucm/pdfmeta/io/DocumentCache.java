@@ -0,0 +1,265 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.modifyDocFromModel;
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps recently used documents open, together with their models, up to a
+ * number of documents and a total file size. When a limit is exceeded the
+ * least recently used documents are closed, which also releases their
+ * scratch buffers; those with unsaved changes are saved first. A document
+ * that is requested again after being closed is simply loaded again, as
+ * is one whose file has been modified by someone else while it was clean.
+ *
+ * <p>Access to the cache is synchronized, but loading and saving are slow,
+ * so it is best used from a single background thread.</p>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class DocumentCache implements Closeable {
+
+    /**
+     * Called when a document that is being closed to make room cannot be
+     * saved. The document stays open, so its changes are not lost.
+     */
+    public interface SaveFailureHandler {
+        void saveFailed(File file, IOException ex);
+    }
+
+    private final DocumentLoader loader;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final SaveMode saveMode;
+    private final SaveFailureHandler failureHandler;
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private static class Entry {
+        final OpenDocument document;
+        final MetadataModel<String> model;
+        final long size;
+        long modified;
+
+        Entry(OpenDocument document, MetadataModel<String> model, long size, long modified) {
+            this.document = document;
+            this.model = model;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * @param loader loader used for every document
+     * @param maxDocuments maximum number of documents kept open
+     * @param maxBytes maximum total size of the files of the open documents
+     * @param saveMode how documents are saved
+     * @param failureHandler notified when a document cannot be saved before
+     *        being closed
+     */
+    public DocumentCache(DocumentLoader loader, int maxDocuments, long maxBytes, SaveMode saveMode,
+            SaveFailureHandler failureHandler) {
+        this.loader = loader;
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.saveMode = saveMode;
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * Returns the model of a file, loading the document if it is not open.
+     * Changes made to the model are saved by {@link #save(File)}, or when
+     * the document is closed.
+     */
+    public synchronized MetadataModel<String> getModel(File file) throws IOException {
+        Entry entry = entries.get(file);
+        if (entry != null && !entry.model.isDirty() && entry.modified != file.lastModified()) {
+            remove(file);
+            entry = null;
+        }
+        if (entry == null) {
+            long size = file.length();
+            makeRoom(size);
+            OpenDocument od = loader.load(file);
+            try {
+                entry = new Entry(od, buildModelFromDocument(od.getDocument()), size, file.lastModified());
+            } catch (RuntimeException ex) {
+                od.close();
+                throw ex;
+            }
+            entries.put(file, entry);
+            bytes += size;
+        }
+        return entry.model;
+    }
+
+    /**
+     * Returns true if the document of a file is open and its model has
+     * unsaved changes.
+     */
+    public synchronized boolean isDirty(File file) {
+        Entry entry = entries.get(file);
+        return entry != null && entry.model.isDirty();
+    }
+
+    /**
+     * Saves the changes made to the model of a file, if any.
+     *
+     * @return true if the file was written
+     */
+    public synchronized boolean save(File file) throws IOException {
+        Entry entry = entries.get(file);
+        if (entry == null || !entry.model.isDirty()) {
+            return false;
+        }
+        save(file, entry);
+        if (saveMode == SaveMode.APPEND) {
+            reload(file, entry);
+        }
+        return true;
+    }
+
+    private void save(File file, Entry entry) throws IOException {
+        modifyDocFromModel(entry.document.getDocument(), entry.model);
+        DocumentSaver.save(entry.document, file, saveMode);
+        entry.model.markClean();
+        entry.modified = file.lastModified();
+    }
+
+    /**
+     * Loads the document of an entry again after an update has been appended
+     * to its file, so that the next update follows this one rather than the
+     * bytes the document was first loaded from. The model is kept. If the
+     * document cannot be loaded the entry is dropped; its model is clean, so
+     * nothing is lost.
+     */
+    private void reload(File file, Entry entry) throws IOException {
+        remove(file);
+        long size = file.length();
+        makeRoom(size);
+        entries.put(file, new Entry(loader.load(file), entry.model, size, file.lastModified()));
+        bytes += size;
+    }
+
+    /**
+     * Returns the files whose models have unsaved changes.
+     */
+    public synchronized List<File> getDirtyFiles() {
+        List<File> result = new ArrayList<>();
+        entries.forEach((file, entry) -> {
+            if (entry.model.isDirty()) {
+                result.add(file);
+            }
+        });
+        return result;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Total size of the files of the open documents.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Closes the least recently used documents until one more document of
+     * the given size fits.
+     */
+    private void makeRoom(long size) throws IOException {
+        Iterator<Map.Entry<File, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && (entries.size() >= maxDocuments || bytes + size > maxBytes)) {
+            Map.Entry<File, Entry> eldest = it.next();
+            Entry entry = eldest.getValue();
+            if (entry.model.isDirty()) {
+                try {
+                    save(eldest.getKey(), entry);
+                } catch (IOException ex) {
+                    failureHandler.saveFailed(eldest.getKey(), ex);
+                    continue;
+                }
+            }
+            it.remove();
+            bytes -= entry.size;
+            entry.document.close();
+        }
+    }
+
+    private void remove(File file) throws IOException {
+        Entry entry = entries.remove(file);
+        if (entry != null) {
+            bytes -= entry.size;
+            entry.document.close();
+        }
+    }
+
+    /**
+     * Closes every document, saving or discarding unsaved changes. If a
+     * document cannot be saved the rest are still closed, and the first
+     * error is thrown at the end.
+     */
+    public synchronized void close(boolean saveChanges) throws IOException {
+        IOException failure = null;
+        for (Map.Entry<File, Entry> e : entries.entrySet()) {
+            try {
+                if (saveChanges && e.getValue().model.isDirty()) {
+                    save(e.getKey(), e.getValue());
+                }
+            } catch (IOException ex) {
+                if (failure == null) {
+                    failure = ex;
+                }
+            } finally {
+                e.getValue().document.close();
+            }
+        }
+        entries.clear();
+        bytes = 0;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Closes every document, saving unsaved changes.
+     */
+    @Override
+    public void close() throws IOException {
+        close(true);
+    }
+}
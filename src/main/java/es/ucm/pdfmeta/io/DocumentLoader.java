@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.metrics.Phase;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Loads documents under a memory policy. Each document may keep at most a
+ * given number of bytes of buffers in main memory and spills the rest to
+ * scratch files; optionally, the total size of the files open at the same
+ * time across all threads is capped by a {@link ByteBudget}.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class DocumentLoader {
+    /**
+     * PDFBox defaults: buffers are kept in main memory without limit.
+     */
+    public static final DocumentLoader DEFAULT = new DocumentLoader(-1, false, null, null);
+
+    private final long maxMainMemoryBytes;
+    private final boolean tempFileOnly;
+    private final File scratchDir;
+    private final ByteBudget openBytes;
+
+    /**
+     * @param maxMainMemoryBytes main memory allowed per document before
+     *        spilling to scratch files, or -1 for no limit
+     * @param tempFileOnly keep all buffers in scratch files
+     * @param scratchDir directory for scratch files, or null for the
+     *        system temporary directory
+     * @param openBytes budget shared by all documents open at the same
+     *        time, charged with the size of each file, or null for no limit
+     */
+    public DocumentLoader(long maxMainMemoryBytes, boolean tempFileOnly, File scratchDir, ByteBudget openBytes) {
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+        this.tempFileOnly = tempFileOnly;
+        this.scratchDir = scratchDir;
+        this.openBytes = openBytes;
+    }
+
+    private MemoryUsageSetting memoryUsageSetting() {
+        MemoryUsageSetting setting;
+        if (tempFileOnly) {
+            setting = MemoryUsageSetting.setupTempFileOnly();
+        } else if (maxMainMemoryBytes >= 0) {
+            setting = MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+        } else {
+            setting = MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        if (scratchDir != null) {
+            setting.setTempDir(scratchDir);
+        }
+        return setting;
+    }
+
+    public OpenDocument load(File file) throws IOException {
+        return load(file, false);
+    }
+
+    /**
+     * Loads a document read from a stream. The stream is first copied to a
+     * scratch file, deleted when the document is closed, so that the
+     * document can be saved incrementally and is charged to the budget like
+     * any other file.
+     */
+    public OpenDocument load(InputStream in) throws IOException {
+        File spool = File.createTempFile("pdfmeta", ".pdf", scratchDir);
+        try {
+            Files.copy(in, spool.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return load(spool, true);
+        } catch (IOException | RuntimeException ex) {
+            spool.delete();
+            throw ex;
+        }
+    }
+
+    private OpenDocument load(File file, boolean deleteOnClose) throws IOException {
+        long size = file.length();
+        long reserved = 0;
+        if (openBytes != null) {
+            try {
+                reserved = openBytes.acquire(size);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting to open " + file);
+            }
+        }
+        try (Metrics.Timer timer = Metrics.time(Phase.LOAD, file)) {
+            timer.setBytes(size);
+            OpenDocument result = new OpenDocument(file, PDDocument.load(file, memoryUsageSetting()), size,
+                    openBytes, reserved, deleteOnClose);
+            Metrics.bytesRead(size);
+            Metrics.documentOpened(size);
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            if (openBytes != null) {
+                openBytes.release(reserved);
+            }
+            throw ex;
+        }
+    }
+}
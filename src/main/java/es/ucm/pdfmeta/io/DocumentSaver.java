@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.metrics.Phase;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.regex.Pattern;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Writes a document loaded from a file back to that file, using one of the
+ * strategies in {@link SaveMode}. Incremental modes only write the Info
+ * dictionary and whatever other objects have been explicitly marked as
+ * updated.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class DocumentSaver {
+    private static final String TEMP_SUFFIX = ".pdfmeta.tmp";
+
+    private DocumentSaver() { }
+
+    public static void save(OpenDocument od, File file, SaveMode mode) throws IOException {
+        save(od.getDocument(), od.getSourceLength(), file, mode);
+    }
+
+    /**
+     * Saves a document to a file.
+     *
+     * @param sourceLength length of the file the document was loaded from,
+     *        at the time it was loaded
+     */
+    public static void save(PDDocument doc, long sourceLength, File file, SaveMode mode) throws IOException {
+        try (Metrics.Timer timer = Metrics.time(Phase.SAVE, file)) {
+            long written;
+            switch (mode) {
+                case FULL:
+                    written = replace(file, doc::save);
+                    break;
+                case INCREMENTAL:
+                    markInfoUpdated(doc);
+                    written = replace(file, doc::saveIncremental);
+                    break;
+                case APPEND:
+                    markInfoUpdated(doc);
+                    written = append(doc, sourceLength, file);
+                    if (written < 0) {
+                        // the file is no longer the one the document was
+                        // loaded from: it has been saved already, or changed
+                        // by someone else. An update appended to it would
+                        // refer to offsets in the wrong bytes.
+                        written = replace(file, doc::saveIncremental);
+                    }
+                    break;
+                default:
+                    throw new AssertionError(mode);
+            }
+            timer.setBytes(written);
+            Metrics.bytesWritten(written);
+        }
+    }
+
+    /**
+     * Writes a document to a stream. {@link SaveMode#FULL} writes the whole
+     * document; the other modes write the original bytes followed by an
+     * incremental update.
+     */
+    public static void write(PDDocument doc, OutputStream out, SaveMode mode) throws IOException {
+        Metrics.Timer timer = Metrics.time(Phase.SAVE, null);
+        try {
+            if (mode == SaveMode.FULL) {
+                doc.save(out);
+            } else {
+                markInfoUpdated(doc);
+                doc.saveIncremental(out);
+            }
+        } finally {
+            timer.close();
+        }
+    }
+
+    /**
+     * Deletes the temporary files left next to {@code file} by saves that
+     * were interrupted before they could replace it.
+     *
+     * @return the number of files deleted
+     */
+    public static int deleteTempFiles(File file) throws IOException {
+        Path target = file.exists() ? file.toPath().toRealPath() : file.toPath().toAbsolutePath();
+        int deleted = 0;
+        // the names given by Files.createTempFile in replace(), and no others
+        Pattern tempName = Pattern.compile(Pattern.quote("." + target.getFileName()) + "\\d+"
+                + Pattern.quote(TEMP_SUFFIX));
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(target.getParent(),
+                path -> tempName.matcher(path.getFileName().toString()).matches())) {
+            for (Path temp : temps) {
+                if (Files.deleteIfExists(temp)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static void markInfoUpdated(PDDocument doc) {
+        doc.getDocumentInformation().getCOSObject().setNeedToBeUpdated(true);
+    }
+
+    private interface DocumentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes into a temporary file next to {@code file} and renames it over
+     * the original once it is complete, so that readers never observe a
+     * partially written document. A symbolic link is followed, so the file
+     * it points to is replaced rather than the link, and the new file gets
+     * the permissions and, where allowed, the owner of the original.
+     *
+     * @return the number of bytes written
+     */
+    private static long replace(File file, DocumentWriter writer) throws IOException {
+        Path target = file.toPath().toRealPath();
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), TEMP_SUFFIX);
+        try {
+            copyAttributes(target, temp);
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                // PDFBox closes the stream it writes to, which would prevent the sync
+                writer.write(new SkippingOutputStream(out, 0));
+                try (Metrics.Timer timer = Metrics.time(Phase.SYNC, file)) {
+                    timer.setBytes(out.getChannel().size());
+                    out.getFD().sync();
+                }
+            }
+            long written = Files.size(temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return written;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Copies the permissions, owner and group, or the access control list,
+     * of a file to another. Changing the owner requires privileges that
+     * are not usually held, so failing to do so is not an error.
+     */
+    private static void copyAttributes(Path from, Path to) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (posix != null) {
+            PosixFileAttributes attrs = Files.readAttributes(from, PosixFileAttributes.class);
+            try {
+                posix.setGroup(attrs.group());
+                posix.setOwner(attrs.owner());
+            } catch (IOException | UnsupportedOperationException ex) {
+                // keep the owner of the process
+            }
+            posix.setPermissions(attrs.permissions());
+            return;
+        }
+        AclFileAttributeView acl = Files.getFileAttributeView(to, AclFileAttributeView.class);
+        if (acl != null) {
+            acl.setAcl(Files.getFileAttributeView(from, AclFileAttributeView.class).getAcl());
+        }
+    }
+
+    /**
+     * Appends an incremental update to the file in place, provided that the
+     * file still has the length it had when the document was loaded.
+     *
+     * @return the number of bytes appended, or -1 if the file has another
+     *         length and nothing was written
+     */
+    private static long append(PDDocument doc, long sourceLength, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            long originalLength = channel.size();
+            if (originalLength != sourceLength) {
+                return -1;
+            }
+            channel.position(originalLength);
+            boolean done = false;
+            try {
+                // PDFBox copies the original document before the update; the
+                // copy is discarded, as those bytes are already in the file.
+                doc.saveIncremental(new SkippingOutputStream(Channels.newOutputStream(channel), originalLength));
+                try (Metrics.Timer timer = Metrics.time(Phase.SYNC, file)) {
+                    timer.setBytes(channel.size() - originalLength);
+                    channel.force(true);
+                }
+                done = true;
+                return channel.size() - originalLength;
+            } finally {
+                if (!done) {
+                    channel.truncate(originalLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards a fixed number of leading bytes and forwards the rest, leaving
+     * the underlying stream open when closed.
+     */
+    private static class SkippingOutputStream extends FilterOutputStream {
+        private long toSkip;
+
+        SkippingOutputStream(OutputStream out, long toSkip) {
+            super(out);
+            this.toSkip = toSkip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (toSkip > 0) {
+                toSkip--;
+            } else {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (toSkip >= len) {
+                toSkip -= len;
+                return;
+            }
+            int skipped = (int) toSkip;
+            toSkip = 0;
+            out.write(b, off + skipped, len - skipped);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to the bytes of a file through a small block buffer, so that
+ * parsing a few objects at arbitrary offsets only reads the blocks that
+ * contain them.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+class FileSource implements ByteInput, Closeable {
+    private static final int BLOCK_SIZE = 4096;
+
+    private final FileChannel channel;
+    private final long length;
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    private long blockStart = -1;
+    private int blockLength;
+    private long bytesRead;
+
+    FileSource(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.length = channel.size();
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int byteAt(long pos) throws IOException {
+        if (pos < 0 || pos >= length) {
+            return -1;
+        }
+        if (pos < blockStart || pos >= blockStart + blockLength) {
+            fill(pos - pos % BLOCK_SIZE);
+        }
+        return block.get((int) (pos - blockStart)) & 0xFF;
+    }
+
+    @Override
+    public byte[] bytes(long pos, int count) throws IOException {
+        if (pos < 0 || count < 0 || pos + count > length) {
+            throw new EOFException("unexpected end of file at offset " + pos);
+        }
+        ByteBuffer result = ByteBuffer.allocate(count);
+        while (result.hasRemaining()) {
+            if (channel.read(result, pos + result.position()) < 0) {
+                throw new EOFException("unexpected end of file at offset " + pos);
+            }
+        }
+        bytesRead += count;
+        return result.array();
+    }
+
+    private void fill(long start) throws IOException {
+        block.clear();
+        while (block.hasRemaining() && start + block.position() < length) {
+            if (channel.read(block, start + block.position()) < 0) {
+                break;
+            }
+        }
+        blockStart = start;
+        blockLength = block.position();
+        bytesRead += blockLength;
+    }
+
+    /**
+     * Number of bytes read from the file so far.
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
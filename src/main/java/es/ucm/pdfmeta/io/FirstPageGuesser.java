@@ -0,0 +1,385 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.metrics.Phase;
+import es.ucm.pdfmeta.model.MetadataModel;
+import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+/**
+ * Guesses the title and authors of a document from the layout of its first
+ * page, for documents whose Info dictionary lacks them.
+ * <p>
+ * The title is taken to be the text set in the largest font in the upper
+ * half of the page, provided it is larger than the body text, and the
+ * authors the lines right below it that read as a list of personal names.
+ * Only the first page is looked up in the page tree and only its content
+ * and resources are parsed, so the cost does not depend on the number of
+ * pages.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class FirstPageGuesser {
+    /**
+     * Lines kept from the top of the page; the title and the authors are
+     * expected among them.
+     */
+    private static final int MAX_LINES = 60;
+    private static final int MAX_TITLE_LINES = 3;
+    private static final int MAX_TITLE_LENGTH = 300;
+    private static final int MAX_AUTHOR_LINES = 3;
+    /**
+     * Ratio between the font size of the title and that of the most common
+     * text of the page below which no title is guessed.
+     */
+    private static final float MIN_TITLE_RATIO = 1.15f;
+    /**
+     * Difference in points between font sizes considered the same.
+     */
+    private static final float SIZE_TOLERANCE = 0.5f;
+
+    private static final Pattern NOISE = Pattern.compile(
+            "(?i).*(arxiv|https?:|www\\.|doi\\b|issn|isbn|copyright|©|preprint|proceedings|journal|vol\\.|volume).*");
+    private static final Pattern NAME_SEPARATORS = Pattern.compile("\\s*(?:,|;|&|·|\\band\\b)\\s*");
+    private static final Pattern NAME_MARKS = Pattern.compile("[0-9*†‡§¶∗⋆]+");
+    private static final Pattern NAME_WORD = Pattern.compile("\\p{Lu}[\\p{L}'’.-]*\\.?|\\p{Lu}\\.");
+    private static final Set<String> NAME_PARTICLES = new HashSet<>(Arrays.asList(
+            "van", "von", "der", "den", "de", "del", "della", "di", "da", "dos", "du", "la", "le", "y", "bin", "ibn"));
+    private static final Set<String> NOT_NAMES = new HashSet<>(Arrays.asList(
+            "abstract", "introduction", "university", "universidad", "universität", "université", "universita",
+            "department", "departamento", "institute", "instituto", "laboratory", "laboratories", "school",
+            "college", "faculty", "facultad", "center", "centre", "inc", "ltd", "corporation", "research",
+            "science", "sciences", "technology", "email", "e-mail", "received", "accepted", "keywords"));
+
+    private final String title;
+    private final String author;
+
+    private FirstPageGuesser(String title, String author) {
+        this.title = title;
+        this.author = author;
+    }
+
+    /**
+     * Guessed title, or null.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Guessed authors, separated by commas as in
+     * {@link es.ucm.pdfmeta.bibtex.BibtexEntry#getAuthorsString()}, or null.
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Sets the title and author of the model from the first page of the
+     * document, where the model has none. The page is only read if one of
+     * them is missing.
+     *
+     * @return true if the model was modified
+     */
+    public static boolean fillMissing(PDDocument doc, MetadataModel<String> m) throws IOException {
+        boolean noTitle = isEmpty(m.getProperty(TITLE_PROPERTY_NAME).getValue());
+        boolean noAuthor = isEmpty(m.getProperty(AUTHOR_PROPERTY_NAME).getValue());
+        if (!noTitle && !noAuthor) {
+            return false;
+        }
+        FirstPageGuesser guess = guess(doc);
+        boolean modified = false;
+        if (noTitle && guess.title != null) {
+            m.getProperty(TITLE_PROPERTY_NAME).setValue(guess.title);
+            modified = true;
+        }
+        if (noAuthor && guess.author != null) {
+            m.getProperty(AUTHOR_PROPERTY_NAME).setValue(guess.author);
+            modified = true;
+        }
+        return modified;
+    }
+
+    /**
+     * Returns true if a model lacks a title or an author.
+     */
+    public static boolean isMissing(MetadataModel<String> m) {
+        return isEmpty(m.getProperty(TITLE_PROPERTY_NAME).getValue())
+                || isEmpty(m.getProperty(AUTHOR_PROPERTY_NAME).getValue());
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * Guesses the title and authors of a document from its first page.
+     */
+    public static FirstPageGuesser guess(PDDocument doc) throws IOException {
+        Metrics.Timer timer = Metrics.time(Phase.EXTRACT, null);
+        try {
+            LineCollector collector = new LineCollector();
+            collector.getText(doc);
+            return guess(collector.lines);
+        } finally {
+            timer.close();
+        }
+    }
+
+    private static FirstPageGuesser guess(List<Line> lines) {
+        // the most common font size, weighted by the number of characters
+        Map<Float, Integer> chars = new HashMap<>();
+        for (Line line : lines) {
+            chars.merge(Math.round(line.size * 2) / 2f, line.text.length(), Integer::sum);
+        }
+        float bodySize = 0;
+        int bodyChars = -1;
+        for (Map.Entry<Float, Integer> e : chars.entrySet()) {
+            if (e.getValue() > bodyChars) {
+                bodySize = e.getKey();
+                bodyChars = e.getValue();
+            }
+        }
+        int first = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            if (line.top < line.pageHeight / 2 && isTitleCandidate(line)
+                    && (first < 0 || line.size > lines.get(first).size + SIZE_TOLERANCE)) {
+                first = i;
+            }
+        }
+        if (first < 0 || lines.get(first).size < bodySize * MIN_TITLE_RATIO) {
+            return new FirstPageGuesser(null, null);
+        }
+        float titleSize = lines.get(first).size;
+        StringBuilder title = new StringBuilder(lines.get(first).text);
+        int next = first + 1;
+        while (next < lines.size() && next - first < MAX_TITLE_LINES) {
+            Line line = lines.get(next);
+            Line previous = lines.get(next - 1);
+            if (Math.abs(line.size - titleSize) > SIZE_TOLERANCE || line.top - previous.top > 2 * titleSize
+                    || title.length() + line.text.length() + 1 > MAX_TITLE_LENGTH) {
+                break;
+            }
+            joinLine(title, line.text);
+            next++;
+        }
+        List<String> authors = new ArrayList<>();
+        for (int i = next; i < lines.size() && i < next + MAX_AUTHOR_LINES; i++) {
+            Line line = lines.get(i);
+            if (line.size >= titleSize - SIZE_TOLERANCE) {
+                break;
+            }
+            List<String> names = names(line.text);
+            if (names == null) {
+                break;
+            }
+            authors.addAll(names);
+        }
+        return new FirstPageGuesser(title.toString(), authors.isEmpty() ? null : String.join(", ", authors));
+    }
+
+    private static boolean isTitleCandidate(Line line) {
+        int letters = 0;
+        for (int i = 0; i < line.text.length(); i++) {
+            if (Character.isLetter(line.text.charAt(i))) {
+                letters++;
+            }
+        }
+        return letters >= 4 && !NOISE.matcher(line.text).matches();
+    }
+
+    /**
+     * Joins a line to the title, undoing the hyphenation of a word split
+     * across lines.
+     */
+    private static void joinLine(StringBuilder title, String line) {
+        int last = title.length() - 1;
+        if (title.charAt(last) == '-' && last > 0 && Character.isLowerCase(title.charAt(last - 1))
+                && Character.isLowerCase(line.charAt(0))) {
+            title.setLength(last);
+        } else {
+            title.append(' ');
+        }
+        title.append(line);
+    }
+
+    /**
+     * Splits a line into personal names.
+     *
+     * @return the names, or null if some part of the line does not read as
+     *         one
+     */
+    private static List<String> names(String line) {
+        if (line.indexOf('@') >= 0) {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        for (String part : NAME_SEPARATORS.split(NAME_MARKS.matcher(line).replaceAll(" ").trim())) {
+            String name = part.trim().replaceAll("\\s+", " ");
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!isName(name)) {
+                return null;
+            }
+            result.add(name);
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    private static boolean isName(String name) {
+        String[] words = name.split(" ");
+        if (words.length < 2 || words.length > 5) {
+            return false;
+        }
+        int capitalized = 0;
+        for (String word : words) {
+            if (NOT_NAMES.contains(word.toLowerCase(Locale.ROOT))) {
+                return false;
+            }
+            if (NAME_WORD.matcher(word).matches()) {
+                capitalized++;
+            } else if (!NAME_PARTICLES.contains(word)) {
+                return false;
+            }
+        }
+        return capitalized >= 2;
+    }
+
+    /**
+     * A line of text of the first page, with the largest font size in it
+     * and the distance from its top to the top of the page.
+     */
+    private static final class Line {
+        final String text;
+        final float size;
+        final float top;
+        final float pageHeight;
+
+        Line(String text, float size, float top, float pageHeight) {
+            this.text = text;
+            this.size = size;
+            this.top = top;
+            this.pageHeight = pageHeight;
+        }
+    }
+
+    /**
+     * Collects the first lines of the first page, in reading order.
+     */
+    private static final class LineCollector extends PDFTextStripper {
+        final List<Line> lines = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private float size;
+        private float top = Float.NaN;
+        private float pageHeight;
+
+        LineCollector() throws IOException {
+            setSortByPosition(true);
+            setStartPage(1);
+            setEndPage(1);
+        }
+
+        /**
+         * Processes a page tree holding only the first page, since iterating
+         * over the whole tree would read every page dictionary. The page
+         * keeps its parent, so inherited resources are still found.
+         */
+        @Override
+        protected void processPages(PDPageTree pages) throws IOException {
+            if (pages.getCount() == 0) {
+                return;
+            }
+            PDPage page = pages.get(0);
+            COSDictionary root = new COSDictionary();
+            root.setItem(COSName.TYPE, COSName.PAGES);
+            COSArray kids = new COSArray();
+            kids.add(page.getCOSObject());
+            root.setItem(COSName.KIDS, kids);
+            root.setInt(COSName.COUNT, 1);
+            super.processPages(new PDPageTree(root));
+        }
+
+        @Override
+        protected void writeString(String string, List<TextPosition> textPositions) {
+            if (lines.size() >= MAX_LINES || textPositions.isEmpty()) {
+                return;
+            }
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(string.trim());
+            for (TextPosition position : textPositions) {
+                size = Math.max(size, position.getFontSizeInPt());
+            }
+            if (Float.isNaN(top)) {
+                TextPosition position = textPositions.get(0);
+                top = position.getYDirAdj() - position.getHeightDir();
+                pageHeight = position.getPageHeight();
+            }
+        }
+
+        @Override
+        protected void writeLineSeparator() {
+            endLine();
+        }
+
+        @Override
+        protected void endPage(PDPage page) {
+            endLine();
+        }
+
+        private void endLine() {
+            String line = text.toString().trim();
+            if (!line.isEmpty() && lines.size() < MAX_LINES) {
+                lines.add(new Line(line, size, top, pageHeight));
+            }
+            text.setLength(0);
+            size = 0;
+            top = Float.NaN;
+        }
+    }
+}
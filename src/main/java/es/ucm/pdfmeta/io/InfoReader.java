@@ -0,0 +1,596 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromInfo;
+import es.ucm.pdfmeta.io.PdfObjectParser.Name;
+import es.ucm.pdfmeta.io.PdfObjectParser.Ref;
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.metrics.Phase;
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.apache.pdfbox.cos.COSString;
+
+/**
+ * Reads the document information dictionary of a PDF file without loading
+ * the rest of the document. Starting from the {@code startxref} offset at the
+ * end of the file, only the trailer, the cross-reference entries needed to
+ * locate the Info dictionary and the Info dictionary itself are read.
+ * Classic cross-reference tables, cross-reference streams and compressed
+ * object streams are supported.
+ * <p>
+ * Damaged or encrypted files are rejected with an {@link IOException};
+ * {@link #readModel(File)} falls back to a full PDFBox load in that case.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class InfoReader implements Closeable {
+    private static final int TAIL_SIZE = 2048;
+    private static final int XREF_ENTRY_SIZE = 20;
+    private static final int MAX_REFERENCE_DEPTH = 32;
+
+    private final FileSource source;
+    private final PdfObjectParser parser;
+    private final List<XrefSection> sections = new ArrayList<>();
+    private final LinkedList<Long> pendingSections = new LinkedList<>();
+    private final Set<Long> visitedSections = new HashSet<>();
+    private final Map<String, Object> trailer = new HashMap<>();
+    private final Map<Long, ObjectStream> objectStreams = new HashMap<>();
+
+    public InfoReader(File file) throws IOException {
+        this.source = new FileSource(file);
+        this.parser = new PdfObjectParser(source);
+    }
+
+    /**
+     * Reads the metadata model of a file through the fast path, or by loading
+     * the whole document if the fast path cannot handle it.
+     */
+    public static MetadataModel<String> readModel(File file) throws IOException {
+        return readModel(file, DocumentLoader.DEFAULT);
+    }
+
+    /**
+     * Like {@link #readModel(File)}, but the fallback load goes through the
+     * given loader.
+     */
+    public static MetadataModel<String> readModel(File file, DocumentLoader loader) throws IOException {
+        Map<String, String> info;
+        try (InfoReader reader = new InfoReader(file); Metrics.Timer timer = Metrics.time(Phase.READ_INFO, file)) {
+            info = reader.readInfo();
+            timer.setBytes(reader.source.getBytesRead());
+        } catch (IOException | RuntimeException ex) {
+            try (OpenDocument od = loader.load(file)) {
+                return buildModelFromDocument(od.getDocument());
+            }
+        }
+        return buildModelFromInfo(info);
+    }
+
+    /**
+     * Returns the text entries of the Info dictionary, keyed by name. Name
+     * values, such as {@code /Trapped}, are returned without the slash.
+     */
+    public Map<String, String> readInfo() throws IOException {
+        pendingSections.add(findStartXref());
+        while (!trailer.containsKey("Info") && !pendingSections.isEmpty()) {
+            parseNextSection();
+        }
+        if (trailer.containsKey("Encrypt")) {
+            throw new IOException("encrypted document");
+        }
+        Object info = resolveTrailerEntry("Info");
+        if (info == null) {
+            return Collections.emptyMap();
+        }
+        if (!(info instanceof Map)) {
+            throw new IOException("Info entry is not a dictionary");
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) info).entrySet()) {
+            Object value = resolve(entry.getValue());
+            if (value instanceof byte[]) {
+                result.put((String) entry.getKey(), new COSString((byte[]) value).getString());
+            } else if (value instanceof Name) {
+                result.put((String) entry.getKey(), ((Name) value).value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first element of the {@code /ID} array of the trailer in
+     * hexadecimal, or null if the document has none. The first element is
+     * assigned when the document is created and kept by later updates, so
+     * it identifies a document across copies and edits. Must be called after
+     * {@link #readInfo()}.
+     */
+    public String getDocumentId() throws IOException {
+        Object id = resolveTrailerEntry("ID");
+        if (!(id instanceof List) || ((List<?>) id).isEmpty()) {
+            return null;
+        }
+        Object first = resolve(((List<?>) id).get(0));
+        return first instanceof byte[] ? toHex((byte[]) first) : null;
+    }
+
+    /**
+     * Lower-case hexadecimal form of some bytes.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private long findStartXref() throws IOException {
+        long length = source.length();
+        int tailLength = (int) Math.min(length, TAIL_SIZE);
+        byte[] tail = source.bytes(length - tailLength, tailLength);
+        String text = new String(tail, StandardCharsets.ISO_8859_1);
+        int keyword = text.lastIndexOf("startxref");
+        if (keyword < 0) {
+            throw new IOException("startxref not found");
+        }
+        parser.setPosition(length - tailLength + keyword + "startxref".length());
+        return parser.readLong();
+    }
+
+    private void parseNextSection() throws IOException {
+        long offset = pendingSections.removeFirst();
+        if (!visitedSections.add(offset)) {
+            throw new IOException("loop in cross-reference sections");
+        }
+        parser.setPosition(offset);
+        String keyword = parser.readToken();
+        Map<String, Object> sectionTrailer;
+        if ("xref".equals(keyword)) {
+            XrefTable table = new XrefTable();
+            sectionTrailer = table.parse();
+            // the XRefStm of a hybrid file belongs to the same update as the
+            // table and is searched first: the objects it places in object
+            // streams are free or missing in the table
+            Object xrefStm = sectionTrailer.get("XRefStm");
+            if (xrefStm instanceof Long && visitedSections.add((Long) xrefStm)) {
+                parser.setPosition((Long) xrefStm);
+                XrefStream stream = new XrefStream();
+                stream.parse();
+                sections.add(stream);
+            }
+            sections.add(table);
+        } else {
+            parser.setPosition(offset);
+            XrefStream stream = new XrefStream();
+            sectionTrailer = stream.parse();
+            sections.add(stream);
+        }
+        sectionTrailer.forEach(trailer::putIfAbsent);
+        Object prev = sectionTrailer.get("Prev");
+        if (prev instanceof Long) {
+            pendingSections.addFirst((Long) prev);
+        }
+    }
+
+    /**
+     * Resolves an entry of the trailer. An object referenced from the trailer
+     * is never free in a well-formed file, so a reference that resolves to
+     * nothing means that the cross-reference data was not understood, and
+     * is rejected so that the caller falls back to a full load.
+     */
+    private Object resolveTrailerEntry(String key) throws IOException {
+        Object value = trailer.get(key);
+        Object result = resolve(value);
+        if (result == null && value instanceof Ref) {
+            throw new IOException("/" + key + " refers to free object " + ((Ref) value).number);
+        }
+        return result;
+    }
+
+    private XrefEntry lookup(long number) throws IOException {
+        for (int i = 0; ; i++) {
+            if (i == sections.size()) {
+                if (pendingSections.isEmpty()) {
+                    return null;
+                }
+                parseNextSection();
+                continue;
+            }
+            XrefEntry entry = sections.get(i).find(number);
+            if (entry != null) {
+                return entry.type == 0 ? null : entry;
+            }
+        }
+    }
+
+    private Object resolve(Object value) throws IOException {
+        for (int depth = 0; value instanceof Ref; depth++) {
+            if (depth == MAX_REFERENCE_DEPTH) {
+                throw new IOException("reference chain too long");
+            }
+            value = getObject(((Ref) value).number);
+        }
+        return value;
+    }
+
+    private Object getObject(long number) throws IOException {
+        XrefEntry entry = lookup(number);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.type == 2) {
+            return getObjectStream(entry.field2).getObject((int) entry.field3);
+        }
+        parser.setPosition(entry.field2);
+        if (parser.readObjectHeader() != number) {
+            throw new IOException("cross-reference entry of object " + number + " is wrong");
+        }
+        return parser.readObject();
+    }
+
+    private ObjectStream getObjectStream(long number) throws IOException {
+        ObjectStream result = objectStreams.get(number);
+        if (result == null) {
+            XrefEntry entry = lookup(number);
+            if (entry == null || entry.type != 1) {
+                throw new IOException("object stream " + number + " not found");
+            }
+            parser.setPosition(entry.field2);
+            parser.readObjectHeader();
+            Object dict = parser.readObject();
+            if (!(dict instanceof Map)) {
+                throw new IOException("object stream " + number + " has no dictionary");
+            }
+            result = new ObjectStream(cast(dict), readStreamData(cast(dict)));
+            objectStreams.put(number, result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> cast(Object dict) {
+        return (Map<String, Object>) dict;
+    }
+
+    private static long getLong(Map<String, Object> dict, String key) throws IOException {
+        Object value = dict.get(key);
+        if (!(value instanceof Long)) {
+            throw new IOException("missing integer entry /" + key);
+        }
+        return (Long) value;
+    }
+
+    /**
+     * Reads and decodes the data of the stream whose dictionary has just been
+     * parsed.
+     */
+    private byte[] readStreamData(Map<String, Object> dict) throws IOException {
+        parser.skipStreamKeyword();
+        long start = parser.getPosition();
+        Object length = dict.get("Length");
+        if (length instanceof Ref) {
+            length = resolve(length);
+        }
+        if (!(length instanceof Long)) {
+            throw new IOException("stream without /Length");
+        }
+        byte[] data = source.bytes(start, (int) (long) (Long) length);
+        return decode(data, dict.get("Filter"), dict.get("DecodeParms"));
+    }
+
+    private static byte[] decode(byte[] data, Object filter, Object params) throws IOException {
+        if (filter instanceof List) {
+            List<?> filters = (List<?>) filter;
+            if (filters.isEmpty()) {
+                return data;
+            }
+            if (filters.size() > 1) {
+                throw new IOException("unsupported filter chain " + filters);
+            }
+            filter = filters.get(0);
+            params = params instanceof List && !((List<?>) params).isEmpty() ? ((List<?>) params).get(0) : null;
+        }
+        if (filter == null) {
+            return data;
+        }
+        String name = filter instanceof Name ? ((Name) filter).value : String.valueOf(filter);
+        if (!"FlateDecode".equals(name) && !"Fl".equals(name)) {
+            throw new IOException("unsupported filter " + name);
+        }
+        byte[] inflated = inflate(data);
+        if (params instanceof Map) {
+            Map<String, Object> decodeParams = cast(params);
+            Object predictor = decodeParams.get("Predictor");
+            if (predictor instanceof Long && (Long) predictor >= 10) {
+                Object columns = decodeParams.get("Columns");
+                return unpredict(inflated, columns instanceof Long ? (int) (long) (Long) columns : 1);
+            } else if (predictor instanceof Long && (Long) predictor != 1) {
+                throw new IOException("unsupported predictor " + predictor);
+            }
+        }
+        return inflated;
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // truncated stream: keep what could be decoded
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException ex) {
+            throw new IOException("corrupt compressed stream", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reverses the PNG predictors used by cross-reference streams (one byte
+     * per pixel).
+     */
+    private static byte[] unpredict(byte[] data, int columns) throws IOException {
+        int rowLength = columns + 1;
+        int rows = data.length / rowLength;
+        byte[] result = new byte[rows * columns];
+        for (int r = 0; r < rows; r++) {
+            int type = data[r * rowLength];
+            int in = r * rowLength + 1;
+            int out = r * columns;
+            for (int c = 0; c < columns; c++) {
+                int raw = data[in + c] & 0xFF;
+                int left = c > 0 ? result[out + c - 1] & 0xFF : 0;
+                int up = r > 0 ? result[out - columns + c] & 0xFF : 0;
+                int upLeft = r > 0 && c > 0 ? result[out - columns + c - 1] & 0xFF : 0;
+                int value;
+                switch (type) {
+                    case 0: value = raw; break;
+                    case 1: value = raw + left; break;
+                    case 2: value = raw + up; break;
+                    case 3: value = raw + (left + up) / 2; break;
+                    case 4: value = raw + paeth(left, up, upLeft); break;
+                    default: throw new IOException("unknown PNG predictor " + type);
+                }
+                result[out + c] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Metrics.bytesRead(source.getBytesRead());
+        source.close();
+    }
+
+    private static final class XrefEntry {
+        final int type;
+        final long field2;
+        final long field3;
+
+        XrefEntry(int type, long field2, long field3) {
+            this.type = type;
+            this.field2 = field2;
+            this.field3 = field3;
+        }
+    }
+
+    private interface XrefSection {
+        /**
+         * Returns the entry of the given object, or null if this section does
+         * not contain it.
+         */
+        XrefEntry find(long number) throws IOException;
+    }
+
+    /**
+     * A classic cross-reference table. Only the subsection headers are read
+     * when parsing; entries are fetched directly by offset when looked up.
+     */
+    private class XrefTable implements XrefSection {
+        private final List<long[]> subsections = new ArrayList<>();
+
+        Map<String, Object> parse() throws IOException {
+            while (true) {
+                long tokenStart = parser.getPosition();
+                String token = parser.readToken();
+                if ("trailer".equals(token)) {
+                    break;
+                }
+                long first;
+                try {
+                    first = Long.parseLong(token);
+                } catch (NumberFormatException ex) {
+                    throw new IOException("malformed cross-reference table at offset " + tokenStart);
+                }
+                long count = parser.readLong();
+                parser.skipWhitespace();
+                long entries = parser.getPosition();
+                subsections.add(new long[] { first, count, entries });
+                parser.setPosition(entries + count * XREF_ENTRY_SIZE);
+            }
+            Object dict = parser.readObject();
+            if (!(dict instanceof Map)) {
+                throw new IOException("malformed trailer");
+            }
+            return cast(dict);
+        }
+
+        @Override
+        public XrefEntry find(long number) throws IOException {
+            for (long[] subsection : subsections) {
+                if (number >= subsection[0] && number < subsection[0] + subsection[1]) {
+                    long pos = subsection[2] + (number - subsection[0]) * XREF_ENTRY_SIZE;
+                    String entry = new String(source.bytes(pos, 18), StandardCharsets.ISO_8859_1);
+                    if (entry.charAt(10) != ' ' || entry.charAt(16) != ' ') {
+                        throw new IOException("malformed cross-reference entry at offset " + pos);
+                    }
+                    try {
+                        long offset = Long.parseLong(entry.substring(0, 10));
+                        int type = entry.charAt(17) == 'n' ? 1 : 0;
+                        return new XrefEntry(type, offset, Long.parseLong(entry.substring(11, 16)));
+                    } catch (NumberFormatException ex) {
+                        throw new IOException("malformed cross-reference entry at offset " + pos);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A cross-reference stream (PDF 1.5), decoded in full when parsed.
+     */
+    private class XrefStream implements XrefSection {
+        private int[] widths;
+        private long[] index;
+        private byte[] data;
+
+        Map<String, Object> parse() throws IOException {
+            parser.readObjectHeader();
+            Object dictObject = parser.readObject();
+            if (!(dictObject instanceof Map)) {
+                throw new IOException("cross-reference stream expected");
+            }
+            Map<String, Object> dict = cast(dictObject);
+            if (!new Name("XRef").equals(dict.get("Type"))) {
+                throw new IOException("cross-reference stream expected");
+            }
+            Object w = dict.get("W");
+            if (!(w instanceof List) || ((List<?>) w).size() != 3) {
+                throw new IOException("malformed /W in cross-reference stream");
+            }
+            widths = new int[3];
+            for (int i = 0; i < 3; i++) {
+                widths[i] = (int) (long) (Long) ((List<?>) w).get(i);
+            }
+            Object indexObject = dict.get("Index");
+            if (indexObject instanceof List) {
+                List<?> list = (List<?>) indexObject;
+                index = new long[list.size()];
+                for (int i = 0; i < index.length; i++) {
+                    index[i] = (Long) list.get(i);
+                }
+            } else {
+                index = new long[] { 0, getLong(dict, "Size") };
+            }
+            data = readStreamData(dict);
+            return dict;
+        }
+
+        @Override
+        public XrefEntry find(long number) throws IOException {
+            int entrySize = widths[0] + widths[1] + widths[2];
+            long row = 0;
+            for (int i = 0; i + 1 < index.length; i += 2) {
+                long first = index[i];
+                long count = index[i + 1];
+                if (number >= first && number < first + count) {
+                    long pos = (row + number - first) * entrySize;
+                    if (pos + entrySize > data.length) {
+                        throw new IOException("truncated cross-reference stream");
+                    }
+                    int p = (int) pos;
+                    long type = widths[0] == 0 ? 1 : field(p, widths[0]);
+                    long field2 = field(p + widths[0], widths[1]);
+                    long field3 = field(p + widths[0] + widths[1], widths[2]);
+                    return new XrefEntry((int) type, field2, field3);
+                }
+                row += count;
+            }
+            return null;
+        }
+
+        private long field(int pos, int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 8) | (data[pos + i] & 0xFF);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * The decoded contents of an object stream (PDF 1.5).
+     */
+    private class ObjectStream {
+        private final PdfObjectParser streamParser;
+        private final long[] offsets;
+        private final long first;
+
+        ObjectStream(Map<String, Object> dict, byte[] data) throws IOException {
+            this.streamParser = new PdfObjectParser(ByteInput.of(data));
+            this.first = getLong(dict, "First");
+            int n = (int) getLong(dict, "N");
+            this.offsets = new long[n];
+            for (int i = 0; i < n; i++) {
+                streamParser.readLong();
+                offsets[i] = streamParser.readLong();
+            }
+        }
+
+        Object getObject(int i) throws IOException {
+            if (i < 0 || i >= offsets.length) {
+                throw new IOException("object index " + i + " out of range in object stream");
+            }
+            streamParser.setPosition(first + offsets[i]);
+            return streamParser.readObject();
+        }
+    }
+}
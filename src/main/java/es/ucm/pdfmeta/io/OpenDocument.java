@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import es.ucm.pdfmeta.metrics.Metrics;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * A document opened through a {@link DocumentLoader}. Closing it closes the
+ * document, deletes its scratch files and returns its share of the loader's
+ * byte budget.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class OpenDocument implements Closeable {
+    private final File file;
+    private final PDDocument document;
+    private final long size;
+    private final ByteBudget budget;
+    private final long reserved;
+    private final boolean deleteOnClose;
+    private boolean closed;
+
+    OpenDocument(File file, PDDocument document, long size, ByteBudget budget, long reserved,
+            boolean deleteOnClose) {
+        this.file = file;
+        this.document = document;
+        this.size = size;
+        this.budget = budget;
+        this.reserved = reserved;
+        this.deleteOnClose = deleteOnClose;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public PDDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Length of the file when the document was loaded. An incremental
+     * update written by PDFBox starts with this many bytes, copied from
+     * the file as it was then.
+     */
+    public long getSourceLength() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            document.close();
+        } finally {
+            Metrics.documentClosed(size);
+            if (budget != null) {
+                budget.release(reserved);
+            }
+            if (deleteOnClose) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal parser for the PDF object syntax. Dictionaries are returned as
+ * maps keyed by name (without the leading slash), arrays as lists, strings as
+ * their raw bytes, names as {@link Name}, indirect references as {@link Ref}
+ * and numbers as {@link Long} or {@link Double}.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+class PdfObjectParser {
+    private final ByteInput input;
+    private long pos;
+
+    PdfObjectParser(ByteInput input) {
+        this.input = input;
+    }
+
+    long getPosition() {
+        return pos;
+    }
+
+    void setPosition(long pos) {
+        this.pos = pos;
+    }
+
+    ByteInput getInput() {
+        return input;
+    }
+
+    static final class Name {
+        final String value;
+
+        Name(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Name && ((Name) obj).value.equals(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "/" + value;
+        }
+    }
+
+    static final class Ref {
+        final long number;
+        final int generation;
+
+        Ref(long number, int generation) {
+            this.number = number;
+            this.generation = generation;
+        }
+
+        @Override
+        public String toString() {
+            return number + " " + generation + " R";
+        }
+    }
+
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+    }
+
+    static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']'
+                || c == '{' || c == '}' || c == '/' || c == '%';
+    }
+
+    private static boolean isRegular(int c) {
+        return c != -1 && !isWhitespace(c) && !isDelimiter(c);
+    }
+
+    void skipWhitespace() throws IOException {
+        while (true) {
+            int c = input.byteAt(pos);
+            if (isWhitespace(c)) {
+                pos++;
+            } else if (c == '%') {
+                while (c != -1 && c != '\n' && c != '\r') {
+                    c = input.byteAt(++pos);
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a run of regular characters, such as a keyword or a number.
+     */
+    String readToken() throws IOException {
+        skipWhitespace();
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while (isRegular(c = input.byteAt(pos))) {
+            sb.append((char) c);
+            pos++;
+        }
+        return sb.toString();
+    }
+
+    void expectToken(String expected) throws IOException {
+        long start = pos;
+        String token = readToken();
+        if (!token.equals(expected)) {
+            throw new IOException("expected '" + expected + "' at offset " + start + ", found '" + token + "'");
+        }
+    }
+
+    long readLong() throws IOException {
+        long start = pos;
+        String token = readToken();
+        try {
+            return Long.parseLong(token);
+        } catch (NumberFormatException ex) {
+            throw new IOException("expected an integer at offset " + start + ", found '" + token + "'");
+        }
+    }
+
+    /**
+     * Parses the header {@code n g obj} of an indirect object and returns its
+     * object number.
+     */
+    long readObjectHeader() throws IOException {
+        long number = readLong();
+        readLong();
+        expectToken("obj");
+        return number;
+    }
+
+    Object readObject() throws IOException {
+        skipWhitespace();
+        long start = pos;
+        int c = input.byteAt(pos);
+        switch (c) {
+            case -1:
+                throw new IOException("unexpected end of input");
+            case '/':
+                pos++;
+                return new Name(readName());
+            case '(':
+                pos++;
+                return readLiteralString();
+            case '[':
+                pos++;
+                return readArray();
+            case '<':
+                if (input.byteAt(pos + 1) == '<') {
+                    pos += 2;
+                    return readDictionary();
+                }
+                pos++;
+                return readHexString();
+            default:
+                break;
+        }
+        String token = readToken();
+        if (token.isEmpty()) {
+            throw new IOException("unexpected character '" + (char) c + "' at offset " + start);
+        }
+        switch (token) {
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return null;
+            default:
+                return readNumberOrRef(token, start);
+        }
+    }
+
+    private Object readNumberOrRef(String token, long start) throws IOException {
+        if (token.indexOf('.') >= 0) {
+            try {
+                return Double.valueOf(token);
+            } catch (NumberFormatException ex) {
+                throw new IOException("invalid token '" + token + "' at offset " + start);
+            }
+        }
+        long value;
+        try {
+            value = Long.parseLong(token);
+        } catch (NumberFormatException ex) {
+            throw new IOException("invalid token '" + token + "' at offset " + start);
+        }
+        long afterNumber = pos;
+        String generation = readToken();
+        if (!generation.isEmpty() && generation.chars().allMatch(Character::isDigit)) {
+            if ("R".equals(readToken())) {
+                return new Ref(value, Integer.parseInt(generation));
+            }
+        }
+        pos = afterNumber;
+        return value;
+    }
+
+    private String readName() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int c;
+        while (isRegular(c = input.byteAt(pos))) {
+            if (c == '#' && hexValue(input.byteAt(pos + 1)) >= 0 && hexValue(input.byteAt(pos + 2)) >= 0) {
+                bytes.write(hexValue(input.byteAt(pos + 1)) * 16 + hexValue(input.byteAt(pos + 2)));
+                pos += 3;
+            } else {
+                bytes.write(c);
+                pos++;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private List<Object> readArray() throws IOException {
+        List<Object> result = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            int c = input.byteAt(pos);
+            if (c == ']') {
+                pos++;
+                return result;
+            }
+            if (c == -1) {
+                throw new IOException("unterminated array");
+            }
+            result.add(readObject());
+        }
+    }
+
+    private Map<String, Object> readDictionary() throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        while (true) {
+            skipWhitespace();
+            int c = input.byteAt(pos);
+            if (c == '>' && input.byteAt(pos + 1) == '>') {
+                pos += 2;
+                return result;
+            }
+            if (c != '/') {
+                throw new IOException("expected a name in dictionary at offset " + pos);
+            }
+            pos++;
+            String key = readName();
+            result.put(key, readObject());
+        }
+    }
+
+    private byte[] readLiteralString() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int depth = 1;
+        while (true) {
+            int c = input.byteAt(pos++);
+            switch (c) {
+                case -1:
+                    throw new IOException("unterminated string");
+                case '(':
+                    depth++;
+                    bytes.write(c);
+                    break;
+                case ')':
+                    if (--depth == 0) {
+                        return bytes.toByteArray();
+                    }
+                    bytes.write(c);
+                    break;
+                case '\\':
+                    readEscape(bytes);
+                    break;
+                case '\r':
+                    // end-of-line markers inside strings are read as a single \n
+                    if (input.byteAt(pos) == '\n') {
+                        pos++;
+                    }
+                    bytes.write('\n');
+                    break;
+                default:
+                    bytes.write(c);
+            }
+        }
+    }
+
+    private void readEscape(ByteArrayOutputStream bytes) throws IOException {
+        int c = input.byteAt(pos++);
+        switch (c) {
+            case 'n': bytes.write('\n'); break;
+            case 'r': bytes.write('\r'); break;
+            case 't': bytes.write('\t'); break;
+            case 'b': bytes.write('\b'); break;
+            case 'f': bytes.write('\f'); break;
+            case '\r':
+                if (input.byteAt(pos) == '\n') {
+                    pos++;
+                }
+                break;
+            case '\n':
+                break;
+            default:
+                if (c >= '0' && c <= '7') {
+                    int value = c - '0';
+                    for (int i = 0; i < 2; i++) {
+                        int d = input.byteAt(pos);
+                        if (d < '0' || d > '7') {
+                            break;
+                        }
+                        value = value * 8 + (d - '0');
+                        pos++;
+                    }
+                    bytes.write(value);
+                } else if (c != -1) {
+                    bytes.write(c);
+                }
+        }
+    }
+
+    private byte[] readHexString() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int high = -1;
+        while (true) {
+            int c = input.byteAt(pos++);
+            if (c == '>' || c == -1) {
+                if (high >= 0) {
+                    bytes.write(high * 16);
+                }
+                if (c == -1) {
+                    throw new IOException("unterminated hex string");
+                }
+                return bytes.toByteArray();
+            }
+            int value = hexValue(c);
+            if (value < 0) {
+                continue;
+            }
+            if (high < 0) {
+                high = value;
+            } else {
+                bytes.write(high * 16 + value);
+                high = -1;
+            }
+        }
+    }
+
+    private static int hexValue(int c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
+    /**
+     * Positions the parser at the first byte of stream data, after the
+     * {@code stream} keyword that follows a stream dictionary.
+     */
+    void skipStreamKeyword() throws IOException {
+        expectToken("stream");
+        if (input.byteAt(pos) == '\r') {
+            pos++;
+        }
+        if (input.byteAt(pos) == '\n') {
+            pos++;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+/**
+ * Strategies for writing a modified document back to its file.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public enum SaveMode {
+    /**
+     * Rewrites the whole document into a temporary file, which then replaces
+     * the original.
+     */
+    FULL,
+    /**
+     * Copies the original bytes verbatim into a temporary file, appends an
+     * incremental update with the modified objects and replaces the original.
+     * Only the changed objects are serialized.
+     */
+    INCREMENTAL,
+    /**
+     * Appends the incremental update to the original file in place. Only the
+     * changed objects are written, so the cost is independent of the size of
+     * the document. If writing fails the file is truncated back to its
+     * original length. A file whose length differs from the one it had when
+     * the document was loaded is saved as in {@link #INCREMENTAL} instead.
+     */
+    APPEND;
+
+    public static SaveMode parse(String name) {
+        for (SaveMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("unknown save mode: " + name);
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.metrics.Phase;
+import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.BIBTEX_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.common.PDMetadata;
+
+/**
+ * The XMP metadata packet of a document, restricted to the properties that
+ * mirror the Info dictionary: {@code dc:title}, {@code dc:creator} and
+ * {@code pdfmeta:bibtex}. The packet is only parsed when its values are
+ * requested, and updates are streamed from the old packet to the new one,
+ * so that everything else in it is kept as it was.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class XmpPacket {
+    /**
+     * Namespace of the properties specific to pdfmeta.
+     */
+    public static final String PDFMETA_NS = "http://pdfmeta.ucm.es/ns/1.0/";
+
+    private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+    private static final QName RDF_RDF = new QName(RDF_NS, "RDF", "rdf");
+    private static final QName RDF_DESCRIPTION = new QName(RDF_NS, "Description", "rdf");
+    private static final QName RDF_ABOUT = new QName(RDF_NS, "about", "rdf");
+    private static final QName RDF_LI = new QName(RDF_NS, "li", "rdf");
+    private static final QName RDF_ALT = new QName(RDF_NS, "Alt", "rdf");
+    private static final QName RDF_SEQ = new QName(RDF_NS, "Seq", "rdf");
+    private static final QName XML_LANG = new QName(XMLConstants.XML_NS_URI, "lang", "xml");
+    private static final QName DC_TITLE = new QName(DC_NS, "title", "dc");
+    private static final QName DC_CREATOR = new QName(DC_NS, "creator", "dc");
+    private static final QName PDFMETA_BIBTEX = new QName(PDFMETA_NS, "bibtex", "pdfmeta");
+
+    private static final Map<QName, String> PROPERTY_NAMES = new HashMap<>();
+    static {
+        PROPERTY_NAMES.put(DC_TITLE, TITLE_PROPERTY_NAME);
+        PROPERTY_NAMES.put(DC_CREATOR, AUTHOR_PROPERTY_NAME);
+        PROPERTY_NAMES.put(PDFMETA_BIBTEX, BIBTEX_PROPERTY_NAME);
+    }
+
+    private static final String EMPTY_PACKET
+            = "<?xpacket begin=\"\uFEFF\" id=\"W5M0MpCehiHzreSzNTczkc9d\"?>\n"
+            + "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+            + "<rdf:RDF xmlns:rdf=\"" + RDF_NS + "\"></rdf:RDF>"
+            + "</x:xmpmeta>\n"
+            + "<?xpacket end=\"w\"?>";
+
+    private static final XMLEventFactory EVENTS = XMLEventFactory.newFactory();
+
+    private final PDDocument doc;
+    private Map<String, String> values;
+
+    private XmpPacket(PDDocument doc) {
+        this.doc = doc;
+    }
+
+    /**
+     * Returns the packet of a document. Nothing is read until
+     * {@link #getValues()} is called.
+     */
+    public static XmpPacket of(PDDocument doc) {
+        return new XmpPacket(doc);
+    }
+
+    /**
+     * Returns true if the document catalog has a metadata stream.
+     */
+    public boolean exists() {
+        return doc.getDocumentCatalog().getMetadata() != null;
+    }
+
+    /**
+     * Returns whether a model property is mirrored in the packet.
+     */
+    public static boolean isSupported(String propertyName) {
+        return PROPERTY_NAMES.containsValue(propertyName);
+    }
+
+    /**
+     * Returns the values of the supported properties found in the packet,
+     * keyed by the name of the model property. The authors in
+     * {@code dc:creator} are joined with commas, and the default language
+     * of {@code dc:title} is preferred over the others.
+     */
+    public Map<String, String> getValues() throws IOException {
+        if (values == null) {
+            Metrics.Timer timer = Metrics.time(Phase.XMP, null);
+            try {
+                values = parse();
+            } finally {
+                timer.close();
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    private Map<String, String> parse() throws IOException {
+        Map<String, String> result = new HashMap<>();
+        PDMetadata metadata = doc.getDocumentCatalog().getMetadata();
+        if (metadata == null) {
+            return result;
+        }
+        try (InputStream in = metadata.exportXMPMetadata()) {
+            XMLStreamReader reader = newInputFactory().createXMLStreamReader(in);
+            try {
+                String property = null;
+                List<String> items = new ArrayList<>();
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        QName name = reader.getName();
+                        if (property != null) {
+                            if (name.equals(RDF_LI)) {
+                                boolean isDefault = "x-default".equals(reader.getAttributeValue(XMLConstants.XML_NS_URI, "lang"));
+                                items.add(isDefault ? 0 : items.size(), reader.getElementText());
+                            }
+                        } else if (name.equals(RDF_DESCRIPTION)) {
+                            String bibtex = reader.getAttributeValue(PDFMETA_NS, PDFMETA_BIBTEX.getLocalPart());
+                            if (bibtex != null) {
+                                result.put(BIBTEX_PROPERTY_NAME, bibtex);
+                            }
+                        } else if (name.equals(PDFMETA_BIBTEX)) {
+                            result.put(BIBTEX_PROPERTY_NAME, reader.getElementText());
+                        } else if (PROPERTY_NAMES.containsKey(name)) {
+                            property = PROPERTY_NAMES.get(name);
+                            items.clear();
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && property != null
+                            && property.equals(PROPERTY_NAMES.get(reader.getName()))) {
+                        if (!items.isEmpty()) {
+                            result.put(property, property.equals(AUTHOR_PROPERTY_NAME)
+                                    ? String.join(", ", items) : items.get(0));
+                        }
+                        property = null;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("malformed XMP packet: " + ex.getMessage(), ex);
+        }
+        return result;
+    }
+
+    /**
+     * Sets the given properties in the packet, creating the metadata stream
+     * if the document has none. A null value removes the property. The new
+     * packet is written uncompressed and the stream is marked for incremental
+     * saving.
+     */
+    public void update(Map<String, String> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Metrics.Timer timer = Metrics.time(Phase.XMP, null);
+        try {
+            writePacket(changes);
+        } finally {
+            timer.close();
+        }
+    }
+
+    private void writePacket(Map<String, String> changes) throws IOException {
+        PDDocumentCatalog catalog = doc.getDocumentCatalog();
+        PDMetadata metadata = catalog.getMetadata();
+        byte[] packet;
+        try (InputStream in = metadata != null
+                ? metadata.exportXMPMetadata()
+                : new ByteArrayInputStream(EMPTY_PACKET.getBytes(StandardCharsets.UTF_8))) {
+            packet = rewrite(in, changes);
+        } catch (XMLStreamException ex) {
+            throw new IOException("malformed XMP packet: " + ex.getMessage(), ex);
+        }
+        if (metadata == null) {
+            metadata = new PDMetadata(doc);
+            catalog.setMetadata(metadata);
+        }
+        COSStream stream = metadata.getCOSObject();
+        stream.removeItem(COSName.FILTER);
+        stream.removeItem(COSName.DECODE_PARMS);
+        metadata.importXMPMetadata(packet);
+        // an incremental save only reaches the stream through an updated catalog
+        stream.setNeedToBeUpdated(true);
+        catalog.getCOSObject().setNeedToBeUpdated(true);
+        values = null;
+    }
+
+    /**
+     * Copies a packet event by event, replacing the elements of the changed
+     * properties where they are found and adding a new description with the
+     * remaining ones at the end of {@code rdf:RDF}.
+     */
+    private static byte[] rewrite(InputStream in, Map<String, String> changes) throws XMLStreamException {
+        XMLEventReader reader = newInputFactory().createXMLEventReader(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLEventWriter writer = XMLOutputFactory.newFactory().createXMLEventWriter(out, "UTF-8");
+        Map<String, String> pending = new LinkedHashMap<>(changes);
+        int skipDepth = 0;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (skipDepth > 0) {
+                if (event.isStartElement()) {
+                    skipDepth++;
+                } else if (event.isEndElement()) {
+                    skipDepth--;
+                }
+                continue;
+            }
+            if (event.isStartDocument() || event.isEndDocument()) {
+                continue;
+            }
+            if (event.isStartElement()) {
+                StartElement start = event.asStartElement();
+                String property = PROPERTY_NAMES.get(start.getName());
+                if (property != null && changes.containsKey(property)) {
+                    skipDepth = 1;
+                    if (pending.containsKey(property)) {
+                        writeProperty(writer, property, pending.remove(property));
+                    }
+                    continue;
+                }
+                if (start.getName().equals(RDF_DESCRIPTION) && changes.containsKey(BIBTEX_PROPERTY_NAME)
+                        && start.getAttributeByName(PDFMETA_BIBTEX) != null) {
+                    event = withoutAttribute(start, PDFMETA_BIBTEX);
+                }
+            } else if (event.isEndElement() && event.asEndElement().getName().equals(RDF_RDF)) {
+                writeDescription(writer, pending);
+                pending.clear();
+            }
+            writer.add(event);
+        }
+        writer.close();
+        reader.close();
+        return out.toByteArray();
+    }
+
+    private static StartElement withoutAttribute(StartElement start, QName name) {
+        List<Attribute> attributes = new ArrayList<>();
+        for (Iterator<?> it = start.getAttributes(); it.hasNext();) {
+            Attribute attribute = (Attribute) it.next();
+            if (!attribute.getName().equals(name)) {
+                attributes.add(attribute);
+            }
+        }
+        QName element = start.getName();
+        return EVENTS.createStartElement(element.getPrefix(), element.getNamespaceURI(), element.getLocalPart(),
+                attributes.iterator(), start.getNamespaces(), start.getNamespaceContext());
+    }
+
+    private static void writeDescription(XMLEventWriter writer, Map<String, String> properties) throws XMLStreamException {
+        if (properties.values().stream().allMatch(v -> v == null)) {
+            return;
+        }
+        writer.add(EVENTS.createStartElement(RDF_DESCRIPTION,
+                Collections.singletonList(EVENTS.createAttribute(RDF_ABOUT, "")).iterator(), null));
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            writeProperty(writer, entry.getKey(), entry.getValue());
+        }
+        writer.add(EVENTS.createEndElement(RDF_DESCRIPTION, null));
+    }
+
+    private static void writeProperty(XMLEventWriter writer, String property, String value) throws XMLStreamException {
+        if (value == null) {
+            return;
+        }
+        switch (property) {
+            case TITLE_PROPERTY_NAME:
+                writeContainer(writer, DC_TITLE, RDF_ALT, value);
+                break;
+            case AUTHOR_PROPERTY_NAME:
+                writeContainer(writer, DC_CREATOR, RDF_SEQ, value);
+                break;
+            case BIBTEX_PROPERTY_NAME:
+                writer.add(EVENTS.createStartElement(PDFMETA_BIBTEX, null, namespaceOf(PDFMETA_BIBTEX)));
+                writer.add(EVENTS.createCharacters(value));
+                writer.add(EVENTS.createEndElement(PDFMETA_BIBTEX, null));
+                break;
+            default:
+                throw new IllegalArgumentException("property not mirrored in XMP: " + property);
+        }
+    }
+
+    private static void writeContainer(XMLEventWriter writer, QName element, QName container, String value)
+            throws XMLStreamException {
+        writer.add(EVENTS.createStartElement(element, null, namespaceOf(element)));
+        writer.add(EVENTS.createStartElement(container, null, null));
+        Iterator<Attribute> lang = container.equals(RDF_ALT)
+                ? Collections.singletonList(EVENTS.createAttribute(XML_LANG, "x-default")).iterator()
+                : null;
+        writer.add(EVENTS.createStartElement(RDF_LI, lang, null));
+        writer.add(EVENTS.createCharacters(value));
+        writer.add(EVENTS.createEndElement(RDF_LI, null));
+        writer.add(EVENTS.createEndElement(container, null));
+        writer.add(EVENTS.createEndElement(element, null));
+    }
+
+    private static Iterator<Namespace> namespaceOf(QName name) {
+        return Collections.singletonList(EVENTS.createNamespace(name.getPrefix(), name.getNamespaceURI())).iterator();
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
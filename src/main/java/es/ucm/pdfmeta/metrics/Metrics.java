@@ -0,0 +1,343 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.metrics;
+
+import es.ucm.pdfmeta.json.JsonWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and per-phase latency histograms. Each timed phase is also
+ * emitted as a flight recorder event when the runtime supports it, so a
+ * recording started with {@code -XX:StartFlightRecording} shows which files
+ * were slow and where. Summaries can be written as JSON or in the
+ * Prometheus text format.
+ * <p>
+ * Everything is counted for the whole process and for every {@link Scope}
+ * open at the time, so that a command run in a long-lived process, such as
+ * the resident daemon, reports only what happened while it ran.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class Metrics {
+    private static final EventRecorder EVENTS = loadEventRecorder();
+
+    private static final Scope PROCESS = new Scope();
+    private static final List<Scope> SCOPES = new CopyOnWriteArrayList<>(Collections.singletonList(PROCESS));
+
+    private Metrics() { }
+
+    /**
+     * Emits the flight recorder events of the phases.
+     */
+    interface EventRecorder {
+        Object begin(Phase phase, String file);
+
+        void end(Object event, long bytes);
+    }
+
+    /**
+     * Returns the recorder of {@link PhaseEvent}s, or null if the runtime
+     * has no flight recorder. The events are compiled for Java 11 apart from
+     * the rest of the program, so they are only looked up at run time.
+     */
+    private static EventRecorder loadEventRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (EventRecorder) Class.forName("es.ucm.pdfmeta.metrics.PhaseEvent$Recorder")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The counters of the work done while a scope is open.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final long startNanos = System.nanoTime();
+        private final Map<Phase, Histogram> phases = new EnumMap<>(Phase.class);
+        private final LongAdder files = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final AtomicLong documentsOpen = new AtomicLong();
+        private final AtomicLong documentsOpenPeak = new AtomicLong();
+        private final AtomicLong openBytes = new AtomicLong();
+        private final AtomicLong openBytesPeak = new AtomicLong();
+
+        private Scope() {
+            for (Phase phase : Phase.values()) {
+                phases.put(phase, new Histogram());
+            }
+        }
+
+        public Histogram getHistogram(Phase phase) {
+            return phases.get(phase);
+        }
+
+        /**
+         * Returns a summary of the counters and of the latency of each phase
+         * that has run at least once, as a JSON object. The peak heap is
+         * that of the process.
+         */
+        public String toJson() {
+            double uptime = seconds(System.nanoTime() - startNanos);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("uptimeSeconds", uptime);
+            result.put("files", files.sum());
+            result.put("failed", failed.sum());
+            result.put("filesPerSecond", uptime > 0 ? files.sum() / uptime : 0.0);
+            result.put("bytesRead", bytesRead.sum());
+            result.put("bytesWritten", bytesWritten.sum());
+            result.put("documentsOpen", documentsOpen.get());
+            result.put("documentsOpenPeak", documentsOpenPeak.get());
+            result.put("openBytesPeak", openBytesPeak.get());
+            result.put("heapPeakBytes", heapPeak());
+            Map<String, Object> phaseSummaries = new LinkedHashMap<>();
+            for (Phase phase : Phase.values()) {
+                Histogram h = phases.get(phase);
+                if (h.getCount() == 0) {
+                    continue;
+                }
+                Map<String, Object> p = new LinkedHashMap<>();
+                p.put("count", h.getCount());
+                p.put("totalSeconds", seconds(h.getSum()));
+                p.put("p50Seconds", seconds(h.getQuantile(0.5)));
+                p.put("p99Seconds", seconds(h.getQuantile(0.99)));
+                p.put("maxSeconds", seconds(h.getMax()));
+                phaseSummaries.put(phase.label(), p);
+            }
+            result.put("phases", phaseSummaries);
+            return JsonWriter.write(result);
+        }
+
+        /**
+         * Returns the same summary as {@link #toJson()} in the Prometheus
+         * text exposition format.
+         */
+        public String toPrometheus() {
+            StringBuilder sb = new StringBuilder();
+            metric(sb, "pdfmeta_uptime_seconds", "gauge", seconds(System.nanoTime() - startNanos));
+            metric(sb, "pdfmeta_files_total", "counter", files.sum());
+            metric(sb, "pdfmeta_files_failed_total", "counter", failed.sum());
+            metric(sb, "pdfmeta_bytes_read_total", "counter", bytesRead.sum());
+            metric(sb, "pdfmeta_bytes_written_total", "counter", bytesWritten.sum());
+            metric(sb, "pdfmeta_documents_open", "gauge", documentsOpen.get());
+            metric(sb, "pdfmeta_documents_open_peak", "gauge", documentsOpenPeak.get());
+            metric(sb, "pdfmeta_open_bytes_peak", "gauge", openBytesPeak.get());
+            metric(sb, "pdfmeta_heap_peak_bytes", "gauge", heapPeak());
+            sb.append("# TYPE pdfmeta_phase_seconds summary\n");
+            for (Phase phase : Phase.values()) {
+                Histogram h = phases.get(phase);
+                String label = "phase=\"" + phase.label() + "\"";
+                sample(sb, "pdfmeta_phase_seconds{" + label + ",quantile=\"0.5\"}", seconds(h.getQuantile(0.5)));
+                sample(sb, "pdfmeta_phase_seconds{" + label + ",quantile=\"0.99\"}", seconds(h.getQuantile(0.99)));
+                sample(sb, "pdfmeta_phase_seconds_sum{" + label + "}", seconds(h.getSum()));
+                sample(sb, "pdfmeta_phase_seconds_count{" + label + "}", h.getCount());
+            }
+            sb.append("# TYPE pdfmeta_phase_max_seconds gauge\n");
+            for (Phase phase : Phase.values()) {
+                sample(sb, "pdfmeta_phase_max_seconds{phase=\"" + phase.label() + "\"}",
+                        seconds(phases.get(phase).getMax()));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Writes the summary to a file, as JSON if its name ends in
+         * {@code .json} and in the Prometheus text format otherwise.
+         */
+        public void write(File file) throws IOException {
+            String text = file.getName().toLowerCase().endsWith(".json") ? toJson() : toPrometheus();
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Stops counting.
+         */
+        @Override
+        public void close() {
+            if (this != PROCESS) {
+                SCOPES.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Starts counting the work done from now on, until the scope is closed.
+     */
+    public static Scope openScope() {
+        Scope scope = new Scope();
+        SCOPES.add(scope);
+        return scope;
+    }
+
+    /**
+     * The timing of one phase, recorded when it is closed.
+     */
+    public static final class Timer implements AutoCloseable {
+        private final Phase phase;
+        private final long start = System.nanoTime();
+        private final Object event;
+        private long bytes;
+
+        private Timer(Phase phase, String file) {
+            this.phase = phase;
+            this.event = EVENTS != null ? EVENTS.begin(phase, file) : null;
+        }
+
+        /**
+         * Sets the number of bytes read or written during the phase.
+         */
+        public void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            for (Scope scope : SCOPES) {
+                scope.phases.get(phase).record(elapsed);
+            }
+            if (event != null) {
+                EVENTS.end(event, bytes);
+            }
+        }
+    }
+
+    /**
+     * Starts timing a phase on a file, which may be null.
+     */
+    public static Timer time(Phase phase, File file) {
+        return new Timer(phase, file != null ? file.getPath() : null);
+    }
+
+    public static Histogram getHistogram(Phase phase) {
+        return PROCESS.getHistogram(phase);
+    }
+
+    public static void fileProcessed(boolean failed) {
+        for (Scope scope : SCOPES) {
+            scope.files.increment();
+            if (failed) {
+                scope.failed.increment();
+            }
+        }
+    }
+
+    public static void bytesRead(long bytes) {
+        for (Scope scope : SCOPES) {
+            scope.bytesRead.add(bytes);
+        }
+    }
+
+    public static void bytesWritten(long bytes) {
+        for (Scope scope : SCOPES) {
+            scope.bytesWritten.add(bytes);
+        }
+    }
+
+    /**
+     * Records that a document of the given size has been loaded.
+     */
+    public static void documentOpened(long bytes) {
+        for (Scope scope : SCOPES) {
+            raisePeak(scope.documentsOpenPeak, scope.documentsOpen.incrementAndGet());
+            raisePeak(scope.openBytesPeak, scope.openBytes.addAndGet(bytes));
+        }
+    }
+
+    public static void documentClosed(long bytes) {
+        for (Scope scope : SCOPES) {
+            scope.documentsOpen.decrementAndGet();
+            scope.openBytes.addAndGet(-bytes);
+        }
+    }
+
+    private static void raisePeak(AtomicLong peak, long value) {
+        long current;
+        while (value > (current = peak.get()) && !peak.compareAndSet(current, value)) { }
+    }
+
+    private static long heapPeak() {
+        long result = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                result += pool.getPeakUsage().getUsed();
+            }
+        }
+        return result;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Returns a summary of the whole process, as {@link Scope#toJson()}.
+     */
+    public static String toJson() {
+        return PROCESS.toJson();
+    }
+
+    /**
+     * Returns a summary of the whole process, as
+     * {@link Scope#toPrometheus()}.
+     */
+    public static String toPrometheus() {
+        return PROCESS.toPrometheus();
+    }
+
+    private static void metric(StringBuilder sb, String name, String type, Number value) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sample(sb, name, value);
+    }
+
+    private static void sample(StringBuilder sb, String name, Number value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes a summary of the whole process to a file, as
+     * {@link Scope#write(File)}.
+     */
+    public static void write(File file) throws IOException {
+        PROCESS.write(file);
+    }
+}
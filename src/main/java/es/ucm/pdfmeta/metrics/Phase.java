@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.metrics;
+
+/**
+ * The phases of the load, model and save path that are timed by
+ * {@link Metrics}.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public enum Phase {
+    /** Loading a whole document with PDFBox. */
+    LOAD,
+    /** Reading the Info dictionary without loading the document. */
+    READ_INFO,
+    /** Transferring values between a document and its model. */
+    MODEL,
+    /** Parsing or rewriting the XMP packet. */
+    XMP,
+    /** Parsing one BibTeX entry. */
+    BIBTEX,
+    /** Extracting text from the first page to guess missing metadata. */
+    EXTRACT,
+    /** Writing a document, including the final sync. */
+    SAVE,
+    /** Flushing a written document to the storage device. */
+    SYNC;
+
+    /**
+     * Name used in reports and events.
+     */
+    public String label() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.model;
+
+import es.ucm.pdfmeta.io.XmpPacket;
+import es.ucm.pdfmeta.metrics.Metrics;
+import es.ucm.pdfmeta.metrics.Phase;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+
+/**
+ * Transfers metadata between the Info dictionary of a {@link PDDocument} and
+ * a {@link MetadataModel}, keeping the XMP packet of the document in step.
+ * Shared by the interactive editor and the headless batch mode.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class DocumentMetadata {
+
+    private DocumentMetadata() { }
+
+    public static MetadataModel<String> buildModelFromDocument(PDDocument doc) {
+        Metrics.Timer timer = Metrics.time(Phase.MODEL, null);
+        try {
+            return buildModelFromInformation(doc.getDocumentInformation());
+        } finally {
+            timer.close();
+        }
+    }
+
+    private static MetadataModel<String> buildModelFromInformation(PDDocumentInformation info) {
+        MetadataModel<String> m = new MetadataModel<>();
+        COSDictionary dict = info.getCOSObject();
+        for (COSName key : dict.keySet()) {
+            COSBase value = dict.getDictionaryObject(key);
+            if (value instanceof COSString) {
+                putEntry(m, key.getName(), ((COSString) value).getString());
+            } else if (value instanceof COSName) {
+                putEntry(m, key.getName(), ((COSName) value).getName());
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Builds a model from the entries of an Info dictionary, as returned by
+     * {@link es.ucm.pdfmeta.io.InfoReader#readInfo()}.
+     */
+    public static MetadataModel<String> buildModelFromInfo(Map<String, String> info) {
+        MetadataModel<String> m = new MetadataModel<>();
+        info.forEach((key, value) -> putEntry(m, key, value));
+        return m;
+    }
+
+    /**
+     * Puts an Info entry into the model: into its field if the key belongs to
+     * the schema, or into a custom property named after the key otherwise.
+     * Custom keys that would clash with the name of a field are ignored.
+     */
+    private static void putEntry(MetadataModel<String> m, String key, String value) {
+        MetadataField field = MetadataField.forInfoKey(key);
+        if (field != null) {
+            m.putProperty(field.getPropertyName(), value);
+        } else if (MetadataField.forPropertyName(key) == null) {
+            m.putProperty(key, value);
+        }
+    }
+
+    /**
+     * Builds a model with one property per entry of {@code values}.
+     */
+    public static MetadataModel<String> buildModelFromValues(Map<String, String> values) {
+        MetadataModel<String> m = new MetadataModel<>();
+        values.forEach(m::putProperty);
+        return m;
+    }
+
+    /**
+     * Returns the current value of every property of the model.
+     */
+    public static Map<String, String> valuesOf(MetadataModel<String> m) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String name : m.getPropertyNames()) {
+            result.put(name, m.getProperty(name).getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Writes the properties that have changed into the Info dictionary and,
+     * if the document has an XMP packet, into the packet as well. Entries of
+     * unchanged properties are not touched.
+     */
+    public static void modifyDocFromModel(PDDocument doc, MetadataModel<String> m) throws IOException {
+        Map<String, String> xmpChanges = new LinkedHashMap<>();
+        Metrics.Timer timer = Metrics.time(Phase.MODEL, null);
+        try {
+            PDDocumentInformation info = doc.getDocumentInformation();
+            for (MetadataProperty<String> property : m.getChanges()) {
+                MetadataField field = property.getField();
+                COSName key = COSName.getPDFName(field != null ? field.getInfoKey() : property.getName());
+                String value = property.getValue();
+                if (value == null) {
+                    info.getCOSObject().removeItem(key);
+                } else if (field != null && field.getType() == MetadataField.Type.NAME) {
+                    info.getCOSObject().setName(key, value);
+                } else {
+                    info.getCOSObject().setString(key, value);
+                }
+                if (XmpPacket.isSupported(property.getName())) {
+                    xmpChanges.put(property.getName(), property.getValue());
+                }
+            }
+        } finally {
+            timer.close();
+        }
+        if (!xmpChanges.isEmpty()) {
+            XmpPacket xmp = XmpPacket.of(doc);
+            if (xmp.exists()) {
+                xmp.update(xmpChanges);
+            }
+        }
+    }
+
+    /**
+     * Writes into the XMP packet every property whose value there differs
+     * from the model, creating the packet if the document has none.
+     *
+     * @return true if the packet was modified
+     */
+    public static boolean syncXmpFromModel(PDDocument doc, MetadataModel<String> m) throws IOException {
+        XmpPacket xmp = XmpPacket.of(doc);
+        Map<String, String> current = xmp.getValues();
+        Map<String, String> stale = new LinkedHashMap<>();
+        for (String name : m.getPropertyNames()) {
+            String value = m.getProperty(name).getValue();
+            if (XmpPacket.isSupported(name) && !Objects.equals(value, current.get(name))) {
+                stale.put(name, value);
+            }
+        }
+        xmp.update(stale);
+        return !stale.isEmpty();
+    }
+}
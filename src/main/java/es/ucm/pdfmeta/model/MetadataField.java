@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The standard entries of the document information dictionary, plus the
+ * {@code bibtex} entry written by pdfmeta. Each field is known by a property
+ * name in the model and on the command line, and by its key in the Info
+ * dictionary. Entries of the dictionary that are not listed here are kept
+ * in the model as custom properties named after their key.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public enum MetadataField {
+    TITLE("title", "Title", Type.TEXT),
+    AUTHOR("author", "Author", Type.TEXT),
+    SUBJECT("subject", "Subject", Type.TEXT),
+    KEYWORDS("keywords", "Keywords", Type.TEXT),
+    CREATOR("creator", "Creator", Type.TEXT),
+    PRODUCER("producer", "Producer", Type.TEXT),
+    CREATION_DATE("creationDate", "CreationDate", Type.DATE),
+    MOD_DATE("modDate", "ModDate", Type.DATE),
+    TRAPPED("trapped", "Trapped", Type.NAME),
+    BIBTEX("bibtex", "bibtex", Type.TEXT);
+
+    /**
+     * How a value is stored in the Info dictionary.
+     */
+    public enum Type {
+        /**
+         * A text string.
+         */
+        TEXT,
+        /**
+         * A date string such as {@code D:20160131120000+01'00'}.
+         */
+        DATE,
+        /**
+         * A name such as {@code /True}, kept in the model without the slash.
+         */
+        NAME
+    }
+
+    private static final MetadataField[] VALUES = values();
+    private static final Map<String, MetadataField> BY_NAME = new HashMap<>();
+    private static final List<String> PROPERTY_NAMES;
+    static {
+        List<String> names = new ArrayList<>();
+        for (MetadataField field : VALUES) {
+            BY_NAME.put(field.propertyName.toLowerCase(Locale.ROOT), field);
+            BY_NAME.put(field.infoKey.toLowerCase(Locale.ROOT), field);
+            names.add(field.propertyName);
+        }
+        PROPERTY_NAMES = Collections.unmodifiableList(names);
+    }
+
+    private final String propertyName;
+    private final String infoKey;
+    private final Type type;
+
+    MetadataField(String propertyName, String infoKey, Type type) {
+        this.propertyName = propertyName;
+        this.infoKey = infoKey;
+        this.type = type;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public String getInfoKey() {
+        return infoKey;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Property names of all the fields, in schema order.
+     */
+    public static List<String> propertyNames() {
+        return PROPERTY_NAMES;
+    }
+
+    /**
+     * Returns the field with the given property name, or null if the name
+     * is that of a custom property.
+     */
+    public static MetadataField forPropertyName(String name) {
+        MetadataField field = BY_NAME.get(name.toLowerCase(Locale.ROOT));
+        return field != null && field.propertyName.equals(name) ? field : null;
+    }
+
+    /**
+     * Returns the field stored under the given key of the Info dictionary,
+     * or null if the key is a custom one.
+     */
+    public static MetadataField forInfoKey(String key) {
+        MetadataField field = BY_NAME.get(key.toLowerCase(Locale.ROOT));
+        return field != null && field.infoKey.equals(key) ? field : null;
+    }
+
+    /**
+     * Returns the field whose property name or Info key matches the given
+     * name regardless of case, e.g. a column of a manifest, or null.
+     */
+    public static MetadataField forAnyName(String name) {
+        return BY_NAME.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Number of fields, which is also the first slot of custom properties
+     * in a model.
+     */
+    static int count() {
+        return VALUES.length;
+    }
+
+    static MetadataField get(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
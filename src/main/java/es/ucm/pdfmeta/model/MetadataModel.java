@@ -24,11 +24,34 @@
 
 package es.ucm.pdfmeta.model;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.util.DateConverter;
 
 /**
+ * The metadata of a document: one property per {@link MetadataField}, plus
+ * any custom properties. Values are kept in slots indexed by the ordinal of
+ * their field, with custom properties in further slots, and the
+ * {@link MetadataProperty} objects handed out are views of a slot; listener
+ * lists and batch state are only allocated when used. A model without
+ * listeners therefore costs a few small arrays, which matters when the
+ * metadata of many files is held at once.
+ *
+ * <p>Models may be shared between threads: properties can be read and
+ * written concurrently, listeners may be added and removed while events are
+ * being delivered, and all notifications are run on the executor given by
+ * {@link #setListenerExecutor(Executor)}.</p>
  *
  * @author Manuel Montenegro (mmontene@ucm.es)
  */
@@ -37,32 +60,301 @@ public class MetadataModel<T> {
     public static final String TITLE_PROPERTY_NAME = "title";
     public static final String AUTHOR_PROPERTY_NAME = "author";
 
-    private final Map<String, MetadataProperty<T>> properties;
+    private static final Executor DIRECT = Runnable::run;
+
+    // all of the following are guarded by this
+    private Object[] values = new Object[MetadataField.count()];
+    private Object[] originals = new Object[MetadataField.count()];
+    // names of the custom slots, which follow the field slots; null if none
+    private String[] customNames;
+    // parsed dates of DATE slots, or null
+    private Calendar[] parsed;
+    // listener list of each slot, or null
+    private List<?>[] propertyListeners;
+    // changes of the batch in progress, keyed by property name
+    private Map<String, PropertyChange<T>> pendingChanges;
 
+    private volatile List<ModelListener<T>> listeners;
+    private volatile Executor listenerExecutor = DIRECT;
+
+    /**
+     * Creates a model whose fields have no value.
+     */
     public MetadataModel() {
-        this.properties = new HashMap<>();
-        /*
-        properties.put("author", new MetadataProperty<>(
-                "author",
-                doc.getDocumentInformation().getAuthor()
-        ));
-        this.title = new MetadataProperty<>(
-                "title",
-                doc.getDocumentInformation().getTitle()
-        );
-        this.bibtex = new MetadataProperty<>(
-                "bibtex",
-                doc.getDocumentInformation().getCustomMetadataValue("bibtex")
-        );
-                */
     }
 
-    public void setProperty(String name, MetadataProperty<T> property) {
-        properties.put(name, property);
+    /**
+     * Sets the value of a property without notifying listeners, and makes it
+     * its original value. A custom property is added if it does not exist.
+     */
+    public synchronized void putProperty(String name, T value) {
+        int slot = slotOf(name);
+        if (slot < 0) {
+            slot = addCustomSlot(name);
+        }
+        values[slot] = value;
+        originals[slot] = value;
+        if (parsed != null) {
+            parsed[slot] = null;
+        }
     }
-    
+
+    private int addCustomSlot(String name) {
+        int fields = MetadataField.count();
+        int custom = customNames == null ? 0 : customNames.length;
+        customNames = customNames == null ? new String[1] : Arrays.copyOf(customNames, custom + 1);
+        customNames[custom] = name;
+        values = Arrays.copyOf(values, fields + custom + 1);
+        originals = Arrays.copyOf(originals, fields + custom + 1);
+        if (parsed != null) {
+            parsed = Arrays.copyOf(parsed, fields + custom + 1);
+        }
+        if (propertyListeners != null) {
+            propertyListeners = Arrays.copyOf(propertyListeners, fields + custom + 1);
+        }
+        return fields + custom;
+    }
+
+    /**
+     * Returns the slot of a property, or -1 if the model has none with that
+     * name.
+     */
+    private synchronized int slotOf(String name) {
+        MetadataField field = MetadataField.forPropertyName(name);
+        if (field != null) {
+            return field.ordinal();
+        }
+        if (customNames != null) {
+            for (int i = 0; i < customNames.length; i++) {
+                if (customNames[i].equals(name)) {
+                    return MetadataField.count() + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the property with the given name, or null if there is none.
+     */
     public MetadataProperty<T> getProperty(String name) {
-        return properties.get(name);
+        int slot = slotOf(name);
+        return slot < 0 ? null : new MetadataProperty<>(this, slot);
+    }
+
+    public MetadataProperty<T> getProperty(MetadataField field) {
+        return new MetadataProperty<>(this, field.ordinal());
+    }
+
+    /**
+     * Names of the properties: those of the fields, in schema order, and then
+     * those of the custom properties.
+     */
+    public Set<String> getPropertyNames() {
+        Set<String> result = new LinkedHashSet<>();
+        for (MetadataField field : MetadataField.values()) {
+            result.add(field.getPropertyName());
+        }
+        synchronized (this) {
+            if (customNames != null) {
+                result.addAll(Arrays.asList(customNames));
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    synchronized String nameOf(int slot) {
+        int fields = MetadataField.count();
+        return slot < fields ? MetadataField.get(slot).getPropertyName() : customNames[slot - fields];
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized T getValue(int slot) {
+        return (T) values[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized T getOriginalValue(int slot) {
+        return (T) originals[slot];
+    }
+
+    synchronized boolean isDirty(int slot) {
+        return !Objects.equals(values[slot], originals[slot]);
+    }
+
+    synchronized void markClean(int slot) {
+        originals[slot] = values[slot];
+    }
+
+    /**
+     * Changes the value of a slot and notifies listeners, or records the
+     * change if a batch is in progress.
+     */
+    void setValue(int slot, T newValue) {
+        PropertyChange<T> change;
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            T oldValue = (T) values[slot];
+            values[slot] = newValue;
+            if (parsed != null) {
+                parsed[slot] = null;
+            }
+            if (pendingChanges == null && propertyListeners == null && listeners == null) {
+                return;
+            }
+            change = new PropertyChange<>(new MetadataProperty<>(this, slot), oldValue, newValue);
+            if (pendingChanges != null) {
+                pendingChanges.merge(change.getName(), change, PropertyChange::followedBy);
+                return;
+            }
+        }
+        fireChanges(Collections.singletonList(change));
+    }
+
+    /**
+     * Returns the value of a date field as a calendar, or null if it has no
+     * value or the value is not a valid date. The value is parsed once and
+     * kept until it changes.
+     */
+    public synchronized Calendar getDate(MetadataField field) {
+        int slot = field.ordinal();
+        if (parsed == null) {
+            parsed = new Calendar[values.length];
+        }
+        if (parsed[slot] == null && values[slot] instanceof String) {
+            parsed[slot] = DateConverter.toCalendar((String) values[slot]);
+        }
+        return parsed[slot] != null ? (Calendar) parsed[slot].clone() : null;
+    }
+
+    /**
+     * Returns the properties whose value differs from the original one.
+     */
+    public List<MetadataProperty<T>> getChanges() {
+        List<MetadataProperty<T>> result = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0; slot < values.length; slot++) {
+                if (!Objects.equals(values[slot], originals[slot])) {
+                    result.add(new MetadataProperty<>(this, slot));
+                }
+            }
+        }
+        return result;
+    }
+
+    public synchronized boolean isDirty() {
+        for (int slot = 0; slot < values.length; slot++) {
+            if (!Objects.equals(values[slot], originals[slot])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void markClean() {
+        System.arraycopy(values, 0, originals, 0, values.length);
+    }
+
+    synchronized void addPropertyListener(int slot, PropertyListener<?> listener) {
+        if (propertyListeners == null) {
+            propertyListeners = new List<?>[values.length];
+        }
+        if (propertyListeners[slot] == null) {
+            propertyListeners[slot] = new CopyOnWriteArrayList<PropertyListener<?>>();
+        }
+        @SuppressWarnings("unchecked")
+        List<PropertyListener<?>> list = (List<PropertyListener<?>>) propertyListeners[slot];
+        list.add(listener);
+    }
+
+    synchronized boolean removePropertyListener(int slot, PropertyListener<?> listener) {
+        return propertyListeners != null && propertyListeners[slot] != null
+                && propertyListeners[slot].remove(listener);
+    }
+
+    public synchronized void addModelListener(ModelListener<T> listener) {
+        if (listeners == null) {
+            listeners = new CopyOnWriteArrayList<>();
+        }
+        listeners.add(listener);
+    }
+
+    public boolean removeModelListener(ModelListener<T> listener) {
+        List<ModelListener<T>> current = listeners;
+        return current != null && current.remove(listener);
+    }
+
+    /**
+     * Sets the executor on which property and model listeners are notified,
+     * e.g. the Swing event dispatch thread. By default they are notified on
+     * the thread that changes the value.
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listenerExecutor = executor;
+    }
+
+    /**
+     * Runs {@code changes} and then notifies all the resulting changes at
+     * once: each property listener is called at most once, with the value
+     * before the batch and the value after it, and each model listener
+     * receives a single list. Changes that restore the previous value are
+     * not notified. Batches may be nested; changes made by other threads
+     * wait until the batch ends.
+     */
+    public void batch(Runnable changes) {
+        Map<String, PropertyChange<T>> collected = null;
+        synchronized (this) {
+            boolean outermost = pendingChanges == null;
+            if (outermost) {
+                pendingChanges = new LinkedHashMap<>();
+            }
+            try {
+                changes.run();
+            } finally {
+                if (outermost) {
+                    collected = pendingChanges;
+                    pendingChanges = null;
+                }
+            }
+        }
+        if (collected != null) {
+            fireChanges(new ArrayList<>(collected.values()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fireChanges(List<PropertyChange<T>> changes) {
+        List<PropertyChange<T>> effective = new ArrayList<>(changes.size());
+        List<List<PropertyListener<T>>> slotListeners = new ArrayList<>(changes.size());
+        synchronized (this) {
+            for (PropertyChange<T> change : changes) {
+                if (change.isEffective()) {
+                    effective.add(change);
+                    int slot = change.getProperty().getSlot();
+                    slotListeners.add(propertyListeners != null && propertyListeners[slot] != null
+                            ? (List<PropertyListener<T>>) propertyListeners[slot]
+                            : Collections.<PropertyListener<T>>emptyList());
+                }
+            }
+        }
+        if (effective.isEmpty()) {
+            return;
+        }
+        List<PropertyChange<T>> delivered = Collections.unmodifiableList(effective);
+        List<ModelListener<T>> modelListeners = listeners;
+        listenerExecutor.execute(() -> {
+            for (int i = 0; i < delivered.size(); i++) {
+                PropertyChange<T> change = delivered.get(i);
+                for (PropertyListener<T> pl : slotListeners.get(i)) {
+                    pl.propertyChanged(change.getName(), change.getOldValue(), change.getNewValue());
+                }
+            }
+            if (modelListeners != null) {
+                for (ModelListener<T> listener : modelListeners) {
+                    listener.propertiesChanged(delivered);
+                }
+            }
+        });
     }
     
     public void saveToDocument(PDDocument doc) {
@@ -24,78 +24,89 @@
 
 package es.ucm.pdfmeta.model;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Objects;
-import org.apache.pdfbox.pdmodel.PDDocument;
-
 /**
+ * A property of a {@link MetadataModel}. Properties are views of a slot of
+ * their model, which keeps the values and the listeners, so they are cheap
+ * to obtain and two views of the same slot are equal.
  *
  * @author Manuel Montenegro (mmontene@ucm.es)
  */
 public class MetadataProperty<T> {
-    private final String name;
-    private T value;
-    private final List<PropertyListener> listeners;
-    
+    private final MetadataModel<T> model;
+    private final int slot;
 
-    public MetadataProperty(String name, T value) {
-        this.name = name;
-        this.value = value;
-        this.listeners = new LinkedList<>();
+    MetadataProperty(MetadataModel<T> model, int slot) {
+        this.model = model;
+        this.slot = slot;
+    }
+
+    int getSlot() {
+        return slot;
     }
 
     public String getName() {
-        return name;
+        return model.nameOf(slot);
+    }
+
+    /**
+     * Field of the property, or null if it is a custom property.
+     */
+    public MetadataField getField() {
+        return slot < MetadataField.count() ? MetadataField.get(slot) : null;
     }
 
     public T getValue() {
-        return value;
+        return model.getValue(slot);
     }
 
+    /**
+     * Changes the value. Listeners are notified through the model; see
+     * {@link MetadataModel#batch(Runnable)}.
+     */
     public void setValue(T newValue) {
-        T oldValue = this.value;
-        this.value = newValue;
-        firePropertyChanged(oldValue, newValue);
+        model.setValue(slot, newValue);
     }
     
-    public void addPropertyListener(PropertyListener pl) {
-        this.listeners.add(pl);
+    /**
+     * Value of the property when it was created or last marked as clean.
+     */
+    public T getOriginalValue() {
+        return model.getOriginalValue(slot);
     }
-    
-    public boolean removePropertyListener(PropertyListener pl) {
-        return this.listeners.remove(pl);
+
+    /**
+     * Returns true if the value differs from the original value.
+     */
+    public boolean isDirty() {
+        return model.isDirty(slot);
+    }
+
+    /**
+     * Makes the current value the original one, e.g. after it has been saved.
+     */
+    public void markClean() {
+        model.markClean(slot);
+    }
+
+    public void addPropertyListener(PropertyListener<T> pl) {
+        model.addPropertyListener(slot, pl);
     }
     
-    protected void firePropertyChanged(T oldValue, T newValue) {
-        listeners.forEach(pl -> 
-                pl.propertyChanged(this.name, oldValue, newValue));
+    public boolean removePropertyListener(PropertyListener<T> pl) {
+        return model.removePropertyListener(slot, pl);
     }
 
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 61 * hash + Objects.hashCode(this.name);
-        hash = 61 * hash + Objects.hashCode(this.value);
-        return hash;
+        return 61 * System.identityHashCode(model) + slot;
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) {
-            return false;
-        }
-        if (getClass() != obj.getClass()) {
+        if (!(obj instanceof MetadataProperty)) {
             return false;
         }
         final MetadataProperty<?> other = (MetadataProperty<?>) obj;
-        if (!Objects.equals(this.name, other.name)) {
-            return false;
-        }
-        if (!Objects.equals(this.value, other.value)) {
-            return false;
-        }
-        return true;
+        return model == other.model && slot == other.slot;
     }
-    
 }
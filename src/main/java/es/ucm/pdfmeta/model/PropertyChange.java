@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package es.ucm.pdfmeta.model;
+
+import java.util.Objects;
+
+/**
+ * A change in the value of a property, from the value it had before a
+ * change (or a batch of changes) to the value it had afterwards.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class PropertyChange<T> {
+    private final MetadataProperty<T> property;
+    private final T oldValue;
+    private final T newValue;
+
+    public PropertyChange(MetadataProperty<T> property, T oldValue, T newValue) {
+        this.property = property;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public MetadataProperty<T> getProperty() {
+        return property;
+    }
+
+    public String getName() {
+        return property.getName();
+    }
+
+    public T getOldValue() {
+        return oldValue;
+    }
+
+    public T getNewValue() {
+        return newValue;
+    }
+
+    PropertyChange<T> followedBy(PropertyChange<T> next) {
+        return new PropertyChange<>(property, oldValue, next.newValue);
+    }
+
+    boolean isEffective() {
+        return !Objects.equals(oldValue, newValue);
+    }
+}
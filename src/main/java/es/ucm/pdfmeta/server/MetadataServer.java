@@ -0,0 +1,517 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import es.ucm.pdfmeta.batch.BatchOptions;
+import es.ucm.pdfmeta.controller.Controller;
+import es.ucm.pdfmeta.io.DocumentLoader;
+import es.ucm.pdfmeta.io.DocumentSaver;
+import es.ucm.pdfmeta.io.InfoReader;
+import es.ucm.pdfmeta.io.OpenDocument;
+import es.ucm.pdfmeta.json.JsonParser;
+import es.ucm.pdfmeta.json.JsonWriter;
+import es.ucm.pdfmeta.metrics.Metrics;
+import static es.ucm.pdfmeta.model.DocumentMetadata.buildModelFromDocument;
+import static es.ucm.pdfmeta.model.DocumentMetadata.modifyDocFromModel;
+import static es.ucm.pdfmeta.model.DocumentMetadata.syncXmpFromModel;
+import static es.ucm.pdfmeta.model.DocumentMetadata.valuesOf;
+import es.ucm.pdfmeta.model.MetadataField;
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Local HTTP service for reading and writing metadata, so that other
+ * programs can use pdfmeta without starting a JVM for each file. It only
+ * listens on the loopback interface, only answers requests addressed to
+ * it by a loopback name, so that a web page cannot reach it by pointing its
+ * own host name at the loopback address, and only gives access to the files
+ * under the directories given on the command line.
+ *
+ * <pre>
+ * GET  /metadata?path=file          metadata of a file, as JSON
+ * PUT  /metadata?path=file          updates a file in place from a JSON object
+ * POST /metadata                    metadata of the PDF in the request body
+ * POST /pdf?name=value...           the PDF in the request body, with new values
+ * GET  /metrics[?format=json]       timing and resource metrics
+ * </pre>
+ *
+ * <p>Each request runs on its own virtual thread when the runtime supports
+ * them. The number of documents open at the same time is limited to the
+ * number of threads; requests wait for their turn in arrival order, and
+ * fail with 503 if they wait too long.</p>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class MetadataServer implements Closeable {
+    private static final List<String> PROPERTY_NAMES = MetadataField.propertyNames();
+    private static final int MAX_JSON_BYTES = 1 << 20;
+    private static final long PERMIT_TIMEOUT_SECONDS = 30;
+    private static final int STOP_DELAY_SECONDS = 5;
+    private static final int PATH_LOCKS = 64;
+
+    private final BatchOptions options;
+    private final DocumentLoader loader;
+    private final PrintStream err;
+    private final List<Path> roots = new ArrayList<>();
+    private final Semaphore documents;
+    private final ReentrantLock[] pathLocks = new ReentrantLock[PATH_LOCKS];
+    private final ExecutorService executor;
+    private final HttpServer server;
+    private final Set<String> hosts = new HashSet<>();
+    private final long permitTimeoutMillis;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * An error to be reported to the client with the given status.
+     */
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException, HttpError;
+    }
+
+    public MetadataServer(BatchOptions options, PrintStream err) throws IOException {
+        this(options, err, TimeUnit.SECONDS.toMillis(PERMIT_TIMEOUT_SECONDS));
+    }
+
+    MetadataServer(BatchOptions options, PrintStream err, long permitTimeoutMillis) throws IOException {
+        this.options = options;
+        this.permitTimeoutMillis = permitTimeoutMillis;
+        this.loader = options.createLoader();
+        this.err = err;
+        for (File root : options.getInputs()) {
+            if (!root.isDirectory()) {
+                throw new IOException(root + " is not a directory");
+            }
+            roots.add(root.toPath().toRealPath());
+        }
+        this.documents = new Semaphore(options.getThreads(), true);
+        for (int i = 0; i < PATH_LOCKS; i++) {
+            pathLocks[i] = new ReentrantLock();
+        }
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), options.getServePort()),
+                options.getQueueCapacity());
+        server.setExecutor(executor);
+        int port = server.getAddress().getPort();
+        for (String host : new String[] { "localhost", "127.0.0.1", "[::1]" }) {
+            hosts.add(host + ":" + port);
+            if (port == 80) {
+                hosts.add(host);
+            }
+        }
+        Filter hostCheck = new HostCheck();
+        server.createContext("/metadata", exchange -> handle(exchange, this::metadata)).getFilters().add(hostCheck);
+        server.createContext("/pdf", exchange -> handle(exchange, this::pdf)).getFilters().add(hostCheck);
+        server.createContext("/metrics", this::metrics).getFilters().add(hostCheck);
+    }
+
+    /**
+     * Rejects the requests whose {@code Host} header is not a loopback name
+     * with the port of the server, such as those sent by a browser to a site
+     * whose name has been made to resolve to the loopback address.
+     */
+    private class HostCheck extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            String host = exchange.getRequestHeaders().getFirst("Host");
+            if (host != null && hosts.contains(host.toLowerCase(Locale.ROOT))) {
+                chain.doFilter(exchange);
+                return;
+            }
+            try {
+                sendError(exchange, 403, "unexpected host: " + host);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "accepts only requests addressed to a loopback name";
+        }
+    }
+
+    /**
+     * Creates an executor that runs each request on a new virtual thread, or
+     * on a cached pool of platform threads on runtimes without them.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public void start() {
+        server.start();
+        err.println("listening on http://" + getAddress().getHostString() + ":" + getAddress().getPort() + "/");
+    }
+
+    /**
+     * Waits until the server has been stopped by {@link #close()}.
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops accepting requests and waits a few seconds for those in
+     * progress to finish.
+     */
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+            options.writeMetrics();
+        } catch (IOException ex) {
+            err.println("error: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) {
+        try {
+            handler.handle(exchange);
+            Metrics.fileProcessed(false);
+        } catch (HttpError ex) {
+            sendError(exchange, ex.status, ex.getMessage());
+        } catch (NoSuchFileException ex) {
+            sendError(exchange, 404, "no such file: " + ex.getFile());
+        } catch (IllegalArgumentException ex) {
+            sendError(exchange, 400, ex.getMessage());
+        } catch (IOException | RuntimeException ex) {
+            Metrics.fileProcessed(true);
+            sendError(exchange, 500, ex.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void metadata(HttpExchange exchange) throws IOException, HttpError {
+        switch (exchange.getRequestMethod()) {
+            case "GET": {
+                Path file = resolvePath(exchange);
+                MetadataModel<String> m;
+                ReentrantLock lock = lockFor(file);
+                lock.lock();
+                try {
+                    acquireDocument();
+                    try {
+                        m = InfoReader.readModel(file.toFile(), loader);
+                    } finally {
+                        documents.release();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                sendJson(exchange, 200, describe(file, m, null));
+                break;
+            }
+            case "PUT": {
+                Path file = resolvePath(exchange);
+                Map<String, String> changes = readChanges(exchange);
+                ReentrantLock lock = lockFor(file);
+                lock.lock();
+                try {
+                    acquireDocument();
+                    try (OpenDocument od = loader.load(file.toFile())) {
+                        PDDocument doc = od.getDocument();
+                        MetadataModel<String> m = buildModelFromDocument(doc);
+                        boolean modified = apply(doc, m, changes);
+                        if (modified) {
+                            DocumentSaver.save(od, file.toFile(), options.getSaveMode());
+                            m.markClean();
+                        }
+                        sendJson(exchange, 200, describe(file, m, modified ? "updated" : "unchanged"));
+                    } finally {
+                        documents.release();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                break;
+            }
+            case "POST": {
+                acquireDocument();
+                try (OpenDocument od = loader.load(exchange.getRequestBody())) {
+                    sendJson(exchange, 200, valuesOf(buildModelFromDocument(od.getDocument())));
+                } finally {
+                    documents.release();
+                }
+                break;
+            }
+            default:
+                exchange.getResponseHeaders().set("Allow", "GET, PUT, POST");
+                throw new HttpError(405, "method not allowed: " + exchange.getRequestMethod());
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            boolean json = "json".equals(queryParameters(exchange).get("format"));
+            byte[] body = (json ? Metrics.toJson() : Metrics.toPrometheus()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                    json ? "application/json; charset=utf-8" : "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void pdf(HttpExchange exchange) throws IOException, HttpError {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            throw new HttpError(405, "method not allowed: " + exchange.getRequestMethod());
+        }
+        Map<String, String> changes = queryParameters(exchange);
+        for (String name : changes.keySet()) {
+            checkPropertyName(name);
+        }
+        acquireDocument();
+        try (OpenDocument od = loader.load(exchange.getRequestBody())) {
+            PDDocument doc = od.getDocument();
+            boolean modified = apply(doc, buildModelFromDocument(doc), changes);
+            exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = new BufferedOutputStream(exchange.getResponseBody(), 1 << 16)) {
+                if (modified) {
+                    DocumentSaver.write(doc, body, options.getSaveMode());
+                } else {
+                    Files.copy(od.getFile().toPath(), body);
+                }
+            }
+        } finally {
+            documents.release();
+        }
+    }
+
+    /**
+     * Applies changes to a loaded document and returns whether it has to be
+     * saved.
+     */
+    private boolean apply(PDDocument doc, MetadataModel<String> m, Map<String, String> changes) throws IOException {
+        new Controller(m).changeProperties(changes);
+        boolean modified = m.isDirty();
+        modifyDocFromModel(doc, m);
+        if (options.isXmp()) {
+            modified |= syncXmpFromModel(doc, m);
+        }
+        return modified;
+    }
+
+    private void acquireDocument() throws HttpError, InterruptedIOException {
+        try {
+            if (!documents.tryAcquire(permitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new HttpError(503, "too many concurrent requests");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a document slot");
+        }
+    }
+
+    private ReentrantLock lockFor(Path file) {
+        return pathLocks[(file.hashCode() & Integer.MAX_VALUE) % PATH_LOCKS];
+    }
+
+    /**
+     * Resolves the {@code path} parameter against the first root, and checks
+     * that the file it names lies under one of the roots. Files elsewhere
+     * are reported as missing, so that their existence is not revealed.
+     */
+    private Path resolvePath(HttpExchange exchange) throws IOException, HttpError {
+        String value = queryParameters(exchange).get("path");
+        if (value == null || value.isEmpty()) {
+            throw new HttpError(400, "missing path parameter");
+        }
+        Path file;
+        try {
+            file = roots.get(0).resolve(value).toRealPath();
+        } catch (NoSuchFileException ex) {
+            throw new HttpError(404, "no such file: " + value);
+        }
+        if (roots.stream().noneMatch(file::startsWith)) {
+            throw new HttpError(404, "no such file: " + value);
+        }
+        if (!Files.isRegularFile(file)) {
+            throw new HttpError(404, "not a file: " + value);
+        }
+        return file;
+    }
+
+    private static Map<String, String> readChanges(HttpExchange exchange) throws IOException, HttpError {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        InputStream in = exchange.getRequestBody();
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            body.write(buffer, 0, n);
+            if (body.size() > MAX_JSON_BYTES) {
+                throw new HttpError(413, "request body too large");
+            }
+        }
+        Object value;
+        try {
+            value = JsonParser.parse(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            throw new HttpError(400, ex.getMessage());
+        }
+        if (!(value instanceof Map)) {
+            throw new HttpError(400, "expected a JSON object");
+        }
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<?, ?> member : ((Map<?, ?>) value).entrySet()) {
+            String name = (String) member.getKey();
+            checkPropertyName(name);
+            if (member.getValue() != null && !(member.getValue() instanceof String)) {
+                throw new HttpError(400, "expected a string value for " + name);
+            }
+            result.put(name, (String) member.getValue());
+        }
+        return result;
+    }
+
+    private static void checkPropertyName(String name) throws HttpError {
+        if (!PROPERTY_NAMES.contains(name)) {
+            throw new HttpError(400, "unknown property: " + name);
+        }
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> result = new LinkedHashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eqPos = pair.indexOf('=');
+            result.put(decode(eqPos < 0 ? pair : pair.substring(0, eqPos)),
+                    eqPos < 0 ? "" : decode(pair.substring(eqPos + 1)));
+        }
+        return result;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static Map<String, Object> describe(Path file, MetadataModel<String> m, String outcome) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("path", file.toString());
+        if (outcome != null) {
+            result.put("outcome", outcome);
+        }
+        result.putAll(valuesOf(m));
+        return result;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Object value) throws IOException {
+        byte[] body = JsonWriter.write(value).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() != -1) {
+            // the response has already started, so the client only sees it cut short
+            err.println("error: " + exchange.getRequestURI() + ": " + message);
+            return;
+        }
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", message);
+        try {
+            sendJson(exchange, status, error);
+        } catch (IOException ex) {
+            err.println("error: " + exchange.getRequestURI() + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event emitted for each timed phase. This class is only
+ * loaded when the runtime includes the {@code jdk.jfr} module, and is
+ * compiled apart from the rest of the program, for Java 11.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+@Name("es.ucm.pdfmeta.Phase")
+@Label("pdfmeta Phase")
+@Category("pdfmeta")
+@Description("A phase of loading, modelling or saving a document")
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Emits these events for {@link Metrics}, which creates it by reflection.
+     */
+    static final class Recorder implements Metrics.EventRecorder {
+        @Override
+        public Object begin(Phase phase, String file) {
+            PhaseEvent event = new PhaseEvent();
+            event.phase = phase.label();
+            event.file = file;
+            event.begin();
+            return event;
+        }
+
+        @Override
+        public void end(Object started, long bytes) {
+            PhaseEvent event = (PhaseEvent) started;
+            event.end();
+            if (event.shouldCommit()) {
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.daemon;
+
+import es.ucm.pdfmeta.Main;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs a command line in the resident daemon of the user, starting the
+ * daemon first if it is not running. The client only loads the classes it
+ * needs to talk to the daemon, and copies the output of the command to its
+ * own as it arrives.
+ *
+ * <p>Unix domain sockets require Java 16 or later; this class must not be
+ * loaded on earlier versions.</p>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class ResidentClient {
+    /**
+     * How long to wait for a newly started daemon to listen.
+     */
+    private static final long START_TIMEOUT_MILLIS = 10000;
+    private static final long START_POLL_MILLIS = 20;
+
+    private ResidentClient() { }
+
+    /**
+     * Runs a command line in the daemon.
+     *
+     * @return the exit status of the command
+     */
+    public static int run(String[] args) throws IOException, InterruptedException {
+        Path socket = ResidentServer.socketPath();
+        ResidentServer.prepareDirectory(socket.getParent());
+        SocketChannel channel = connect(socket);
+        if (channel == null) {
+            startDaemon(socket.getParent());
+            long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+            while (channel == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(START_POLL_MILLIS);
+                channel = connect(socket);
+            }
+            if (channel == null) {
+                throw new IOException("the daemon did not start; see " + socket.resolveSibling("daemon.log"));
+            }
+        }
+        try (SocketChannel c = channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c)));
+            out.writeInt(ResidentServer.PROTOCOL_VERSION);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c)));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int type;
+                try {
+                    type = in.readUnsignedByte();
+                } catch (EOFException ex) {
+                    throw new IOException("the daemon closed the connection");
+                }
+                if (type == ResidentServer.EXIT) {
+                    return in.readInt();
+                }
+                PrintStream target = type == ResidentServer.STDOUT ? System.out : System.err;
+                int length = in.readInt();
+                while (length > 0) {
+                    int n = Math.min(length, buffer.length);
+                    in.readFully(buffer, 0, n);
+                    target.write(buffer, 0, n);
+                    length -= n;
+                }
+                target.flush();
+            }
+        }
+    }
+
+    private static SocketChannel connect(Path socket) {
+        try {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+                return channel;
+            } catch (IOException ex) {
+                channel.close();
+                return null;
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts a daemon in a new JVM with the class path of this one. Its
+     * output goes to a log next to the socket.
+     */
+    private static void startDaemon(Path dir) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Main.class.getName(), "--resident-server");
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(dir.resolve("daemon.log").toFile()));
+        pb.start().getOutputStream().close();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.daemon;
+
+import es.ucm.pdfmeta.Main;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A resident JVM that runs pdfmeta command lines on behalf of
+ * {@link ResidentClient}, so that they do not pay for starting a JVM and
+ * loading PDFBox and Swing each time. It listens on a Unix domain socket in
+ * a directory only accessible to the user, runs each command on its own
+ * thread, and exits after a period without commands.
+ *
+ * <p>A request is the protocol version, the working directory of the client
+ * and its arguments. The response is a sequence of frames, each a type
+ * byte followed by data: standard output and standard error as a length and
+ * bytes, and finally the exit status.</p>
+ *
+ * <p>Unix domain sockets require Java 16 or later; this class must not be
+ * loaded on earlier versions.</p>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class ResidentServer implements Closeable {
+    static final int PROTOCOL_VERSION = 1;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+    static final int EXIT = 3;
+
+    /**
+     * Seconds without commands after which the daemon exits, by default.
+     */
+    public static final int DEFAULT_IDLE_TIMEOUT = 900;
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ,
+            PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+
+    private final Path socket;
+    private final long idleMillis;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "pdfmeta-resident-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile long lastActivity = System.currentTimeMillis();
+    private ServerSocketChannel channel;
+
+    /**
+     * @param idleSeconds seconds without commands after which the daemon
+     *        exits
+     */
+    public ResidentServer(int idleSeconds) {
+        this.socket = socketPath();
+        this.idleMillis = TimeUnit.SECONDS.toMillis(idleSeconds);
+    }
+
+    /**
+     * Runs a daemon until it is idle for the number of seconds given as the
+     * only optional argument.
+     *
+     * @return the exit status
+     */
+    public static int serve(String[] args) {
+        int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        if (args.length > 0) {
+            try {
+                idleTimeout = Integer.parseInt(args[0]);
+            } catch (NumberFormatException ex) {
+                System.err.println("error: expected the idle timeout in seconds, found: " + args[0]);
+                return 2;
+            }
+        }
+        try {
+            new ResidentServer(idleTimeout).run();
+            return 0;
+        } catch (IOException ex) {
+            System.err.println("error: " + ex.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Socket of the daemon of the current user.
+     */
+    static Path socketPath() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "pdfmeta-" + System.getProperty("user.name"),
+                "daemon.sock");
+    }
+
+    /**
+     * Creates the directory of the socket, accessible only to its owner, or
+     * checks that an existing one belongs to the current user and is not
+     * accessible to anyone else; otherwise another user could listen in
+     * place of the daemon.
+     */
+    static void prepareDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            try {
+                Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } catch (UnsupportedOperationException ex) {
+                Files.createDirectories(dir);
+                return;
+            }
+        }
+        try {
+            UserPrincipal user = dir.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name"));
+            if (!Files.getOwner(dir).equals(user) || !OWNER_ONLY.containsAll(Files.getPosixFilePermissions(dir))) {
+                throw new IOException(dir + " must belong to " + user.getName() + " and be accessible only to it");
+            }
+        } catch (UnsupportedOperationException ex) {
+            // no POSIX permissions on this file system
+        }
+    }
+
+    /**
+     * Listens for commands until the idle timeout expires or the daemon is
+     * closed.
+     */
+    public void run() throws IOException {
+        prepareDirectory(socket.getParent());
+        if (Files.exists(socket)) {
+            boolean listening;
+            try (SocketChannel other = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                listening = other.isConnected();
+            } catch (IOException ex) {
+                listening = false;
+            }
+            if (listening) {
+                throw new IOException("another daemon is listening on " + socket);
+            }
+            Files.deleteIfExists(socket);
+        }
+        channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(socket));
+        try {
+            Files.setPosixFilePermissions(socket, EnumSet.of(PosixFilePermission.OWNER_READ,
+                    PosixFilePermission.OWNER_WRITE));
+        } catch (UnsupportedOperationException ex) {
+            // the directory already keeps other users out
+        }
+        ScheduledExecutorService idleCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pdfmeta-resident-idle");
+            t.setDaemon(true);
+            return t;
+        });
+        idleCheck.scheduleWithFixedDelay(() -> {
+            if (active.get() == 0 && System.currentTimeMillis() - lastActivity > idleMillis) {
+                close();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        try {
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = channel.accept();
+                } catch (ClosedChannelException ex) {
+                    break;
+                }
+                active.incrementAndGet();
+                workers.execute(() -> serve(client));
+            }
+        } finally {
+            idleCheck.shutdownNow();
+            workers.shutdown();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (SocketChannel c = client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c)));
+            PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, STDOUT)), true);
+            PrintStream stderr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, STDERR)), true);
+            int status;
+            if (in.readInt() != PROTOCOL_VERSION) {
+                stderr.println("error: this pdfmeta daemon runs a different version; stop it and try again");
+                status = 2;
+            } else {
+                File dir = new File(in.readUTF());
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = in.readUTF();
+                }
+                status = Main.run(args, dir, stdout, stderr, true);
+            }
+            stdout.flush();
+            stderr.flush();
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+        } catch (IOException | RuntimeException ex) {
+            // the client went away; nothing to report it to
+        } finally {
+            lastActivity = System.currentTimeMillis();
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stops listening; commands being run are completed.
+     */
+    @Override
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            // already closed
+        }
+    }
+
+    /**
+     * Sends what is written to it as frames of one type.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int type;
+
+        FrameOutputStream(DataOutputStream out, int type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+}
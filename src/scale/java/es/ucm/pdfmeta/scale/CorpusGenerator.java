@@ -0,0 +1,346 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.scale;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * Writes the documents of the scale scenarios. Every document is generated
+ * from a fixed seed, so the same arguments always produce the same bytes.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+final class CorpusGenerator {
+    private static final int SCAN_SIDE = 4096;
+    private static final int LINES_PER_PAGE = 40;
+    private static final Pattern XREF_ENTRY = Pattern.compile("(\\d{10}) \\d{5} n");
+
+    private CorpusGenerator() { }
+
+    /**
+     * Writes a scanned document of about {@code bytes} bytes: one page per
+     * uncompressed 4096x4096 grey image of random pixels, so that nothing
+     * can be saved by compression. The document is assembled in scratch
+     * files rather than in the heap.
+     */
+    static void scan(File file, long bytes, long seed) throws IOException {
+        Random random = new Random(seed);
+        long imageBytes = (long) SCAN_SIDE * SCAN_SIDE;
+        int pages = (int) Math.max(1, (bytes + imageBytes - 1) / imageBytes);
+        byte[] row = new byte[SCAN_SIDE];
+        try (PDDocument doc = new PDDocument(MemoryUsageSetting.setupTempFileOnly())) {
+            for (int p = 0; p < pages; p++) {
+                COSStream stream = doc.getDocument().createCOSStream();
+                stream.setItem(COSName.TYPE, COSName.XOBJECT);
+                stream.setItem(COSName.SUBTYPE, COSName.IMAGE);
+                stream.setInt(COSName.WIDTH, SCAN_SIDE);
+                stream.setInt(COSName.HEIGHT, SCAN_SIDE);
+                stream.setInt(COSName.BITS_PER_COMPONENT, 8);
+                stream.setItem(COSName.COLORSPACE, COSName.DEVICEGRAY);
+                try (OutputStream out = stream.createOutputStream()) {
+                    for (int y = 0; y < SCAN_SIDE; y++) {
+                        random.nextBytes(row);
+                        out.write(row);
+                    }
+                }
+                PDPage page = new PDPage(PDRectangle.A4);
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.drawImage(new PDImageXObject(new PDStream(stream), null), 0, 0,
+                            PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+                }
+            }
+            describe(doc.getDocumentInformation(), "Scanned document", random, 1);
+            doc.save(file);
+        }
+    }
+
+    /**
+     * Writes a text document with the given number of pages.
+     */
+    static void text(File file, int pages, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (PDDocument doc = new PDDocument(MemoryUsageSetting.setupMixed(64L << 20))) {
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                    cs.beginText();
+                    cs.setFont(PDType1Font.HELVETICA, 8);
+                    cs.setLeading(9);
+                    cs.newLineAtOffset(36, 756);
+                    for (int l = 0; l < LINES_PER_PAGE; l++) {
+                        cs.showText(words(random, 12));
+                        cs.newLine();
+                    }
+                    cs.endText();
+                }
+            }
+            describe(doc.getDocumentInformation(), "Long document", random, 1);
+            doc.save(file);
+        }
+    }
+
+    /**
+     * Writes a small text document whose Info dictionary holds a BibTeX
+     * entry of about {@code bibtexBytes} bytes and a few other entries of
+     * the same kind.
+     */
+    static void annotated(File file, int bibtexBytes, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage();
+            doc.addPage(page);
+            try (PDPageContentStream cs = new PDPageContentStream(doc, page)) {
+                cs.beginText();
+                cs.setFont(PDType1Font.HELVETICA, 8);
+                cs.newLineAtOffset(36, 756);
+                cs.showText(words(random, 12));
+                cs.endText();
+            }
+            PDDocumentInformation info = doc.getDocumentInformation();
+            describe(info, "Annotated document", random, bibtexBytes);
+            info.setSubject(words(random, 200));
+            info.setKeywords(words(random, 50));
+            info.setCustomMetadataValue("notes", words(random, bibtexBytes / 6));
+            doc.save(file);
+        }
+    }
+
+    /**
+     * Writes a text document and then breaks its cross-reference table by
+     * moving every offset, so that it can only be opened by rebuilding the
+     * table from the objects themselves.
+     */
+    static void brokenXref(File file, int pages, long seed) throws IOException {
+        text(file, pages, seed);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            byte[] tail = new byte[(int) Math.min(raf.length(), 64 * 1024 + 20 * 4 * pages)];
+            long tailStart = raf.length() - tail.length;
+            raf.seek(tailStart);
+            raf.readFully(tail);
+            String text = new String(tail, StandardCharsets.ISO_8859_1);
+            int xref = text.lastIndexOf("\nxref");
+            int trailer = text.indexOf("trailer", Math.max(xref, 0));
+            if (xref < 0 || trailer < 0) {
+                throw new IOException("no cross-reference table in " + file);
+            }
+            Matcher entry = XREF_ENTRY.matcher(text).region(xref, trailer);
+            while (entry.find()) {
+                long offset = Long.parseLong(entry.group(1)) + 7;
+                byte[] moved = String.format("%010d", offset).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(moved, 0, tail, entry.start(1), moved.length);
+            }
+            raf.seek(tailStart);
+            raf.write(tail);
+        }
+    }
+
+    /**
+     * Writes a document whose objects, Info dictionary and page tree
+     * included, are all packed in a single object stream, indexed by a
+     * cross-reference stream. PDFBox 2 cannot write object streams, so the
+     * file is assembled here.
+     */
+    static void objectStream(File file, int pages, long seed) throws IOException {
+        Random random = new Random(seed);
+        // 1: object stream, 2: xref stream, 3: shared content stream,
+        // 4: catalog, 5: pages, 6: info, 7..: pages
+        int packedFirst = 4;
+        int count = 3 + pages;
+        List<String> packed = new ArrayList<>(count);
+        packed.add("<</Type/Catalog/Pages 5 0 R>>");
+        StringBuilder kids = new StringBuilder();
+        for (int p = 0; p < pages; p++) {
+            kids.append(7 + p).append(" 0 R ");
+        }
+        packed.add("<</Type/Pages/Count " + pages + "/Kids[" + kids + "]>>");
+        packed.add("<</Title(Packed document)/Author(" + words(random, 2) + ")/bibtex("
+                + bibtex(random, 2048) + ")>>");
+        for (int p = 0; p < pages; p++) {
+            packed.add("<</Type/Page/Parent 5 0 R/MediaBox[0 0 612 792]/Contents 3 0 R"
+                    + "/Resources<</Font<</F1<</Type/Font/Subtype/Type1/BaseFont/Helvetica>>>>>>"
+                    + "/PieceInfo<</pdfmeta<</Private(" + words(random, 20) + ")>>>>>>");
+        }
+
+        StringBuilder header = new StringBuilder();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < packed.size(); i++) {
+            header.append(packedFirst + i).append(' ').append(body.length()).append(' ');
+            body.append(packed.get(i)).append('\n');
+        }
+        byte[] objStm = deflate(header.toString() + body);
+
+        long[] offsets = new long[3];
+        try (CountingOutput out = new CountingOutput(new FileOutputStream(file))) {
+            out.ascii("%PDF-1.5\n%âãÏÓ\n");
+            offsets[0] = out.count;
+            out.ascii("1 0 obj\n<</Type/ObjStm/N " + packed.size() + "/First " + header.length()
+                    + "/Filter/FlateDecode/Length " + objStm.length + ">>\nstream\n");
+            out.write(objStm);
+            out.ascii("\nendstream\nendobj\n");
+            byte[] content = ("BT /F1 12 Tf 72 720 Td (" + words(random, 8) + ") Tj ET")
+                    .getBytes(StandardCharsets.US_ASCII);
+            offsets[2] = out.count;
+            out.ascii("3 0 obj\n<</Length " + content.length + ">>\nstream\n");
+            out.write(content);
+            out.ascii("\nendstream\nendobj\n");
+
+            // W [1 4 4]: type 1 entries hold offsets, type 2 the index in
+            // object stream 1
+            int size = packedFirst + packed.size();
+            ByteArrayOutputStream entries = new ByteArrayOutputStream(size * 9);
+            offsets[1] = out.count;
+            entry(entries, 0, 0, 65535);
+            entry(entries, 1, offsets[0], 0);
+            entry(entries, 1, offsets[1], 0);
+            entry(entries, 1, offsets[2], 0);
+            for (int i = 0; i < packed.size(); i++) {
+                entry(entries, 2, 1, i);
+            }
+            byte[] xref = deflate(entries.toByteArray());
+            out.ascii("2 0 obj\n<</Type/XRef/Size " + size + "/W[1 4 4]/Root 4 0 R/Info 6 0 R"
+                    + "/ID[<" + hex(random) + "><" + hex(random) + ">]"
+                    + "/Filter/FlateDecode/Length " + xref.length + ">>\nstream\n");
+            out.write(xref);
+            out.ascii("\nendstream\nendobj\nstartxref\n" + offsets[1] + "\n%%EOF\n");
+        }
+    }
+
+    private static void entry(ByteArrayOutputStream out, int type, long field2, long field3) {
+        out.write(type);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write((int) (field2 >>> shift));
+        }
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write((int) (field3 >>> shift));
+        }
+    }
+
+    private static byte[] deflate(String text) throws IOException {
+        return deflate(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(result)) {
+            out.write(data);
+        }
+        return result.toByteArray();
+    }
+
+    private static String hex(Random random) {
+        return String.format("%016x%016x", random.nextLong(), random.nextLong());
+    }
+
+    private static void describe(PDDocumentInformation info, String title, Random random, int bibtexBytes) {
+        info.setTitle(title + ": " + words(random, 6));
+        info.setAuthor("Jane Doe, John Roe");
+        info.setCustomMetadataValue("bibtex", bibtex(random, bibtexBytes));
+    }
+
+    /**
+     * Returns a BibTeX entry whose abstract makes it at least
+     * {@code bytes} long.
+     */
+    private static String bibtex(Random random, int bytes) {
+        StringBuilder sb = new StringBuilder("@article{key" + random.nextInt(100_000) + ",\n"
+                + "  author = {Doe, Jane and Roe, John},\n"
+                + "  title = {On {PDF} metadata: " + words(random, 6) + "},\n"
+                + "  year = 2016,\n"
+                + "  abstract = {");
+        while (sb.length() < bytes) {
+            sb.append(words(random, 10)).append(' ');
+        }
+        return sb.append("}\n}").toString();
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int w = 0; w < count; w++) {
+            if (w > 0) {
+                sb.append(' ');
+            }
+            int length = 2 + random.nextInt(9);
+            for (int c = 0; c < length; c++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class CountingOutput extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        void ascii(String text) throws IOException {
+            write(text.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.scale;
+
+import es.ucm.pdfmeta.json.JsonParser;
+import es.ucm.pdfmeta.json.JsonWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * End-to-end scale runs. Each scenario generates a deterministic corpus
+ * (a 1 GB scan, a 10,000-page document, broken cross-reference tables, a
+ * huge object stream, long Info entries), runs the whole load, model and
+ * save pipeline of {@code Main} over it in a separate JVM, and reports the
+ * wall time, peak resident set, bytes written and garbage collection
+ * pauses. Results can be saved and later used as a baseline: a run fails
+ * if a scenario fails or a metric exceeds its baseline by more than the
+ * threshold.
+ *
+ * <pre>
+ * java -jar scale.jar [--scale f] [--scenario name]... [--work dir]
+ *                     [--baseline file] [--threshold f] [--output file]
+ *                     [--jvm-arg arg]...
+ * </pre>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class ScaleSuite {
+    private static final double DEFAULT_THRESHOLD = 0.25;
+    private static final List<String> DEFAULT_JVM_ARGS = Arrays.asList("-Xmx1g");
+
+    /**
+     * The metrics compared against the baseline. Differences below the
+     * slack of a metric are noise and never count as regressions.
+     */
+    private enum Metric {
+        WALL("wallSeconds", 0.5),
+        PEAK_RSS("peakRssBytes", 32 << 20),
+        BYTES_WRITTEN("bytesWritten", 4 << 10),
+        GC_PAUSE_TOTAL("gcPauseTotalSeconds", 0.1),
+        GC_PAUSE_MAX("gcPauseMaxSeconds", 0.02);
+
+        final String key;
+        final double slack;
+
+        Metric(String key, double slack) {
+            this.key = key;
+            this.slack = slack;
+        }
+    }
+
+    private double scale = 1;
+    private final Set<Scenario> scenarios = EnumSet.noneOf(Scenario.class);
+    private File workDir = new File("target", "scale");
+    private File baselineFile;
+    private double threshold = DEFAULT_THRESHOLD;
+    private File outputFile;
+    private final List<String> jvmArgs = new ArrayList<>();
+
+    private ScaleSuite() { }
+
+    public static void main(String[] args) {
+        ScaleSuite suite = new ScaleSuite();
+        try {
+            suite.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("error: " + ex.getMessage());
+            System.exit(2);
+        }
+        try {
+            System.exit(suite.run());
+        } catch (IOException ex) {
+            System.err.println("error: " + ex.getMessage());
+            System.exit(2);
+        } catch (InterruptedException ex) {
+            System.exit(130);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--scale":
+                    scale = positive(arg, value);
+                    break;
+                case "--scenario":
+                    scenarios.add(Scenario.parse(value));
+                    break;
+                case "--work":
+                    workDir = new File(value);
+                    break;
+                case "--baseline":
+                    baselineFile = new File(value);
+                    break;
+                case "--threshold":
+                    threshold = positive(arg, value);
+                    break;
+                case "--output":
+                    outputFile = new File(value);
+                    break;
+                case "--jvm-arg":
+                    jvmArgs.add(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        if (scenarios.isEmpty()) {
+            scenarios.addAll(EnumSet.allOf(Scenario.class));
+        }
+        if (jvmArgs.isEmpty()) {
+            jvmArgs.addAll(DEFAULT_JVM_ARGS);
+        }
+    }
+
+    private static double positive(String option, String value) {
+        try {
+            double result = Double.parseDouble(value);
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new IllegalArgumentException(option + " expects a positive number: " + value);
+    }
+
+    /**
+     * Runs the selected scenarios in order.
+     *
+     * @return the exit status: 0 if every scenario succeeded without
+     *         regressions, 1 otherwise
+     */
+    private int run() throws IOException, InterruptedException {
+        Map<?, ?> baseline = baselineFile == null ? null : readBaseline();
+        Map<String, Object> scenarioResults = new LinkedHashMap<>();
+        int failures = 0;
+        for (Scenario scenario : scenarios) {
+            File dir = new File(workDir, scenario.label());
+            deleteTree(dir.toPath());
+            Files.createDirectories(dir.toPath());
+            long start = System.nanoTime();
+            scenario.generate(dir, scale);
+            System.out.printf(Locale.ROOT, "%s: corpus of %s generated in %.1f s%n", scenario.label(),
+                    size(dirSize(dir.toPath())), (System.nanoTime() - start) / 1e9);
+
+            Map<?, ?> values = runScenario(scenario, dir);
+            scenarioResults.put(scenario.label(), values);
+            System.out.println(summary(scenario, values));
+            if (((Number) values.get("exitStatus")).intValue() != 0) {
+                System.out.println("failed: " + scenario.label() + " exited with status "
+                        + values.get("exitStatus") + ", see " + log(scenario));
+                failures++;
+            }
+            if (baseline != null) {
+                failures += compare(scenario, values, baseline);
+            }
+            deleteTree(dir.toPath());
+        }
+        if (outputFile != null) {
+            Map<String, Object> results = new LinkedHashMap<>();
+            results.put("scale", scale);
+            results.put("jvmArgs", jvmArgs);
+            results.put("scenarios", scenarioResults);
+            Files.write(outputFile.toPath(), JsonWriter.write(results).getBytes(StandardCharsets.UTF_8));
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    private Map<?, ?> readBaseline() throws IOException {
+        String text = new String(Files.readAllBytes(baselineFile.toPath()), StandardCharsets.UTF_8);
+        Object parsed = JsonParser.parse(text);
+        if (!(parsed instanceof Map) || !(((Map<?, ?>) parsed).get("scenarios") instanceof Map)) {
+            throw new IOException(baselineFile + ": not a results file");
+        }
+        Map<?, ?> baseline = (Map<?, ?>) parsed;
+        Object baselineScale = baseline.get("scale");
+        if (!(baselineScale instanceof Number) || ((Number) baselineScale).doubleValue() != scale) {
+            throw new IOException(baselineFile + ": recorded with --scale " + baselineScale);
+        }
+        return (Map<?, ?>) baseline.get("scenarios");
+    }
+
+    /**
+     * Runs the command of a scenario in a new JVM with the classpath of this
+     * one. Its output goes to a log file in the work directory.
+     */
+    private Map<?, ?> runScenario(Scenario scenario, File dir) throws IOException, InterruptedException {
+        File result = new File(workDir, scenario.label() + ".json");
+        Files.deleteIfExists(result.toPath());
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScenarioRunner.class.getName());
+        command.add(result.getPath());
+        command.addAll(Arrays.asList(scenario.command(dir)));
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log(scenario))
+                .start();
+        int status = process.waitFor();
+        if (status != 0 || !result.isFile()) {
+            Map<String, Object> crashed = new LinkedHashMap<>();
+            crashed.put("exitStatus", status != 0 ? status : -1);
+            return crashed;
+        }
+        return (Map<?, ?>) JsonParser.parse(new String(Files.readAllBytes(result.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private File log(Scenario scenario) {
+        return new File(workDir, scenario.label() + ".log");
+    }
+
+    /**
+     * Reports the metrics of a scenario that exceed their baseline value by
+     * more than the threshold.
+     *
+     * @return the number of regressions
+     */
+    private int compare(Scenario scenario, Map<?, ?> values, Map<?, ?> baseline) {
+        Object expected = baseline.get(scenario.label());
+        if (!(expected instanceof Map)) {
+            System.out.println("note: no baseline for " + scenario.label());
+            return 0;
+        }
+        int regressions = 0;
+        for (Metric metric : Metric.values()) {
+            Object before = ((Map<?, ?>) expected).get(metric.key);
+            Object after = values.get(metric.key);
+            if (!(before instanceof Number) || !(after instanceof Number)) {
+                continue;
+            }
+            double limit = ((Number) before).doubleValue() * (1 + threshold) + metric.slack;
+            if (((Number) before).doubleValue() >= 0 && ((Number) after).doubleValue() > limit) {
+                System.out.printf(Locale.ROOT, "regression: %s %s is %s, baseline %s%n", scenario.label(),
+                        metric.key, after, before);
+                regressions++;
+            }
+        }
+        return regressions;
+    }
+
+    private static String summary(Scenario scenario, Map<?, ?> values) {
+        if (!values.containsKey("wallSeconds")) {
+            return scenario.label() + ": no measurements";
+        }
+        return String.format(Locale.ROOT, "%s: %.2f s, peak RSS %s, %s written, %s GC pauses"
+                + " (%.3f s total, %.3f s max)", scenario.label(),
+                number(values, "wallSeconds"), size((long) number(values, "peakRssBytes")),
+                size((long) number(values, "bytesWritten")), values.get("gcPauses"),
+                number(values, "gcPauseTotalSeconds"), number(values, "gcPauseMaxSeconds"));
+    }
+
+    private static double number(Map<?, ?> values, String key) {
+        Object value = values.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : -1;
+    }
+
+    private static String size(long bytes) {
+        if (bytes < 0) {
+            return "n/a";
+        } else if (bytes < 1 << 20) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        } else {
+            return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+        }
+    }
+
+    private static long dirSize(Path dir) throws IOException {
+        long[] total = new long[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException ex) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
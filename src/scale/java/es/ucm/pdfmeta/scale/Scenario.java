@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.scale;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The workloads of the scale suite. Each one generates its corpus into an
+ * empty directory and names the command line that is run over it.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+enum Scenario {
+    /**
+     * One scanned document of 1 GB.
+     */
+    LARGE_SCAN("large-scan") {
+        @Override
+        void generate(File dir, double scale) throws IOException {
+            CorpusGenerator.scan(new File(dir, "scan.pdf"), (long) ((1L << 30) * scale), 1);
+        }
+    },
+    /**
+     * One text document of 10,000 pages.
+     */
+    MANY_PAGES("many-pages") {
+        @Override
+        void generate(File dir, double scale) throws IOException {
+            CorpusGenerator.text(new File(dir, "long.pdf"), scaled(10_000, scale), 2);
+        }
+    },
+    /**
+     * 100 documents of 50 pages whose cross-reference tables point to the
+     * wrong offsets.
+     */
+    BROKEN_XREF("broken-xref") {
+        @Override
+        void generate(File dir, double scale) throws IOException {
+            int files = scaled(100, scale);
+            for (int i = 0; i < files; i++) {
+                CorpusGenerator.brokenXref(new File(dir, "broken" + i + ".pdf"), 50, 3_000 + i);
+            }
+        }
+    },
+    /**
+     * One document of 100,000 pages whose objects are all in a single
+     * object stream.
+     */
+    OBJECT_STREAM("object-stream") {
+        @Override
+        void generate(File dir, double scale) throws IOException {
+            CorpusGenerator.objectStream(new File(dir, "packed.pdf"), scaled(100_000, scale), 4);
+        }
+    },
+    /**
+     * 1,000 one-page documents with 16 KB BibTeX entries and other long
+     * Info entries.
+     */
+    LARGE_INFO("large-info") {
+        @Override
+        void generate(File dir, double scale) throws IOException {
+            int files = scaled(1_000, scale);
+            for (int i = 0; i < files; i++) {
+                CorpusGenerator.annotated(new File(dir, "annotated" + i + ".pdf"), 16 * 1024, 5_000 + i);
+            }
+        }
+    };
+
+    private final String label;
+
+    Scenario(String label) {
+        this.label = label;
+    }
+
+    String label() {
+        return label;
+    }
+
+    /**
+     * Writes the corpus of the scenario, with its size multiplied by
+     * {@code scale}, into an empty directory.
+     */
+    abstract void generate(File dir, double scale) throws IOException;
+
+    /**
+     * Returns the arguments of {@code Main} that load, modify and save every
+     * document of the corpus.
+     */
+    String[] command(File dir) {
+        return new String[] { "--set", "subject=pdfmeta scale suite", dir.getPath() };
+    }
+
+    static Scenario parse(String label) {
+        for (Scenario scenario : values()) {
+            if (scenario.label.equals(label)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException("unknown scenario: " + label);
+    }
+
+    private static int scaled(int count, double scale) {
+        return (int) Math.max(1, Math.round(count * scale));
+    }
+}
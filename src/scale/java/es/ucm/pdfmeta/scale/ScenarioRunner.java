@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.scale;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import es.ucm.pdfmeta.Main;
+import es.ucm.pdfmeta.json.JsonParser;
+import es.ucm.pdfmeta.json.JsonWriter;
+import es.ucm.pdfmeta.metrics.Metrics;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Runs one command line of {@link Main} in a JVM of its own, so that its
+ * peak resident set and garbage collections are not mixed with those of
+ * the suite, and writes what it measured as a JSON object.
+ *
+ * <pre>
+ * ScenarioRunner resultFile mainArgs...
+ * </pre>
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public final class ScenarioRunner {
+    private static final long NOTIFICATION_WAIT_MILLIS = 1_000;
+
+    private final AtomicLong pauses = new AtomicLong();
+    private final AtomicLong pauseNanos = new AtomicLong();
+    private final AtomicLong maxPauseNanos = new AtomicLong();
+    private long collectionsBefore;
+
+    private ScenarioRunner() { }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File result = new File(args[0]);
+        String[] command = Arrays.copyOfRange(args, 1, args.length);
+        ScenarioRunner runner = new ScenarioRunner();
+        runner.listen();
+
+        long start = System.nanoTime();
+        int status = Main.run(command, null, System.out, System.err, false);
+        long wall = System.nanoTime() - start;
+        runner.awaitNotifications();
+
+        Map<?, ?> metrics = (Map<?, ?>) JsonParser.parse(Metrics.toJson());
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("exitStatus", status);
+        values.put("wallSeconds", wall / 1e9);
+        values.put("peakRssBytes", peakRss());
+        values.put("bytesWritten", metrics.get("bytesWritten"));
+        values.put("gcPauses", runner.pauses.get());
+        values.put("gcPauseTotalSeconds", runner.pauseNanos.get() / 1e9);
+        values.put("gcPauseMaxSeconds", runner.maxPauseNanos.get() / 1e9);
+        Files.write(result.toPath(), JsonWriter.write(values).getBytes(StandardCharsets.UTF_8));
+        System.exit(0);
+    }
+
+    /**
+     * Records the duration of every stop-the-world collection. Concurrent
+     * cycles are not pauses and are left out.
+     */
+    private void listen() {
+        collectionsBefore = collections();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!isPausing(gc) || !(gc instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                        (CompositeData) notification.getUserData());
+                long nanos = info.getGcInfo().getDuration() * 1_000_000;
+                pauses.incrementAndGet();
+                pauseNanos.addAndGet(nanos);
+                maxPauseNanos.accumulateAndGet(nanos, Math::max);
+            }, null, null);
+        }
+    }
+
+    /**
+     * Notifications are delivered asynchronously; waits until every
+     * collection counted by the beans has been seen, or for a second.
+     */
+    private void awaitNotifications() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + NOTIFICATION_WAIT_MILLIS;
+        while (pauses.get() < collections() - collectionsBefore && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static long collections() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (isPausing(gc)) {
+                result += Math.max(0, gc.getCollectionCount());
+            }
+        }
+        return result;
+    }
+
+    private static boolean isPausing(GarbageCollectorMXBean gc) {
+        return !gc.getName().contains("Concurrent");
+    }
+
+    /**
+     * Returns the peak resident set size of this process, or -1 where
+     * {@code /proc} is not available.
+     */
+    private static long peakRss() throws IOException {
+        File status = new File("/proc/self/status");
+        if (!status.isFile()) {
+            return -1;
+        }
+        List<String> lines = Files.readAllLines(Paths.get(status.getPath()), StandardCharsets.ISO_8859_1);
+        for (String line : lines) {
+            if (line.startsWith("VmHWM:")) {
+                String kilobytes = line.substring("VmHWM:".length()).replace("kB", "").trim();
+                return Long.parseLong(kilobytes) * 1024;
+            }
+        }
+        return -1;
+    }
+}
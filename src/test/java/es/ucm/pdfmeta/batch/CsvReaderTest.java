@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks that {@link CsvReader} reads RFC 4180 records.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class CsvReaderTest {
+
+    @Test
+    public void readsPlainRecords() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("path,title\na.pdf,First\r\nb.pdf,\n"));
+        assertEquals(Arrays.asList("path", "title"), reader.next());
+        assertEquals(Arrays.asList("a.pdf", "First"), reader.next());
+        assertEquals(Arrays.asList("b.pdf", ""), reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void readsLastRecordWithoutLineBreak() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("a,b"));
+        assertEquals(Arrays.asList("a", "b"), reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(
+                "\"a, b\",\"say \"\"hi\"\"\",\"\"\n\"two\r\nlines\",x\nlast,row\n"));
+        assertEquals(Arrays.asList("a, b", "say \"hi\"", ""), reader.next());
+        assertEquals(1, reader.getLineNumber());
+        assertEquals(Arrays.asList("two\r\nlines", "x"), reader.next());
+        assertEquals(2, reader.getLineNumber());
+        assertEquals(Arrays.asList("last", "row"), reader.next());
+        assertEquals(4, reader.getLineNumber());
+    }
+
+    @Test
+    public void keepsQuotesInsideUnquotedFields() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("5\" disk,\"x\"y\n"));
+        assertEquals(Arrays.asList("5\" disk", "xy"), reader.next());
+    }
+
+    @Test
+    public void rejectsUnterminatedQuote() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("ok\n\"open,\nstill open"));
+        reader.next();
+        try {
+            reader.next();
+            fail("expected an IOException");
+        } catch (IOException ex) {
+            assertEquals("line 2: unterminated quoted field", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package es.ucm.pdfmeta.bibtex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Checks the BibTeX syntax understood by {@link BibtexParser}, and that it
+ * recovers from malformed entries without losing the ones after them.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class BibtexParserTest {
+
+    @Test
+    public void keepsNestedBraces() {
+        BibtexEntry entry = BibtexParser.parseFirst("@article{k, title = {The {{\\TeX}book} and {PDF}}}");
+        assertEquals("The {{\\TeX}book} and {PDF}", entry.getField("title"));
+        assertEquals("article", entry.getType());
+        assertEquals("k", entry.getKey());
+    }
+
+    @Test
+    public void concatenatesValues() {
+        BibtexEntry entry = BibtexParser.parseFirst("@book{k, title = \"First\" # { and } # \"second\", year = 1984}");
+        assertEquals("First and second", entry.getField("title"));
+        assertEquals("1984", entry.getField("year"));
+    }
+
+    @Test
+    public void expandsStringsAndMonths() {
+        List<BibtexEntry> entries = BibtexParser.parseAll("@String{acm = \"ACM Press\"}\n"
+                + "@book{k, publisher = ACM, note = acm # { } # \"books\", month = dec, series = undefined}");
+        assertEquals(1, entries.size());
+        BibtexEntry entry = entries.get(0);
+        assertEquals("ACM Press", entry.getField("publisher"));
+        assertEquals("ACM Press books", entry.getField("note"));
+        assertEquals("December", entry.getField("month"));
+        assertEquals("undefined", entry.getField("series"));
+    }
+
+    @Test
+    public void skipsCommentsAndPreambles() {
+        List<BibtexEntry> entries = BibtexParser.parseAll("@comment{ignored, title = {no}}\n"
+                + "@preamble{\"\\newcommand{\\noop}[1]{}\"}\n"
+                + "Text between entries is ignored.\n"
+                + "@misc{k, title = {yes}}");
+        assertEquals(1, entries.size());
+        assertEquals("yes", entries.get(0).getTitle());
+    }
+
+    @Test
+    public void acceptsParentheses() {
+        BibtexEntry entry = BibtexParser.parseFirst("@misc(k, title = {A (parenthesized) title})");
+        assertEquals("k", entry.getKey());
+        assertEquals("A (parenthesized) title", entry.getField("title"));
+    }
+
+    @Test
+    public void keepsTextOfEntry() {
+        String text = "@misc{k, title = {t}}";
+        assertEquals(text, BibtexParser.parseFirst("  " + text + "\n").getText());
+    }
+
+    @Test
+    public void recoversAtNextEntry() throws IOException {
+        String data = "@misc{bad, title = {x}\n"
+                + "@misc{good, title = {y}}\n"
+                + "@misc{worse, title = \n"
+                + "@misc{better, title = {z}}\n";
+        List<BibtexEntry> entries = new ArrayList<>();
+        List<String> errors;
+        try (BibtexParser parser = new BibtexParser(new StringReader(data))) {
+            BibtexEntry entry;
+            while ((entry = parser.next()) != null) {
+                entries.add(entry);
+            }
+            errors = parser.getErrors();
+        }
+        assertEquals(2, entries.size());
+        assertEquals("good", entries.get(0).getKey());
+        assertEquals("better", entries.get(1).getKey());
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0), errors.get(0).startsWith("line 1: "));
+        assertTrue(errors.get(1), errors.get(1).startsWith("line 3: "));
+    }
+
+    @Test
+    public void returnsNullWithoutEntries() {
+        assertNull(BibtexParser.parseFirst("no entries here"));
+        assertEquals(Collections.emptyList(), BibtexParser.parseAll("@misc{unterminated, title = {x"));
+    }
+
+    @Test
+    public void splitsNamesAtTopLevelAnd() {
+        assertEquals(Arrays.asList("Alexander", "Bell"), BibtexEntry.splitTopLevel("Alexander and Bell"));
+        assertEquals(Arrays.asList("{Barnes and Noble}", "Sand, Anders"),
+                BibtexEntry.splitTopLevel("{Barnes and Noble} AND Sand, Anders"));
+        assertEquals(Collections.singletonList("Alexander Graham Bell"),
+                BibtexEntry.splitTopLevel("Alexander Graham Bell"));
+    }
+
+    @Test
+    public void formatsAuthors() {
+        BibtexEntry entry = BibtexParser.parseFirst("@misc{k, author = {Knuth, Donald E. and {van Dyke}, Jr, Joe}}");
+        assertEquals(Arrays.asList("Donald E. Knuth", "Joe van Dyke Jr"), entry.getAuthors());
+    }
+}
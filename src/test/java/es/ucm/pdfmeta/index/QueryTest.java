@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+import es.ucm.pdfmeta.model.MetadataField;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the query grammar against a small index.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class QueryTest {
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static MetadataIndex index;
+
+    @BeforeClass
+    public static void writeIndex() throws IOException {
+        IndexWriter writer = new IndexWriter(MetadataIndex.empty());
+        // 0
+        add(writer, "The TeXbook", "Donald E. Knuth", "@book{knuth84, publisher = {Addison-Wesley}}");
+        // 1
+        add(writer, "Literate Programming", "Knuth, Donald", null);
+        // 2
+        add(writer, "Structure and Interpretation of Computer Programs", "Abelson, Harold; Sussman, Gerald",
+                "@book{sicp, publisher = {MIT Press}}");
+        // 3
+        add(writer, "Programación en Haskell", "Graham Hutton", null);
+        Path path = folder.newFile("test.idx").toPath();
+        writer.write(path);
+        index = MetadataIndex.open(path);
+    }
+
+    private static void add(IndexWriter writer, String title, String author, String bibtex) {
+        Map<MetadataField, Collection<String>> tokens = new EnumMap<>(MetadataField.class);
+        tokens.put(MetadataField.TITLE, Tokenizer.tokens(title));
+        tokens.put(MetadataField.AUTHOR, Tokenizer.tokens(author));
+        tokens.put(MetadataField.BIBTEX, Tokenizer.bibtexTokens(bibtex));
+        writer.add("doc" + writer.getDocumentCount() + ".pdf", 0, 0, tokens);
+    }
+
+    private static void assertMatches(String query, int... docs) {
+        assertArrayEquals(query, docs, Query.parse(query).evaluate(index));
+    }
+
+    @Test
+    public void matchesWordsInAnyField() {
+        assertMatches("knuth", 0, 1);
+        assertMatches("KNUTH", 0, 1);
+        assertMatches("programacion", 3);
+        assertMatches("mit", 2);
+        assertMatches("nobody");
+    }
+
+    @Test
+    public void matchesWordsInOneField() {
+        assertMatches("title:programming", 1);
+        assertMatches("Author:knuth", 0, 1);
+        assertMatches("title:knuth");
+        assertMatches("bibtex:knuth84", 0);
+    }
+
+    @Test
+    public void matchesPrefixes() {
+        assertMatches("program*", 1, 2, 3);
+        assertMatches("title:tex*", 0);
+    }
+
+    @Test
+    public void matchesPhrasesWithinOneField() {
+        assertMatches("\"donald knuth\"", 0, 1);
+        assertMatches("\"computer programs\"", 2);
+        assertMatches("\"knuth programming\"");
+        assertMatches("title:\"literate programming\"", 1);
+    }
+
+    @Test
+    public void combinesTerms() {
+        assertMatches("knuth programming", 1);
+        assertMatches("knuth AND programming", 1);
+        assertMatches("knuth OR haskell", 0, 1, 3);
+        assertMatches("knuth -programming", 0);
+        assertMatches("NOT knuth", 2, 3);
+        assertMatches("NOT NOT knuth", 0, 1);
+    }
+
+    @Test
+    public void bindsAndTighterThanOr() {
+        assertMatches("haskell OR knuth programming", 1, 3);
+        assertMatches("(haskell OR knuth) programming", 1);
+    }
+
+    @Test
+    public void rejectsMalformedQueries() {
+        String[] queries = { "", "   ", "(knuth", "knuth)", "OR knuth", "knuth AND", "NOT", "\"open",
+                "year:1984", "title:--", "author:(knuth)" };
+        for (String query : queries) {
+            try {
+                Query.parse(query);
+                fail("accepted " + query);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package es.ucm.pdfmeta.io;
+
+import static es.ucm.pdfmeta.model.MetadataModel.AUTHOR_PROPERTY_NAME;
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that updates appended in place always follow the bytes the
+ * document was loaded from.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class DocumentSaverTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File newPdf() throws IOException {
+        return new PdfFixture().object(1, "<< /Type /Catalog /Pages 2 0 R >>")
+                .object(2, "<< /Type /Pages /Kids [3 0 R] /Count 1 >>")
+                .object(3, "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] >>")
+                .object(4, "<< /Title (Old title) >>")
+                .endWithTable("/Root 1 0 R /Info 4 0 R")
+                .writeTo(folder.newFile());
+    }
+
+    @Test
+    public void appendsAfterOriginalBytes() throws IOException {
+        File file = newPdf();
+        byte[] original = Files.readAllBytes(file.toPath());
+        try (OpenDocument od = DocumentLoader.DEFAULT.load(file)) {
+            od.getDocument().getDocumentInformation().setTitle("New title");
+            DocumentSaver.save(od, file, SaveMode.APPEND);
+        }
+        assertStartsWith(original, file);
+        assertInfo(file, "New title", null);
+    }
+
+    @Test
+    public void savesAgainAfterAppend() throws IOException {
+        File file = newPdf();
+        try (OpenDocument od = DocumentLoader.DEFAULT.load(file)) {
+            od.getDocument().getDocumentInformation().setAuthor("Author");
+            DocumentSaver.save(od, file, SaveMode.APPEND);
+            od.getDocument().getDocumentInformation().setTitle("New title");
+            DocumentSaver.save(od, file, SaveMode.APPEND);
+        }
+        assertInfo(file, "New title", "Author");
+    }
+
+    @Test
+    public void savesFileChangedSinceLoad() throws IOException {
+        File file = newPdf();
+        try (OpenDocument od = DocumentLoader.DEFAULT.load(file)) {
+            Files.write(file.toPath(), Files.readAllBytes(newPdf().toPath()));
+            Files.write(file.toPath(), new byte[] {'\n'}, StandardOpenOption.APPEND);
+            od.getDocument().getDocumentInformation().setTitle("New title");
+            DocumentSaver.save(od, file, SaveMode.APPEND);
+        }
+        assertInfo(file, "New title", null);
+    }
+
+    @Test
+    public void cacheAppendsEverySave() throws IOException {
+        File file = newPdf();
+        try (DocumentCache cache = new DocumentCache(DocumentLoader.DEFAULT, 4, Long.MAX_VALUE,
+                SaveMode.APPEND, (f, ex) -> { })) {
+            MetadataModel<String> m = cache.getModel(file);
+            m.getProperty(AUTHOR_PROPERTY_NAME).setValue("Author");
+            assertTrue(cache.save(file));
+            byte[] first = Files.readAllBytes(file.toPath());
+            m.getProperty(TITLE_PROPERTY_NAME).setValue("New title");
+            assertTrue(cache.save(file));
+            assertStartsWith(first, file);
+        }
+        assertInfo(file, "New title", "Author");
+    }
+
+    private static void assertStartsWith(byte[] prefix, File file) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        assertTrue(content.length > prefix.length);
+        assertArrayEquals(prefix, Arrays.copyOf(content, prefix.length));
+    }
+
+    private static void assertInfo(File file, String title, String author) throws IOException {
+        try (PDDocument doc = PDDocument.load(file)) {
+            assertEquals(title, doc.getDocumentInformation().getTitle());
+            assertEquals(author, doc.getDocumentInformation().getAuthor());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import static es.ucm.pdfmeta.model.MetadataModel.TITLE_PROPERTY_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import es.ucm.pdfmeta.model.MetadataModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link InfoReader} finds the Info dictionary through every
+ * cross-reference layout, and that it agrees with a full PDFBox load.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class InfoReaderTest {
+    private static final String CATALOG = "<< /Type /Catalog /Pages 2 0 R >>";
+    private static final String PAGES = "<< /Type /Pages /Kids [3 0 R] /Count 1 >>";
+    private static final String PAGE = "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] >>";
+    private static final String INFO = "<< /Title (A \\(short\\) title) /Author <FEFF004A006F00EB> /Trapped /True >>";
+    private static final String TRAILER = "/Root 1 0 R /Info 4 0 R /ID [<0123abcd> <89ef>]";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PdfFixture pages() {
+        return new PdfFixture().object(1, CATALOG).object(2, PAGES).object(3, PAGE);
+    }
+
+    @Test
+    public void readsXrefTable() throws IOException {
+        File file = write(pages().object(4, INFO).endWithTable(TRAILER));
+        assertInfo(file, "A (short) title", "Joë");
+    }
+
+    @Test
+    public void readsXrefStream() throws IOException {
+        File file = write(pages().object(4, INFO).endWithStream(5, TRAILER));
+        assertInfo(file, "A (short) title", "Joë");
+    }
+
+    @Test
+    public void readsInfoFromObjectStream() throws IOException {
+        File file = write(pages().objectStream(6, Collections.singletonMap(4, INFO)).endWithStream(5, TRAILER));
+        assertInfo(file, "A (short) title", "Joë");
+    }
+
+    @Test
+    public void readsInfoFromObjectStreamOfHybridFile() throws IOException {
+        File file = write(pages().objectStream(6, Collections.singletonMap(4, INFO)).endHybrid(5, TRAILER));
+        assertInfo(file, "A (short) title", "Joë");
+    }
+
+    @Test
+    public void readsTextFromObjectStream() throws IOException {
+        Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(4, "<< /Title 7 0 R /Author 8 0 R >>");
+        objects.put(7, "(Indirect title)");
+        File file = write(pages().objectStream(6, objects).object(8, "(Indirect author)")
+                .endHybrid(5, TRAILER));
+        assertInfo(file, "Indirect title", "Indirect author");
+    }
+
+    @Test
+    public void readsLastUpdateOfTable() throws IOException {
+        File file = write(pages().object(4, INFO).endWithTable(TRAILER)
+                .object(4, "<< /Title (New title) >>").endWithTable(TRAILER));
+        assertInfo(file, "New title", null);
+    }
+
+    @Test
+    public void readsLastUpdateOfStream() throws IOException {
+        File file = write(pages().object(4, INFO).endWithStream(5, TRAILER)
+                .objectStream(7, Collections.singletonMap(4, "<< /Title (New title) >>")).endWithStream(8, TRAILER));
+        assertInfo(file, "New title", null);
+    }
+
+    @Test
+    public void readsHybridUpdateOfTable() throws IOException {
+        File file = write(pages().object(4, INFO).endWithTable(TRAILER)
+                .objectStream(6, Collections.singletonMap(4, "<< /Title (New title) >>")).endHybrid(5, TRAILER));
+        assertInfo(file, "New title", null);
+    }
+
+    @Test
+    public void readsInfoOfEarlierUpdate() throws IOException {
+        File file = write(pages().object(4, INFO).endWithStream(5, TRAILER)
+                .object(3, PAGE).endWithTable("/Root 1 0 R"));
+        assertInfo(file, "A (short) title", "Joë");
+    }
+
+    @Test
+    public void readsNamesAndDocumentId() throws IOException {
+        File file = write(pages().object(4, INFO).endWithTable(TRAILER));
+        try (InfoReader reader = new InfoReader(file)) {
+            assertEquals("True", reader.readInfo().get("Trapped"));
+            assertEquals("0123abcd", reader.getDocumentId());
+        }
+    }
+
+    @Test
+    public void readsFileWithoutInfo() throws IOException {
+        File file = write(pages().endWithTable("/Root 1 0 R"));
+        try (InfoReader reader = new InfoReader(file)) {
+            assertEquals(Collections.emptyMap(), reader.readInfo());
+            assertNull(reader.getDocumentId());
+        }
+    }
+
+    @Test
+    public void rejectsFreeInfoObject() throws IOException {
+        File file = write(pages().endWithTable(TRAILER));
+        assertRejected(file);
+        assertNull(InfoReader.readModel(file).getProperty(TITLE_PROPERTY_NAME).getValue());
+    }
+
+    @Test
+    public void rejectsEncryptedFile() throws IOException {
+        File file = write(pages().object(4, INFO).object(5, "<< /Filter /Standard >>")
+                .endWithTable(TRAILER + " /Encrypt 5 0 R"));
+        assertRejected(file);
+    }
+
+    @Test
+    public void rejectsMissingStartxref() throws IOException {
+        File file = folder.newFile("broken.pdf");
+        Files.write(file.toPath(), "%PDF-1.4\n1 0 obj\n<< >>\nendobj\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertRejected(file);
+    }
+
+    private File write(PdfFixture fixture) throws IOException {
+        return fixture.writeTo(folder.newFile());
+    }
+
+    /**
+     * Checks the title and author read by the fast path, and that they are
+     * the ones PDFBox reads.
+     */
+    private static void assertInfo(File file, String title, String author) throws IOException {
+        Map<String, String> info;
+        try (InfoReader reader = new InfoReader(file)) {
+            info = reader.readInfo();
+        }
+        assertEquals(title, info.get("Title"));
+        assertEquals(author, info.get("Author"));
+        try (PDDocument doc = PDDocument.load(file)) {
+            assertEquals(doc.getDocumentInformation().getTitle(), info.get("Title"));
+            assertEquals(doc.getDocumentInformation().getAuthor(), info.get("Author"));
+        }
+        MetadataModel<String> m = InfoReader.readModel(file);
+        assertEquals(title, m.getProperty(TITLE_PROPERTY_NAME).getValue());
+    }
+
+    private static void assertRejected(File file) {
+        try (InfoReader reader = new InfoReader(file)) {
+            reader.readInfo();
+            fail("expected an IOException");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+}
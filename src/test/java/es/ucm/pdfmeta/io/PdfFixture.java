@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writes small PDF files with a chosen cross-reference layout: classic
+ * tables, cross-reference streams, hybrid files whose table has an
+ * {@code /XRefStm}, and object streams. Objects are added to the current
+ * update, and each update ends with its cross-reference section; later
+ * updates are appended with a {@code /Prev} link to the previous one.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+class PdfFixture {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /**
+     * Entries of the current update, as {type, offset or object stream,
+     * generation or index}.
+     */
+    private final Map<Integer, long[]> entries = new TreeMap<>();
+    private int size = 1;
+    private long prev = -1;
+
+    PdfFixture() {
+        write("%PDF-1.5\n%âãÏÓ\n");
+    }
+
+    /**
+     * Adds an indirect object with the given source.
+     */
+    PdfFixture object(int number, String body) {
+        entries.put(number, new long[] { 1, out.size(), 0 });
+        write(number + " 0 obj\n" + body + "\nendobj\n");
+        size = Math.max(size, number + 1);
+        return this;
+    }
+
+    /**
+     * Adds a compressed object stream holding the given objects, keyed by
+     * number.
+     */
+    PdfFixture objectStream(int number, Map<Integer, String> objects) {
+        StringBuilder header = new StringBuilder();
+        StringBuilder bodies = new StringBuilder();
+        int index = 0;
+        for (Map.Entry<Integer, String> object : objects.entrySet()) {
+            header.append(object.getKey()).append(' ').append(bodies.length()).append(' ');
+            bodies.append(object.getValue()).append('\n');
+            entries.put(object.getKey(), new long[] { 2, number, index++ });
+            size = Math.max(size, object.getKey() + 1);
+        }
+        byte[] data = deflate((header.toString() + bodies).getBytes(StandardCharsets.ISO_8859_1));
+        stream(number, "/Type /ObjStm /N " + objects.size() + " /First " + header.length()
+                + " /Filter /FlateDecode", data);
+        return this;
+    }
+
+    /**
+     * Ends the update with a classic cross-reference table.
+     */
+    PdfFixture endWithTable(String trailer) {
+        long offset = out.size();
+        write(table(false));
+        write("trailer\n<< " + trailerEntries(trailer) + " >>\n");
+        return end(offset);
+    }
+
+    /**
+     * Ends the update with a cross-reference stream, which is object
+     * {@code number}.
+     */
+    PdfFixture endWithStream(int number, String trailer) {
+        long offset = out.size();
+        entries.put(number, new long[] { 1, offset, 0 });
+        size = Math.max(size, number + 1);
+        xrefStream(number, trailer, entries);
+        return end(offset);
+    }
+
+    /**
+     * Ends the update as a hybrid file: a cross-reference stream, which is
+     * object {@code number}, holds the objects in object streams, and a
+     * classic table that lists them as free points to it with
+     * {@code /XRefStm}, as writers that stay readable by PDF 1.4 readers do.
+     */
+    PdfFixture endHybrid(int number, String trailer) {
+        Map<Integer, long[]> compressed = new TreeMap<>();
+        entries.forEach((n, entry) -> {
+            if (entry[0] == 2) {
+                compressed.put(n, entry);
+            }
+        });
+        long stream = out.size();
+        entries.put(number, new long[] { 1, stream, 0 });
+        size = Math.max(size, number + 1);
+        xrefStream(number, "", compressed);
+        long offset = out.size();
+        write(table(true));
+        write("trailer\n<< " + trailerEntries(trailer) + " /XRefStm " + stream + " >>\n");
+        return end(offset);
+    }
+
+    byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    File writeTo(File file) throws IOException {
+        Files.write(file.toPath(), out.toByteArray());
+        return file;
+    }
+
+    private PdfFixture end(long offset) {
+        write("startxref\n" + offset + "\n%%EOF\n");
+        entries.clear();
+        prev = offset;
+        return this;
+    }
+
+    private String trailerEntries(String trailer) {
+        return "/Size " + size + (prev >= 0 ? " /Prev " + prev : "") + " " + trailer;
+    }
+
+    /**
+     * A table of the entries of this update, one subsection per run of
+     * consecutive numbers. Compressed objects are listed as free in a hybrid
+     * table and left out otherwise.
+     */
+    private String table(boolean hybrid) {
+        Map<Integer, long[]> listed = new TreeMap<>();
+        if (prev < 0) {
+            listed.put(0, new long[] { 0, 0, 65535 });
+        }
+        entries.forEach((n, entry) -> {
+            if (entry[0] == 1) {
+                listed.put(n, entry);
+            } else if (hybrid) {
+                listed.put(n, new long[] { 0, 0, 0 });
+            }
+        });
+        StringBuilder sb = new StringBuilder("xref\n");
+        Integer[] numbers = listed.keySet().toArray(new Integer[0]);
+        for (int i = 0; i < numbers.length; ) {
+            int j = i + 1;
+            while (j < numbers.length && numbers[j] == numbers[j - 1] + 1) {
+                j++;
+            }
+            sb.append(numbers[i]).append(' ').append(j - i).append('\n');
+            for (int k = i; k < j; k++) {
+                long[] entry = listed.get(numbers[k]);
+                sb.append(String.format("%010d %05d %c \n", entry[1], entry[2], entry[0] == 1 ? 'n' : 'f'));
+            }
+            i = j;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a cross-reference stream of the given entries, compressed with
+     * the PNG Up predictor as most writers do.
+     */
+    private void xrefStream(int number, String trailer, Map<Integer, long[]> listed) {
+        int[] widths = { 1, 4, 2 };
+        int columns = widths[0] + widths[1] + widths[2];
+        StringBuilder index = new StringBuilder();
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        byte[] previous = new byte[columns];
+        Integer[] numbers = listed.keySet().toArray(new Integer[0]);
+        for (int i = 0; i < numbers.length; ) {
+            int j = i + 1;
+            while (j < numbers.length && numbers[j] == numbers[j - 1] + 1) {
+                j++;
+            }
+            index.append(numbers[i]).append(' ').append(j - i).append(' ');
+            for (int k = i; k < j; k++) {
+                long[] entry = listed.get(numbers[k]);
+                byte[] row = new byte[columns];
+                int p = 0;
+                for (int f = 0; f < 3; f++) {
+                    for (int b = widths[f] - 1; b >= 0; b--) {
+                        row[p++] = (byte) (entry[f] >> (8 * b));
+                    }
+                }
+                rows.write(2);
+                for (int c = 0; c < columns; c++) {
+                    rows.write(row[c] - previous[c]);
+                }
+                previous = row;
+            }
+            i = j;
+        }
+        stream(number, "/Type /XRef " + trailerEntries(trailer) + " /Index [" + index.toString().trim()
+                + "] /W [1 4 2] /Filter /FlateDecode /DecodeParms << /Predictor 12 /Columns " + columns + " >>",
+                deflate(rows.toByteArray()));
+    }
+
+    private void stream(int number, String dict, byte[] data) {
+        entries.putIfAbsent(number, new long[] { 1, out.size(), 0 });
+        write(number + " 0 obj\n<< " + dict + " /Length " + data.length + " >>\nstream\n");
+        out.write(data, 0, data.length);
+        write("\nendstream\nendobj\n");
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            result.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return result.toByteArray();
+    }
+
+    private void write(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import es.ucm.pdfmeta.io.PdfObjectParser.Name;
+import es.ucm.pdfmeta.io.PdfObjectParser.Ref;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Checks the PDF object syntax accepted by {@link PdfObjectParser}.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class PdfObjectParserTest {
+
+    private static PdfObjectParser parser(String text) {
+        return new PdfObjectParser(ByteInput.of(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static Object parse(String text) throws IOException {
+        return parser(text).readObject();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void parsesNumbers() throws IOException {
+        assertEquals(42L, parse("42"));
+        assertEquals(-7L, parse("-7"));
+        assertEquals(3.5, (Double) parse("3.5"), 0);
+        assertEquals(-0.25, (Double) parse("-.25"), 0);
+    }
+
+    @Test
+    public void parsesKeywords() throws IOException {
+        assertEquals(Boolean.TRUE, parse("true"));
+        assertEquals(Boolean.FALSE, parse("false"));
+        assertNull(parse("null"));
+    }
+
+    @Test
+    public void tellsReferencesFromNumbers() throws IOException {
+        Ref ref = (Ref) parse("12 0 R");
+        assertEquals(12, ref.number);
+        assertEquals(0, ref.generation);
+        assertEquals(Arrays.asList(1L, 2L, new Name("R")), parse("[1 2 /R]"));
+        PdfObjectParser parser = parser("1 2 3");
+        assertEquals(1L, parser.readObject());
+        assertEquals(2L, parser.readObject());
+        assertEquals(3L, parser.readObject());
+    }
+
+    @Test
+    public void parsesNames() throws IOException {
+        assertEquals(new Name("Title"), parse("/Title"));
+        assertEquals(new Name("A B"), parse("/A#20B"));
+        assertEquals(new Name(""), parse("/ "));
+    }
+
+    @Test
+    public void parsesLiteralStrings() throws IOException {
+        assertArrayEquals(bytes("a (nested) string"), (byte[]) parse("(a (nested) string)"));
+        assertArrayEquals(bytes("tab\there ) \\"), (byte[]) parse("(tab\\there \\) \\\\)"));
+        assertArrayEquals(bytes("Aéz"), (byte[]) parse("(\\101\\351z)"));
+        assertArrayEquals(bytes("joined"), (byte[]) parse("(join\\\ned)"));
+        assertArrayEquals(bytes("\n"), (byte[]) parse("(\r\n)"));
+    }
+
+    @Test
+    public void parsesHexStrings() throws IOException {
+        assertArrayEquals(new byte[] { (byte) 0xfe, (byte) 0xff, 0, 0x41 }, (byte[]) parse("<FEFF 0041>"));
+        assertArrayEquals(new byte[] { (byte) 0xab, (byte) 0xc0 }, (byte[]) parse("<abc>"));
+    }
+
+    @Test
+    public void parsesContainers() throws IOException {
+        Object value = parse("<< /Kids [1 0 R (x) [/A]] /Count 2 % comment\n /Sub << /K null >> >>");
+        assertTrue(value instanceof Map);
+        Map<?, ?> dict = (Map<?, ?>) value;
+        assertEquals(2L, dict.get("Count"));
+        List<?> kids = (List<?>) dict.get("Kids");
+        assertEquals(3, kids.size());
+        assertEquals(1, ((Ref) kids.get(0)).number);
+        assertEquals(Arrays.asList(new Name("A")), kids.get(2));
+        assertTrue(((Map<?, ?>) dict.get("Sub")).containsKey("K"));
+    }
+
+    @Test
+    public void readsObjectHeaders() throws IOException {
+        PdfObjectParser parser = parser("  % comment\n17 0 obj\n<< /Length 3 >>\nstream\r\nabc");
+        assertEquals(17, parser.readObjectHeader());
+        assertEquals(3L, ((Map<?, ?>) parser.readObject()).get("Length"));
+        parser.skipStreamKeyword();
+        assertEquals('a', parser.getInput().byteAt(parser.getPosition()));
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        for (String text : new String[] { "(unterminated", "<abc", "[1 2", "<< 1 2 >>", "1x", ")", "" }) {
+            try {
+                parse(text);
+                fail("accepted " + text);
+            } catch (IOException ex) {
+                // expected
+            }
+        }
+    }
+}
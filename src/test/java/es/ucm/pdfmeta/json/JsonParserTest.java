@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package es.ucm.pdfmeta.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Checks the values returned by {@link JsonParser} and the documents it
+ * rejects.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class JsonParserTest {
+
+    @Test
+    public void parsesScalars() throws IOException {
+        assertEquals(12L, JsonParser.parse("12"));
+        assertEquals(-3L, JsonParser.parse(" -3 "));
+        assertEquals(2.5e3, (Double) JsonParser.parse("2.5e3"), 0);
+        assertEquals(Boolean.TRUE, JsonParser.parse("true"));
+        assertEquals(Boolean.FALSE, JsonParser.parse("false"));
+        assertNull(JsonParser.parse("null"));
+    }
+
+    @Test
+    public void parsesStrings() throws IOException {
+        assertEquals("a\"b\\c/d\n\t", JsonParser.parse("\"a\\\"b\\\\c\\/d\\n\\t\""));
+        assertEquals("Joë \uD83D\uDCC4", JsonParser.parse("\"Jo\\u00eb \\ud83d\\udcc4\""));
+        assertEquals("", JsonParser.parse("\"\""));
+    }
+
+    @Test
+    public void keepsMemberOrder() throws IOException {
+        Map<?, ?> object = (Map<?, ?>) JsonParser.parse("{\"title\": \"T\", \"author\": null, \"bibtex\": [1, {}]}");
+        assertEquals(Arrays.asList("title", "author", "bibtex"), Arrays.asList(object.keySet().toArray()));
+        assertEquals("T", object.get("title"));
+        assertNull(object.get("author"));
+        assertEquals(Arrays.asList(1L, Collections.emptyMap()), object.get("bibtex"));
+    }
+
+    @Test
+    public void parsesNestedArrays() throws IOException {
+        List<?> list = (List<?>) JsonParser.parse("[[], [[\"x\"]], 0]");
+        assertEquals(Collections.emptyList(), list.get(0));
+        assertEquals(Collections.singletonList(Collections.singletonList("x")), list.get(1));
+        assertEquals(0L, list.get(2));
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() {
+        String[] documents = { "", "{", "[1,", "{\"a\" 1}", "{1: 2}", "\"open", "\"bad \\x escape\"",
+                "\"\\u12\"", "\"tab\there\"", "tru", "1 2", "--1", "[1] x" };
+        for (String document : documents) {
+            try {
+                JsonParser.parse(document);
+                fail("accepted " + document);
+            } catch (IOException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2016 Manuel Montenegro (mmontene@ucm.es).
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package es.ucm.pdfmeta.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import es.ucm.pdfmeta.batch.BatchOptions;
+import es.ucm.pdfmeta.json.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs {@link MetadataServer} on a free loopback port and checks its
+ * requests, the files it gives access to and its limits. The server is
+ * shared by the tests, as stopping it takes a few seconds; the tests that
+ * write work on files of their own.
+ *
+ * @author Manuel Montenegro (mmontene@ucm.es)
+ */
+public class MetadataServerTest {
+    private static final long PERMIT_TIMEOUT_MILLIS = 200;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static File served;
+    private static MetadataServer server;
+    private static int port;
+
+    @BeforeClass
+    public static void start() throws IOException {
+        served = folder.newFolder("served");
+        writePdf(new File(served, "a.pdf"), "A title");
+        BatchOptions options = BatchOptions.parse(new String[] {
+            "--serve", "0", "--threads", "1", served.getPath()
+        });
+        server = new MetadataServer(options, new PrintStream(new ByteArrayOutputStream()), PERMIT_TIMEOUT_MILLIS);
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.close();
+    }
+
+    @Test
+    public void getsMetadata() throws IOException {
+        Response response = request("GET", "/metadata?path=a.pdf", null);
+        assertEquals(200, response.status);
+        assertEquals("A title", response.json().get("title"));
+    }
+
+    @Test
+    public void putsMetadata() throws IOException {
+        writePdf(new File(served, "put.pdf"), "A title");
+        byte[] changes = "{\"title\": \"New title\"}".getBytes(StandardCharsets.UTF_8);
+        Response response = request("PUT", "/metadata?path=put.pdf", changes);
+        assertEquals(200, response.status);
+        assertEquals("updated", response.json().get("outcome"));
+        try (PDDocument doc = PDDocument.load(new File(served, "put.pdf"))) {
+            assertEquals("New title", doc.getDocumentInformation().getTitle());
+        }
+        assertEquals("unchanged", request("PUT", "/metadata?path=put.pdf", changes).json().get("outcome"));
+        byte[] unknown = "{\"colour\": \"red\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals(400, request("PUT", "/metadata?path=put.pdf", unknown).status);
+    }
+
+    @Test
+    public void postsDocument() throws IOException {
+        File file = new File(served, "post.pdf");
+        writePdf(file, "A title");
+        byte[] pdf = Files.readAllBytes(file.toPath());
+        Response response = request("POST", "/metadata", pdf);
+        assertEquals(200, response.status);
+        assertEquals("A title", response.json().get("title"));
+
+        response = request("POST", "/pdf?title=Sent%20title", pdf);
+        assertEquals(200, response.status);
+        try (PDDocument doc = PDDocument.load(response.body)) {
+            assertEquals("Sent title", doc.getDocumentInformation().getTitle());
+        }
+    }
+
+    @Test
+    public void hidesFilesOutsideServedDirectories() throws IOException {
+        File outside = new File(folder.getRoot(), "outside.pdf");
+        writePdf(outside, "Private");
+        Files.createSymbolicLink(new File(served, "link.pdf").toPath(), outside.toPath());
+        assertEquals(404, request("GET", "/metadata?path=../outside.pdf", null).status);
+        assertEquals(404, request("GET", "/metadata?path=" + outside.getPath(), null).status);
+        assertEquals(404, request("GET", "/metadata?path=link.pdf", null).status);
+        byte[] changes = "{\"title\": \"x\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals(404, request("PUT", "/metadata?path=link.pdf", changes).status);
+        Response missing = request("GET", "/metadata?path=missing.pdf", null);
+        assertEquals(404, missing.status);
+        assertEquals("no such file: missing.pdf", missing.json().get("error"));
+    }
+
+    @Test
+    public void rejectsOtherHosts() throws IOException {
+        assertEquals(403, rawStatus("GET /metadata?path=a.pdf", "attacker.example:" + port));
+        assertEquals(403, rawStatus("GET /metrics", "attacker.example:" + port));
+        assertEquals(403, rawStatus("GET /metadata?path=a.pdf", "localhost:" + (port + 1)));
+        assertEquals(200, rawStatus("GET /metadata?path=a.pdf", "localhost:" + port));
+        assertEquals(200, rawStatus("GET /metadata?path=a.pdf", "127.0.0.1:" + port));
+    }
+
+    @Test
+    public void failsWhenEveryDocumentSlotIsTaken() throws Exception {
+        try (Socket slow = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            // a body that never arrives keeps the only slot taken
+            OutputStream out = slow.getOutputStream();
+            out.write(("POST /metadata HTTP/1.1\r\nHost: 127.0.0.1:" + port + "\r\nContent-Length: 100000\r\n\r\n%PDF-")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            int status = 0;
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (status != 503 && System.currentTimeMillis() < deadline) {
+                status = request("GET", "/metadata?path=a.pdf", null).status;
+            }
+            assertEquals(503, status);
+        }
+        int status = 0;
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (status != 200 && System.currentTimeMillis() < deadline) {
+            status = request("GET", "/metadata?path=a.pdf", null).status;
+        }
+        assertEquals(200, status);
+    }
+
+    private static void writePdf(File file, String title) throws IOException {
+        try (PDDocument doc = new PDDocument()) {
+            doc.addPage(new PDPage());
+            doc.getDocumentInformation().setTitle(title);
+            doc.save(file);
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final byte[] body;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        Map<?, ?> json() throws IOException {
+            Object value = JsonParser.parse(new String(body, StandardCharsets.UTF_8));
+            assertTrue(value instanceof Map);
+            return (Map<?, ?>) value;
+        }
+    }
+
+    private static Response request(String method, String target, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + target).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Connection", "close");
+            if (body != null) {
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                return new Response(status, readAll(in));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sends a request without a body with the given {@code Host} header,
+     * which {@link HttpURLConnection} does not allow to be set, and returns
+     * the status of the response.
+     */
+    private static int rawStatus(String requestLine, String host) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.getOutputStream().write((requestLine + " HTTP/1.1\r\nHost: " + host
+                    + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            String response = new String(readAll(socket.getInputStream()), StandardCharsets.ISO_8859_1);
+            return Integer.parseInt(response.substring("HTTP/1.1 ".length(), "HTTP/1.1 ".length() + 3));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        if (in == null) {
+            return result.toByteArray();
+        }
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+}